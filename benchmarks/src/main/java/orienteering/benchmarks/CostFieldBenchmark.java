@@ -0,0 +1,64 @@
+package orienteering.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-map cost field from the first control of white.txt: delta-stepping on pools of 1, 2, 4 and 8
+ * threads, against single-threaded Dijkstra. Thread counts above the machine's core count only
+ * measure the cost of the extra synchronization.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CostFieldBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"summer", "winter"})
+    public String season;
+
+    private Object grid;
+
+    private Object workspace;
+
+    private int source;
+
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() throws IOException {
+        Object map = Solver.loadMap(Solver.readImage("terrain.png"), Solver.dataFile("mpp.txt"));
+        grid = Solver.getGrid(map, Solver.season(season));
+        workspace = Solver.newWorkspace(Solver.size(grid));
+        source = Solver.readCourse(grid, "inputFiles/white.txt")[0];
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown
+    public void tearDown(){
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public float[] deltaStepping(){
+        return Solver.deltaStepping(grid, source, pool);
+    }
+
+    @Benchmark
+    public double[] dijkstra(){
+        return Solver.dijkstra(grid, source, workspace);
+    }
+}
@@ -0,0 +1,61 @@
+package orienteering.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Solving a whole bundled course, all legs through CourseSolver as the command line does. openList
+ * compares A*'s binary heap with the radix heap; -p quantum=1 runs the radix heap on fixed-point keys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CourseBenchmark {
+
+    @Param({"white", "brown", "red"})
+    public String course;
+
+    @Param({"summer", "spring"})
+    public String season;
+
+    @Param({"astar"})
+    public String search;
+
+    @Param({"heap", "radix"})
+    public String openList;
+
+    @Param({"0"})
+    public String quantum;
+
+    private Object solver;
+
+    private int[] controls;
+
+    @Setup
+    public void setup() throws IOException {
+        Object map = Solver.loadMap(Solver.readImage("terrain.png"), Solver.dataFile("mpp.txt"));
+        Object grid = Solver.getGrid(map, Solver.season(season));
+        Map<String, String> options = new HashMap<>();
+        options.put("open-list", openList);
+        options.put("quantum", quantum);
+        solver = Solver.courseSolver(grid, search, options);
+        controls = Solver.readCourse(grid, "inputFiles/" + course + ".txt");
+    }
+
+    @Benchmark
+    public List<?> solve(){
+        return Solver.solve(solver, controls);
+    }
+}
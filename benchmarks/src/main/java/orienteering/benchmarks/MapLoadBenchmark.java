@@ -0,0 +1,47 @@
+package orienteering.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading the bundled map: classifying the terrain image, parsing the elevation file, and both together.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MapLoadBenchmark {
+
+    private BufferedImage image;
+
+    private String elevationFileName;
+
+    @Setup
+    public void setup() throws IOException {
+        image = Solver.readImage("terrain.png");
+        elevationFileName = Solver.dataFile("mpp.txt");
+    }
+
+    @Benchmark
+    public byte[] classifyTerrain(){
+        return Solver.getTerrainFromImg(image, image.getHeight(), image.getWidth());
+    }
+
+    @Benchmark
+    public float[] readElevationFile(){
+        return Solver.readElevationFile(elevationFileName, image.getWidth(), image.getHeight());
+    }
+
+    @Benchmark
+    public Object loadGrid(){
+        return Solver.loadGrid(image, elevationFileName);
+    }
+}
@@ -0,0 +1,66 @@
+package orienteering.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-leg A* on the bundled map. The legs are the one-leg courses of inputFiles:
+ * short is simple.txt (about 400 cost units), medium wPath.txt (about 1500) and long el-path.txt
+ * (about 13000, across most of the map).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchBenchmark {
+
+    @Param({"short", "medium", "long"})
+    public String distance;
+
+    @Param({"summer", "winter"})
+    public String season;
+
+    private Object grid;
+
+    private Object workspace;
+
+    private int start;
+
+    private int goal;
+
+    private final int[] neighbors = new int[8];
+
+    @Setup
+    public void setup() throws IOException {
+        Object map = Solver.loadMap(Solver.readImage("terrain.png"), Solver.dataFile("mpp.txt"));
+        grid = Solver.getGrid(map, Solver.season(season));
+        workspace = Solver.newWorkspace(Solver.size(grid));
+        String course = distance.equals("short") ? "simple.txt" : distance.equals("medium") ? "wPath.txt" : "el-path.txt";
+        int[] controls = Solver.readCourse(grid, "inputFiles/" + course);
+        start = controls[0];
+        goal = controls[1];
+    }
+
+    @Benchmark
+    public double aStar(){
+        return Solver.aStar(grid, start, goal, workspace);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void getNeighbors(Blackhole blackhole){
+        int count = Solver.getNeighbors(grid, start, neighbors);
+        for(int i = 0; i < count; i++){
+            blackhole.consume(neighbors[i]);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package orienteering.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Season preprocessing: computing the overlay a season applies to the summer map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SeasonBenchmark {
+
+    @Param({"fall", "winter", "spring"})
+    public String season;
+
+    private Object grid;
+
+    private Object seasonValue;
+
+    @Setup
+    public void setup() throws IOException {
+        grid = Solver.loadGrid(Solver.readImage("terrain.png"), Solver.dataFile("mpp.txt"));
+        seasonValue = Solver.season(season);
+    }
+
+    @Benchmark
+    public BitSet computeOverlay(){
+        return Solver.computeOverlay(seasonValue, grid);
+    }
+}
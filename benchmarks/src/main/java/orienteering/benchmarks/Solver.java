@@ -0,0 +1,302 @@
+package orienteering.benchmarks;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Access to the solver for the benchmarks. The solver lives in the unnamed package, which Java code in
+ * a named package can't refer to, and JMH refuses benchmarks in the unnamed package, so the solver is
+ * called through method handles. They are static final constants, which the JIT inlines like direct calls.
+ */
+final class Solver {
+
+    private static final Class<?> LAB1 = type("lab1");
+
+    private static final Class<?> GRID = type("TerrainGrid");
+
+    private static final Class<?> SEASON = type("Season");
+
+    private static final Class<?> SEASONAL_MAP = type("SeasonalMap");
+
+    private static final Class<?> WORKSPACE = type("SearchWorkspace");
+
+    private static final Class<?> ROUTE = type("Route");
+
+    private static final Class<?> HEURISTIC = type("Heuristic");
+
+    private static final Class<?> LEG_SEARCH = type("LegSearch");
+
+    private static final Class<?> SEARCH_MODE = type("SearchMode");
+
+    private static final Class<?> COURSE_SOLVER = type("CourseSolver");
+
+    private static final Class<?> DIJKSTRA = type("Dijkstra");
+
+    private static final Class<?> DELTA_STEPPING = type("DeltaStepping");
+
+    private static final MethodHandle READ_ELEVATION = findStatic(LAB1, "readElevationFile", float[].class, String.class, int.class, int.class);
+
+    private static final MethodHandle TERRAIN_FROM_IMAGE = findStatic(LAB1, "getTerrainFromImg", byte[].class, BufferedImage.class, int.class, int.class);
+
+    private static final MethodHandle LOAD_GRID = findStatic(LAB1, "loadGrid", GRID, BufferedImage.class, String.class);
+
+    private static final MethodHandle LOAD_MAP = findStatic(SEASONAL_MAP, "load", SEASONAL_MAP, BufferedImage.class, String.class);
+
+    private static final MethodHandle GET_GRID = findVirtual(SEASONAL_MAP, "getGrid", GRID, SEASON);
+
+    private static final MethodHandle COMPUTE_OVERLAY = findVirtual(SEASON, "computeOverlay", BitSet.class, GRID);
+
+    private static final MethodHandle INDEX = findVirtual(GRID, "index", int.class, int.class, int.class);
+
+    private static final MethodHandle NEIGHBORS = findStatic(LAB1, "getNeighbors", int.class, GRID, int.class, int[].class);
+
+    private static final MethodHandle NEW_WORKSPACE = findConstructor(WORKSPACE, int.class);
+
+    private static final MethodHandle GRID_SIZE = findVirtual(GRID, "size", int.class);
+
+    private static final MethodHandle A_STAR = findStatic(LAB1, "aStar", ROUTE, GRID, int.class, int.class, WORKSPACE);
+
+    private static final MethodHandle ONE_TO_ALL = findStatic(DIJKSTRA, "oneToAll", double[].class, GRID, int.class, boolean.class, WORKSPACE);
+
+    private static final MethodHandle DELTA_STEPPING_FIELD = findStatic(DELTA_STEPPING, "costField", float[].class, GRID, int.class, boolean.class, double.class, ForkJoinPool.class);
+
+    private static final double DEFAULT_DELTA = constant(DELTA_STEPPING, "DEFAULT_DELTA");
+
+    private static final MethodHandle ROUTE_COST = findVirtual(ROUTE, "getCost", double.class);
+
+    private static final MethodHandle STRAIGHT_LINE = findStatic(LAB1, "straightLine", HEURISTIC, GRID);
+
+    private static final MethodHandle CREATE_SEARCH = findVirtual(SEARCH_MODE, "create", LEG_SEARCH, GRID, HEURISTIC, Map.class);
+
+    private static final MethodHandle NEW_COURSE_SOLVER = findConstructor(COURSE_SOLVER, LEG_SEARCH);
+
+    private static final MethodHandle SOLVE = findVirtual(COURSE_SOLVER, "solve", List.class, int[].class);
+
+    private Solver(){
+    }
+
+    /**
+     * @return directory holding terrain.png, mpp.txt and inputFiles, set with -Dorienteering.data
+     *         (default: src, for runs from the repository root)
+     */
+    static Path dataDir(){
+        return Paths.get(System.getProperty("orienteering.data", "src"));
+    }
+
+    static BufferedImage readImage(String name) throws IOException {
+        return ImageIO.read(new File(dataDir().resolve(name).toString()));
+    }
+
+    static String dataFile(String name){
+        return dataDir().resolve(name).toString();
+    }
+
+    /**
+     * Reads the controls of a course file as cell indices
+     */
+    static int[] readCourse(Object grid, String name) throws IOException {
+        List<String> lines = Files.readAllLines(dataDir().resolve(name));
+        return lines.stream().map(String::trim).filter(line -> !line.isEmpty()).mapToInt(line -> {
+            String[] values = line.split("\\s+");
+            return index(grid, Integer.parseInt(values[0]), Integer.parseInt(values[1]));
+        }).toArray();
+    }
+
+    static float[] readElevationFile(String fileName, int cols, int rows){
+        try {
+            return (float[]) READ_ELEVATION.invoke(fileName, cols, rows);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static byte[] getTerrainFromImg(BufferedImage image, int rows, int cols){
+        try {
+            return (byte[]) TERRAIN_FROM_IMAGE.invoke(image, rows, cols);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object loadGrid(BufferedImage image, String elevationFileName){
+        try {
+            return LOAD_GRID.invoke(image, elevationFileName);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object loadMap(BufferedImage image, String elevationFileName){
+        try {
+            return LOAD_MAP.invoke(image, elevationFileName);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Object season(String name){
+        return Enum.valueOf((Class) SEASON, name.toUpperCase());
+    }
+
+    static Object getGrid(Object map, Object season){
+        try {
+            return GET_GRID.invoke(map, season);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static BitSet computeOverlay(Object season, Object grid){
+        try {
+            return (BitSet) COMPUTE_OVERLAY.invoke(season, grid);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int index(Object grid, int x, int y){
+        try {
+            return (int) INDEX.invoke(grid, x, y);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int size(Object grid){
+        try {
+            return (int) GRID_SIZE.invoke(grid);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int getNeighbors(Object grid, int index, int[] neighbors){
+        try {
+            return (int) NEIGHBORS.invoke(grid, index, neighbors);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newWorkspace(int size){
+        try {
+            return NEW_WORKSPACE.invoke(size);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * @return cost of the route aStar finds
+     */
+    static double aStar(Object grid, int start, int goal, Object workspace){
+        try {
+            return (double) ROUTE_COST.invoke(A_STAR.invoke(grid, start, goal, workspace));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static double[] dijkstra(Object grid, int source, Object workspace){
+        try {
+            return (double[]) ONE_TO_ALL.invoke(grid, source, false, workspace);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * @return the cost field of a source computed by delta-stepping on a pool, with the default bucket width
+     */
+    static float[] deltaStepping(Object grid, int source, ForkJoinPool pool){
+        try {
+            return (float[]) DELTA_STEPPING_FIELD.invoke(grid, source, false, DEFAULT_DELTA, pool);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * @return a course solver running a search mode with the straight-line heuristic and the given command line options
+     */
+    static Object courseSolver(Object grid, String mode, Map<String, String> options){
+        try {
+            Object searchMode = MethodHandles.publicLookup().findStatic(SEARCH_MODE, "fromName", MethodType.methodType(SEARCH_MODE, String.class)).invoke(mode);
+            Object search = CREATE_SEARCH.invoke(searchMode, grid, STRAIGHT_LINE.invoke(grid), options);
+            return NEW_COURSE_SOLVER.invoke(search);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static List<?> solve(Object courseSolver, int[] controls){
+        try {
+            return (List<?>) SOLVE.invoke(courseSolver, controls);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private static Class<?> type(String name){
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Solver class " + name + " isn't on the classpath", e);
+        }
+    }
+
+    private static double constant(Class<?> owner, String name){
+        try {
+            return owner.getField(name).getDouble(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle findStatic(Class<?> owner, String name, Class<?> returnType, Class<?>... parameters){
+        try {
+            return MethodHandles.publicLookup().findStatic(owner, name, MethodType.methodType(returnType, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle findVirtual(Class<?> owner, String name, Class<?> returnType, Class<?>... parameters){
+        try {
+            return MethodHandles.publicLookup().findVirtual(owner, name, MethodType.methodType(returnType, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle findConstructor(Class<?> owner, Class<?>... parameters){
+        try {
+            return MethodHandles.publicLookup().findConstructor(owner, MethodType.methodType(void.class, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t){
+        if(t instanceof RuntimeException){
+            return (RuntimeException) t;
+        }
+        if(t instanceof Error){
+            throw (Error) t;
+        }
+        return new IllegalStateException(t);
+    }
+}
@@ -0,0 +1,282 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class AnytimeSearch implements LegSearch {
+    /**
+     * Anytime repairing A* (ARA*): a quick route first, then better ones until a deadline. Each pass
+     * of the epsilon schedule is an A* ordered by g + epsilon * h, which for epsilon above 1 heads
+     * for the goal greedily and finds a route costing at most epsilon times the cheapest one. The
+     * passes share their g values, and a pass doesn't reopen the cells the same pass already
+     * expanded: a cheaper way into one of those is set aside and queued again at the start of the
+     * next pass. The last pass should be epsilon 1, which does reopen cells like lab1.aStar and ends
+     * with the cheapest route. The heuristic is always lab1.lowerBound, whatever the course is otherwise
+     * searched with: a pass that doesn't reopen cells only keeps within epsilon of the cheapest route
+     * if the heuristic is consistent, and calculateHn isn't on steep ground.
+     *
+     * After every pass that improves the route, the listener gets the route and a bound on how far off
+     * the cheapest it can be: the smaller of epsilon and the route's cost over the lowest g + h still
+     * queued, which holds because lab1.lowerBound never overestimates.
+     *
+     * The deadline is checked every few hundred expanded cells. Once it has passed, the search stops
+     * and returns the best route so far. The first pass always runs to the end, so a leg that has a
+     * route gets one however short the budget is.
+     */
+
+    public static final double[] DEFAULT_EPSILONS = {2.5, 2.0, 1.5, 1.0};
+
+    public static final double DEFAULT_BUDGET_MILLIS = 100.0;
+
+    private static final int DEADLINE_CHECK_MASK = 255; //the clock is read every 256 expanded cells
+
+    public interface Listener {
+        /**
+         * Called whenever a pass finds a cheaper route
+         * @param route: the route, with the nodes expanded and time taken so far
+         * @param epsilon: weight of the heuristic in the pass that found it
+         * @param bound: the route costs at most bound times the cheapest one
+         */
+        void improved(Route route, double epsilon, double bound);
+    }
+
+    private final TerrainGrid grid;
+
+    private final Heuristic heuristic;
+
+    private final double[] epsilons;
+
+    private final long budgetNanos;
+
+    private final Listener listener;
+
+    private final ThreadLocal<Workspace> workspaces;
+
+    private static class Workspace {
+        /**
+         * State of one query: the A* workspace, the cells set aside for the next pass and every cell
+         * the query has reached.
+         */
+
+        final SearchWorkspace search;
+
+        final BitSet inconsistent;
+
+        int[] reached = new int[256];
+
+        int reachedCount;
+
+        Workspace(int size){
+            this.search = new SearchWorkspace(size);
+            this.inconsistent = new BitSet(size);
+        }
+
+        void reach(int cell){
+            if(reachedCount == reached.length){
+                reached = Arrays.copyOf(reached, reached.length * 2);
+            }
+            reached[reachedCount++] = cell;
+        }
+    }
+
+    /**
+     * @param grid: the terrain grid
+     * @param epsilons: heuristic weights of the passes, not increasing and none below 1
+     * @param budgetNanos: time each search may take
+     * @param listener: told about every improved route, null for no one
+     */
+    public AnytimeSearch(TerrainGrid grid, double[] epsilons, long budgetNanos, Listener listener){
+        checkSchedule(epsilons);
+        if(budgetNanos < 0){
+            throw new IllegalArgumentException("The time budget can't be negative, got " + budgetNanos + " ns");
+        }
+        this.grid = grid;
+        this.heuristic = lab1.lowerBound(grid);
+        this.epsilons = epsilons.clone();
+        this.budgetNanos = budgetNanos;
+        this.listener = listener;
+        this.workspaces = ThreadLocal.withInitial(() -> new Workspace(grid.size()));
+    }
+
+    /**
+     * Reads an epsilon schedule
+     * @param text: weights separated by commas, such as 2.5,2,1.5,1
+     * @return the weights
+     * @throws IllegalArgumentException if a weight isn't a number or the schedule isn't valid
+     */
+    public static double[] parseSchedule(String text){
+        String[] parts = text.split(",");
+        double[] epsilons = new double[parts.length];
+        for(int i = 0; i < parts.length; i++){
+            epsilons[i] = Double.parseDouble(parts[i].trim());
+        }
+        checkSchedule(epsilons);
+        return epsilons;
+    }
+
+    private static void checkSchedule(double[] epsilons){
+        if(epsilons.length == 0){
+            throw new IllegalArgumentException("The epsilon schedule needs at least one weight");
+        }
+        for(int i = 0; i < epsilons.length; i++){
+            if(!(epsilons[i] >= 1.0) || epsilons[i] == Double.POSITIVE_INFINITY){
+                throw new IllegalArgumentException("Epsilons must be finite and at least 1, got " + epsilons[i]);
+            }
+            if(i > 0 && epsilons[i] > epsilons[i - 1]){
+                throw new IllegalArgumentException("The epsilon schedule can't increase, got " + epsilons[i - 1] + " then " + epsilons[i]);
+            }
+        }
+    }
+
+    /**
+     * Searches for as long as the time budget allows, with the schedule given to the constructor
+     * @param start: index of the start cell
+     * @param goal: index of the destination cell
+     * @return the best route found, empty if the goal can't be reached
+     */
+    @Override
+    public Route search(int start, int goal) {
+        return search(start, goal, System.nanoTime() + budgetNanos, epsilons, listener);
+    }
+
+    /**
+     * Runs the passes of a schedule until the last one ends or the deadline passes
+     * @param start: index of the start cell
+     * @param goal: index of the destination cell
+     * @param deadline: System.nanoTime() by which the search stops
+     * @param epsilons: heuristic weights of the passes, not increasing and none below 1
+     * @param listener: told about every improved route, null for no one
+     * @return the best route found, empty if the goal can't be reached
+     */
+    public Route search(int start, int goal, long deadline, double[] epsilons, Listener listener){
+        checkSchedule(epsilons);
+        long startTime = System.nanoTime();
+        Workspace workspace = workspaces.get();
+        SearchWorkspace search = workspace.search;
+        search.reset();
+        workspace.inconsistent.clear();
+        workspace.reachedCount = 0;
+        OpenList openList = search.getOpenList();
+        BitSet closed = search.getClosed();
+        EdgeCosts costs = grid.edgeCosts();
+
+        search.setG(start, 0.0, -1);
+        workspace.reach(start);
+        openList.insert(start, epsilons[0] * estimate(start, goal));
+        Route best = null;
+        int expanded = 0;
+
+        for(int pass = 0; pass < epsilons.length; pass++){
+            double epsilon = epsilons[pass];
+            boolean reopen = epsilon == 1.0;
+            if(pass > 0){
+                if(System.nanoTime() >= deadline){
+                    break;
+                }
+                requeue(workspace, goal, epsilon);
+            }
+            boolean stopped = false;
+            while(!openList.isEmpty() && openList.peekKey() < search.getG(goal)){
+                if((expanded & DEADLINE_CHECK_MASK) == 0 && best != null && System.nanoTime() >= deadline){
+                    stopped = true;
+                    break;
+                }
+                int node = openList.poll();
+                expanded++;
+                closed.set(node);
+                double nodeG = search.getG(node);
+                for(int d = 0; d < EdgeCosts.DIRECTIONS; d++){
+                    double step = costs.get(node, d);
+                    if(step == Double.POSITIVE_INFINITY){
+                        continue; //off the map
+                    }
+                    int neighbor = costs.neighbor(node, d);
+                    double tempG = nodeG + step;
+                    double oldG = search.getG(neighbor);
+                    if(tempG >= oldG){
+                        continue;
+                    }
+                    if(oldG == Double.POSITIVE_INFINITY){
+                        workspace.reach(neighbor);
+                    }
+                    search.setG(neighbor, tempG, node);
+                    if(closed.get(neighbor) && !reopen){
+                        workspace.inconsistent.set(neighbor); //queued again by the next pass
+                        continue;
+                    }
+                    closed.clear(neighbor);
+                    openList.insertOrDecrease(neighbor, tempG + epsilon * estimate(neighbor, goal));
+                }
+            }
+            if(stopped){
+                break;
+            }
+            if(search.getG(goal) == Double.POSITIVE_INFINITY){
+                break; //the goal can't be reached, so later passes won't reach it either
+            }
+            int[] cells = lab1.constructPath(search.getParents(), goal);
+            double cost = routeCost(costs, cells);
+            if(best == null || cost < best.getCost()){
+                best = new Route(cells, cost, expanded, SearchStats.of(openList, System.nanoTime() - startTime));
+                if(listener != null){
+                    listener.improved(best, epsilon, Math.min(epsilon, bound(workspace, goal, cost)));
+                }
+            }
+        }
+        SearchStats stats = SearchStats.of(openList, System.nanoTime() - startTime);
+        if(best == null){
+            return Route.none(expanded, stats);
+        }
+        return new Route(best.getCells(), best.getCost(), expanded, stats);
+    }
+
+    /**
+     * Starts a pass: queues the open cells and the ones set aside again, keyed with the pass's epsilon
+     */
+    private void requeue(Workspace workspace, int goal, double epsilon){
+        SearchWorkspace search = workspace.search;
+        OpenList openList = search.getOpenList();
+        int[] queued = new int[openList.size() + workspace.inconsistent.cardinality()];
+        int count = 0;
+        for(int i = 0; i < workspace.reachedCount; i++){
+            int cell = workspace.reached[i];
+            if(openList.contains(cell) || workspace.inconsistent.get(cell)){
+                queued[count++] = cell;
+            }
+        }
+        openList.clear();
+        workspace.inconsistent.clear();
+        search.getClosed().clear();
+        for(int i = 0; i < count; i++){
+            int cell = queued[i];
+            openList.insert(cell, search.getG(cell) + epsilon * estimate(cell, goal));
+        }
+    }
+
+    /**
+     * How many times the cheapest route a route can cost: its cost over the lowest g + h of the cells
+     * still waiting, since the cheapest route has to pass through one of them if it is cheaper
+     */
+    private double bound(Workspace workspace, int goal, double cost){
+        SearchWorkspace search = workspace.search;
+        OpenList openList = search.getOpenList();
+        double lowest = cost;
+        for(int i = 0; i < workspace.reachedCount; i++){
+            int cell = workspace.reached[i];
+            if(openList.contains(cell) || workspace.inconsistent.get(cell)){
+                lowest = Math.min(lowest, search.getG(cell) + estimate(cell, goal));
+            }
+        }
+        return lowest > 0.0 ? cost / lowest : 1.0;
+    }
+
+    private double estimate(int cell, int goal){
+        return heuristic.estimate(cell, goal);
+    }
+
+    private static double routeCost(EdgeCosts costs, int[] cells){
+        double cost = 0.0;
+        for(int i = 1; i < cells.length; i++){
+            cost += costs.cost(cells[i - 1], cells[i]);
+        }
+        return cost;
+    }
+}
@@ -0,0 +1,264 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+public class BatchRunner {
+    /**
+     * Runs many (course, season, output) jobs in one JVM. Each distinct map is loaded once, each of its
+     * seasons is derived once (SeasonalMap keeps the grids and overlays), and the search for a map and
+     * season is built once and shared by every job that needs it. Jobs run on a fixed-size pool, and a
+     * summary table with the wall time of every job is printed at the end. Legs go through a RouteCache
+     * shared by all jobs, so a leg that several courses share, or that a season leaves alone, is only
+     * searched once; how much it saved is printed under the summary.
+     *
+     * Manifest lines are "course season output", or "terrain-image elevation-file course season output"
+     * to use a map other than the default one. Blank lines and lines starting with # are skipped.
+     */
+
+    private final Map<String, String> options;
+
+    private final SearchMode mode;
+
+    //loading is started by whichever job needs a map first; everyone else waits for the same result
+    private final Map<String, FutureTask<LoadedMap>> maps = new HashMap<>();
+
+    private final Map<String, FutureTask<LegSearch>> searches = new HashMap<>();
+
+    private final RouteCache routeCache;
+
+    /**
+     * @param mode: search the legs are solved with
+     * @param options: command line options, including those of RouteCache.fromOptions
+     */
+    public BatchRunner(SearchMode mode, Map<String, String> options){
+        this.mode = mode;
+        this.options = options;
+        this.routeCache = RouteCache.fromOptions(options);
+    }
+
+    public static class Job {
+        /**
+         * One line of a manifest.
+         */
+
+        private final String terrainImgName;
+
+        private final String elevationFileName;
+
+        private final String pathFileName;
+
+        private final Season season;
+
+        private final String outputImgName;
+
+        public Job(String terrainImgName, String elevationFileName, String pathFileName, Season season, String outputImgName){
+            this.terrainImgName = terrainImgName;
+            this.elevationFileName = elevationFileName;
+            this.pathFileName = pathFileName;
+            this.season = season;
+            this.outputImgName = outputImgName;
+        }
+    }
+
+    private static class LoadedMap {
+        /**
+         * A map and the terrain image every job draws a copy of.
+         */
+
+        final BufferedImage image;
+
+        final SeasonalMap map;
+
+        LoadedMap(BufferedImage image, SeasonalMap map){
+            this.image = image;
+            this.map = map;
+        }
+    }
+
+    private static class Result {
+        /**
+         * Outcome of a job for the summary table.
+         */
+
+        int legs;
+
+        double cost;
+
+        long expanded;
+
+        long wallNanos;
+
+        String status = "ok";
+    }
+
+    /**
+     * Reads a manifest
+     * @param manifestFileName: manifest file
+     * @param terrainImgName: terrain image of lines that don't name one
+     * @param elevationFileName: elevation file or bundle of lines that don't name one
+     * @return the jobs, in manifest order
+     * @throws IOException if the manifest can't be read or a line has the wrong number of fields
+     */
+    public static List<Job> readManifest(String manifestFileName, String terrainImgName, String elevationFileName) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        List<String> lines = Files.readAllLines(Paths.get(manifestFileName));
+        for(int i = 0; i < lines.size(); i++){
+            String line = lines.get(i).trim();
+            if(line.isEmpty() || line.startsWith("#")){
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if(fields.length == 3){
+                jobs.add(new Job(terrainImgName, elevationFileName, fields[0], Season.fromName(fields[1]), fields[2]));
+            }
+            else if(fields.length == 5){
+                jobs.add(new Job(fields[0], fields[1], fields[2], Season.fromName(fields[3]), fields[4]));
+            }
+            else{
+                throw new IOException(manifestFileName + ":" + (i + 1) + ": expected 3 or 5 fields but found " + fields.length);
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Runs every job and prints the summary
+     * @param jobs: the jobs
+     * @param threads: number of jobs run at the same time
+     * @param summary: where the summary table goes
+     */
+    public void run(List<Job> jobs, int threads, PrintStream summary){
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> results = new ArrayList<>();
+        for(Job job: jobs){
+            results.add(pool.submit(() -> runJob(job)));
+        }
+        pool.shutdown();
+
+        summary.println(String.format("%-4s %-28s %-7s %-32s %5s %12s %10s %9s  %s",
+                "job", "course", "season", "output", "legs", "cost", "expanded", "wall ms", "status"));
+        double totalJobNanos = 0;
+        for(int i = 0; i < jobs.size(); i++){
+            Job job = jobs.get(i);
+            Result result;
+            try {
+                result = results.get(i).get();
+            } catch (InterruptedException | ExecutionException e) {
+                result = new Result();
+                result.status = "failed: " + e.getCause();
+            }
+            totalJobNanos += result.wallNanos;
+            summary.println(String.format("%-4d %-28s %-7s %-32s %5d %12.1f %10d %9.1f  %s",
+                    i + 1, job.pathFileName, job.season.name().toLowerCase(), job.outputImgName,
+                    result.legs, result.cost, result.expanded, result.wallNanos / 1e6, result.status));
+        }
+        summary.println(String.format("%d jobs on %d threads: %.1f ms wall, %.1f ms summed over jobs",
+                jobs.size(), threads, (System.nanoTime() - start) / 1e6, totalJobNanos / 1e6));
+        if(routeCache != null){
+            summary.println(routeCache.summary());
+        }
+    }
+
+    private Result runJob(Job job){
+        long start = System.nanoTime();
+        Result result = new Result();
+        try {
+            LoadedMap loaded = once(maps, job.terrainImgName + "\n" + job.elevationFileName, () -> {
+                BufferedImage image = ImageIO.read(new File(job.terrainImgName));
+                SeasonalMap map = SeasonalMap.load(image, job.elevationFileName);
+                lab1.applySlopePenalty(map, options);
+                return new LoadedMap(image, map);
+            });
+            TerrainGrid grid = loaded.map.getGrid(job.season);
+            LegSearch shared = search(job.terrainImgName + "\n" + job.elevationFileName, loaded.map, job.season);
+            //only legs that are actually searched count as searches; the route cache counts its own hits
+            LegSearch search = (from, to) -> {
+                Route route = shared.search(from, to);
+                Metrics.shared().recordLeg(route);
+                return route;
+            };
+
+            List<Pixel> path = lab1.readPathFile(job.pathFileName, grid);
+            List<Route> event = new ArrayList<>();
+            for(int i = 0; i + 1 < path.size(); i++){
+                int from = grid.index(path.get(i).getX(), path.get(i).getY());
+                int to = grid.index(path.get(i + 1).getX(), path.get(i + 1).getY());
+                Route route = routeCache == null ? search.search(from, to) : routeCache.route(loaded.map, job.season, from, to, search);
+                event.add(route);
+                result.cost += route.getCost();
+                result.expanded += route.getExpanded();
+            }
+            result.legs = event.size();
+
+            //jobs share the loaded image, so each draws on its own copy
+            BufferedImage image = new BufferedImage(loaded.image.getColorModel(), loaded.image.copyData(null),
+                    loaded.image.isAlphaPremultiplied(), null);
+            BitSet affectedPixels = loaded.map.getOverlay(job.season);
+            lab1.drawCourse(image, grid, affectedPixels, job.season, event);
+            ImageIO.write(image, "png", new File(job.outputImgName));
+        } catch (Exception e) {
+            result.status = "failed: " + e.getMessage();
+        }
+        result.wallNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Gets the search of a map and season, building it if this is the first job to ask. Modes that can
+     * derive a season from summer build the summer search first and derive the season from it.
+     */
+    private LegSearch search(String mapKey, SeasonalMap map, Season season) throws Exception {
+        return once(searches, mapKey + "\n" + season, () -> {
+            TerrainGrid grid = map.getGrid(season);
+            Heuristic heuristic = lab1.createHeuristic(grid, season, options);
+            if(season.getType() == null || !mode.derivesSeasons()){
+                return mode.create(grid, heuristic, options);
+            }
+            LegSearch summer = search(mapKey, map, Season.SUMMER);
+            return mode.deriveSeason(summer, grid, map.getOverlay(season), heuristic);
+        });
+    }
+
+    private interface Loader<T> {
+        T load() throws Exception;
+    }
+
+    /**
+     * Gets a value from a table of shared results, computing it if this is the first job to ask
+     */
+    private static <T> T once(Map<String, FutureTask<T>> table, String key, Loader<T> loader) throws Exception {
+        FutureTask<T> task;
+        boolean first = false;
+        synchronized (table) {
+            task = table.get(key);
+            if(task == null){
+                task = new FutureTask<>(loader::load);
+                table.put(key, task);
+                first = true;
+            }
+        }
+        if(first){
+            task.run();
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+public class BidirectionalSearch implements LegSearch {
+    /**
+     * Bidirectional A*: one search runs forward from the start, the other backward from the goal over
+     * reversed edges (moving into a cell costs that cell's speed, so the backward search charges the
+     * speed of the cell it comes from). Each step expands the side with the smaller open list.
+     *
+     * mu is the cheapest start-to-goal cost seen where the two searches touch. The search stops once
+     * mu is no larger than the smallest f left on either side: every open f is a lower bound on the cost
+     * of a path through that node, so nothing left can beat mu and the result is the same optimal cost
+     * the one-directional aStar finds.
+     */
+
+    private final TerrainGrid grid;
+
+    private final Heuristic heuristic;
+
+    private final ThreadLocal<SearchWorkspace[]> workspaces;
+
+    public BidirectionalSearch(TerrainGrid grid, Heuristic heuristic){
+        this.grid = grid;
+        this.heuristic = heuristic;
+        this.workspaces = ThreadLocal.withInitial(() -> new SearchWorkspace[]{
+                new SearchWorkspace(grid.size()), new SearchWorkspace(grid.size())});
+    }
+
+    @Override
+    public Route search(int start, int goal) {
+        SearchWorkspace[] pair = workspaces.get();
+        return search(grid, start, goal, pair[0], pair[1], heuristic);
+    }
+
+    /**
+     * Runs a bidirectional A* search
+     * @param grid: the terrain grid
+     * @param start: index of the start cell
+     * @param goal: index of the destination cell
+     * @param forward: workspace of the search from the start
+     * @param backward: workspace of the search from the goal
+     * @param heuristic: lower bound on the cost between two cells, used towards the goal going forward
+     *                 and back towards the start going backward
+     * @return the shortest route, empty if there is none
+     */
+    public static Route search(TerrainGrid grid, int start, int goal, SearchWorkspace forward, SearchWorkspace backward, Heuristic heuristic){
+        long startTime = System.nanoTime();
+        forward.reset();
+        backward.reset();
+        OpenList openF = forward.getOpenList();
+        OpenList openB = backward.getOpenList();
+        EdgeCosts costs = grid.edgeCosts();
+
+        forward.setG(start, 0.0, -1);
+        openF.insert(start, heuristic.estimate(start, goal));
+        backward.setG(goal, 0.0, -1);
+        openB.insert(goal, heuristic.estimate(start, goal));
+
+        double mu = start == goal ? 0.0 : Double.POSITIVE_INFINITY;
+        int meet = start == goal ? start : -1;
+        int expanded = 0;
+
+        while(true){
+            double topF = openF.isEmpty() ? Double.POSITIVE_INFINITY : openF.peekKey();
+            double topB = openB.isEmpty() ? Double.POSITIVE_INFINITY : openB.peekKey();
+            if(mu <= Math.max(topF, topB)){
+                break;
+            }
+            boolean expandForward = !openF.isEmpty() && (openB.isEmpty() || openF.size() <= openB.size());
+            expanded++;
+            if(expandForward){
+                int node = openF.poll();
+                double nodeG = forward.getG(node);
+                for(int d = 0; d < EdgeCosts.DIRECTIONS; d++){
+                    double step = costs.get(node, d);
+                    if(step == Double.POSITIVE_INFINITY){
+                        continue; //off the map
+                    }
+                    int neighbor = costs.neighbor(node, d);
+                    double tempG = nodeG + step;
+                    if(tempG >= forward.getG(neighbor)){
+                        continue;
+                    }
+                    forward.setG(neighbor, tempG, node);
+                    openF.insertOrDecrease(neighbor, tempG + heuristic.estimate(neighbor, goal));
+                    double through = tempG + backward.getG(neighbor);
+                    if(through < mu){
+                        mu = through;
+                        meet = neighbor;
+                    }
+                }
+            }
+            else{
+                int node = openB.poll();
+                double nodeG = backward.getG(node);
+                for(int d = 0; d < EdgeCosts.DIRECTIONS; d++){
+                    if(costs.get(node, d) == Double.POSITIVE_INFINITY){
+                        continue;
+                    }
+                    int neighbor = costs.neighbor(node, d);
+                    //reversed edge: the forward move is neighbor -> node
+                    double tempG = nodeG + costs.getInto(node, d);
+                    if(tempG >= backward.getG(neighbor)){
+                        continue;
+                    }
+                    backward.setG(neighbor, tempG, node);
+                    openB.insertOrDecrease(neighbor, tempG + heuristic.estimate(start, neighbor));
+                    double through = forward.getG(neighbor) + tempG;
+                    if(through < mu){
+                        mu = through;
+                        meet = neighbor;
+                    }
+                }
+            }
+        }
+
+        SearchStats stats = SearchStats.of(openF, 0).plus(SearchStats.of(openB, 0), System.nanoTime() - startTime);
+        if(meet == -1){
+            return Route.none(expanded, stats);
+        }
+        int[] head = lab1.constructPath(forward.getParents(), meet);
+        int tail = 0;
+        for(int n = backward.getParent(meet); n != -1; n = backward.getParent(n)){
+            tail++;
+        }
+        int[] cells = new int[head.length + tail];
+        System.arraycopy(head, 0, cells, 0, head.length);
+        int pos = head.length;
+        for(int n = backward.getParent(meet); n != -1; n = backward.getParent(n)){
+            cells[pos++] = n;
+        }
+        return new Route(cells, mu, expanded, stats);
+    }
+}
@@ -0,0 +1,765 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class ContractionHierarchy implements LegSearch {
+    /**
+     * Contraction hierarchy over the 8-connected grid graph of one map and season, with calculateGn
+     * edge weights. Preprocessing contracts the cells one at a time (cheapest edge difference first),
+     * adding a shortcut u -> w through v whenever no witness path avoiding v is as cheap. Every cell
+     * then has a rank, and a query is a bidirectional Dijkstra that only ever moves up in rank, which
+     * settles a few hundred cells instead of a large part of the map. Shortcuts remember the cell they
+     * bypass, so routes can be unpacked back to pixels for drawing.
+     *
+     * The hierarchy only holds for the grid it was built from; it is meant for a fixed map and season
+     * with many queries. save/load keep it on disk (little-endian: magic, version, cols, rows, grid
+     * content hash, cell count, edge counts, ranks, then the upward and downward edge arrays).
+     */
+
+    public static final int MAGIC = 0x52474843; //"CHGR"
+
+    public static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 4 * 4 + 64 + 4 * 3;
+
+    private final TerrainGrid grid;
+
+    private final int[] rank;
+
+    //edges u -> w with rank[w] > rank[u], stored at u
+    private final int[] upOffsets;
+
+    private final int[] upTargets;
+
+    private final double[] upWeights;
+
+    private final int[] upMiddles; //bypassed cell of a shortcut, -1 for an original edge
+
+    //edges u -> w with rank[u] > rank[w], stored at w
+    private final int[] downOffsets;
+
+    private final int[] downSources;
+
+    private final double[] downWeights;
+
+    private final int[] downMiddles;
+
+    private final ThreadLocal<QueryState> states;
+
+    private ContractionHierarchy(TerrainGrid grid, int[] rank, int[] upOffsets, int[] upTargets, double[] upWeights, int[] upMiddles,
+                                 int[] downOffsets, int[] downSources, double[] downWeights, int[] downMiddles){
+        this.grid = grid;
+        this.rank = rank;
+        this.upOffsets = upOffsets;
+        this.upTargets = upTargets;
+        this.upWeights = upWeights;
+        this.upMiddles = upMiddles;
+        this.downOffsets = downOffsets;
+        this.downSources = downSources;
+        this.downWeights = downWeights;
+        this.downMiddles = downMiddles;
+        this.states = ThreadLocal.withInitial(() -> new QueryState(rank.length));
+    }
+
+    /**
+     * @return the number of edges in the hierarchy, shortcuts included
+     */
+    public int getEdgeCount() {
+        return upTargets.length + downSources.length;
+    }
+
+    /**
+     * Contracts every cell of a grid
+     * @param grid: the terrain grid of one season
+     * @return the hierarchy
+     */
+    public static ContractionHierarchy build(TerrainGrid grid){
+        return new Builder(grid).build();
+    }
+
+    @Override
+    public Route search(int start, int goal) {
+        long startTime = System.nanoTime();
+        QueryState state = states.get();
+        double cost = query(start, goal, state);
+        if(cost == Double.POSITIVE_INFINITY){
+            return Route.none(state.settled, state.stats(System.nanoTime() - startTime));
+        }
+        //cells up to the meeting cell come from the forward search, the rest from the backward one
+        IntList cells = new IntList();
+        cells.add(start);
+        int[] up = new int[64];
+        int count = 0;
+        for(int n = state.meet; n != start; n = state.parentF[n]){
+            if(count == up.length){
+                up = Arrays.copyOf(up, count * 2);
+            }
+            up[count++] = n;
+        }
+        int previous = start;
+        for(int i = count - 1; i >= 0; i--){
+            unpack(previous, up[i], cells);
+            previous = up[i];
+        }
+        for(int n = state.meet; n != goal; n = state.parentB[n]){
+            unpack(n, state.parentB[n], cells);
+        }
+        return new Route(cells.toArray(), cost, state.settled, state.stats(System.nanoTime() - startTime));
+    }
+
+    /**
+     * Cost of the cheapest route between two cells, without building the route itself
+     * @param start: index of the start cell
+     * @param goal: index of the destination cell
+     * @return the cost, infinity if the goal can't be reached
+     */
+    public double cost(int start, int goal){
+        return query(start, goal, states.get());
+    }
+
+    private double query(int start, int goal, QueryState state){
+        state.begin();
+        state.settled = 0;
+        state.meet = -1;
+        state.reach(state.distF, state.stampF, start, 0.0);
+        state.reach(state.distB, state.stampB, goal, 0.0);
+        state.parentF[start] = -1;
+        state.parentB[goal] = -1;
+        state.openF.insert(start, 0.0);
+        state.openB.insert(goal, 0.0);
+        double best = Double.POSITIVE_INFINITY;
+        if(start == goal){
+            best = 0.0;
+            state.meet = start;
+        }
+        while(!state.openF.isEmpty() || !state.openB.isEmpty()){
+            double topF = state.openF.isEmpty() ? Double.POSITIVE_INFINITY : state.openF.peekKey();
+            double topB = state.openB.isEmpty() ? Double.POSITIVE_INFINITY : state.openB.peekKey();
+            if(Math.min(topF, topB) >= best){
+                break;
+            }
+            state.settled++;
+            if(topF <= topB){
+                int node = state.openF.poll();
+                double d = state.distF[node];
+                if(stalled(node, d, downOffsets, downSources, downWeights, state.distF, state.stampF, state)){
+                    continue;
+                }
+                for(int e = upOffsets[node]; e < upOffsets[node + 1]; e++){
+                    int next = upTargets[e];
+                    double nd = d + upWeights[e];
+                    if(nd < state.get(state.distF, state.stampF, next)){
+                        state.reach(state.distF, state.stampF, next, nd);
+                        state.parentF[next] = node;
+                        state.openF.insertOrDecrease(next, nd);
+                        double other = state.get(state.distB, state.stampB, next);
+                        if(nd + other < best){
+                            best = nd + other;
+                            state.meet = next;
+                        }
+                    }
+                }
+            }
+            else{
+                int node = state.openB.poll();
+                double d = state.distB[node];
+                if(stalled(node, d, upOffsets, upTargets, upWeights, state.distB, state.stampB, state)){
+                    continue;
+                }
+                for(int e = downOffsets[node]; e < downOffsets[node + 1]; e++){
+                    int next = downSources[e];
+                    double nd = d + downWeights[e];
+                    if(nd < state.get(state.distB, state.stampB, next)){
+                        state.reach(state.distB, state.stampB, next, nd);
+                        state.parentB[next] = node;
+                        state.openB.insertOrDecrease(next, nd);
+                        double other = state.get(state.distF, state.stampF, next);
+                        if(nd + other < best){
+                            best = nd + other;
+                            state.meet = next;
+                        }
+                    }
+                }
+            }
+        }
+        state.openF.clear();
+        state.openB.clear();
+        return best;
+    }
+
+    /**
+     * Stall-on-demand: a cell reached more cheaply through a higher ranked cell that the same search
+     * has already seen is not on any shortest up-down route, so its edges needn't be relaxed
+     */
+    private static boolean stalled(int node, double d, int[] offsets, int[] ends, double[] weights, double[] dist, int[] stamps, QueryState state){
+        for(int e = offsets[node]; e < offsets[node + 1]; e++){
+            if(state.get(dist, stamps, ends[e]) + weights[e] < d){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Appends the cells of edge a -> b (without a) to the route, expanding shortcuts
+     */
+    private void unpack(int a, int b, IntList cells){
+        int middle;
+        if(rank[b] > rank[a]){
+            int e = upOffsets[a];
+            while(upTargets[e] != b){
+                e++;
+            }
+            middle = upMiddles[e];
+        }
+        else{
+            int e = downOffsets[b];
+            while(downSources[e] != a){
+                e++;
+            }
+            middle = downMiddles[e];
+        }
+        if(middle == -1){
+            cells.add(b);
+            return;
+        }
+        unpack(a, middle, cells);
+        unpack(middle, b, cells);
+    }
+
+    /**
+     * Writes the hierarchy to a file
+     * @param fileName: file to write
+     * @throws IOException if the file can't be written
+     */
+    public void save(String fileName) throws IOException {
+        int n = rank.length;
+        long bytes = HEADER_BYTES + 4L * n + 2 * 4L * (n + 1) + 16L * (upTargets.length + downSources.length);
+        if(bytes > Integer.MAX_VALUE){
+            throw new IOException("Hierarchy is too large to save (" + bytes + " bytes)");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) bytes).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(grid.getCols()).putInt(grid.getRows());
+        buffer.put(grid.contentHash().getBytes(StandardCharsets.US_ASCII));
+        buffer.putInt(n).putInt(upTargets.length).putInt(downSources.length);
+        for(int[] array: new int[][]{rank, upOffsets, upTargets}){
+            buffer.asIntBuffer().put(array);
+            buffer.position(buffer.position() + array.length * 4);
+        }
+        buffer.asDoubleBuffer().put(upWeights);
+        buffer.position(buffer.position() + upWeights.length * 8);
+        for(int[] array: new int[][]{upMiddles, downOffsets, downSources}){
+            buffer.asIntBuffer().put(array);
+            buffer.position(buffer.position() + array.length * 4);
+        }
+        buffer.asDoubleBuffer().put(downWeights);
+        buffer.position(buffer.position() + downWeights.length * 8);
+        buffer.asIntBuffer().put(downMiddles);
+        Path path = Paths.get(fileName);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temp, buffer.array());
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads a hierarchy written by save
+     * @param fileName: file to read
+     * @param grid: the grid the hierarchy was built from
+     * @return the hierarchy
+     * @throws IOException if the file can't be read or was built for a different grid
+     */
+    public static ContractionHierarchy load(String fileName, TerrainGrid grid) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if(buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC){
+            throw new IOException(fileName + " is not a contraction hierarchy");
+        }
+        if(buffer.getInt(4) != VERSION){
+            throw new IOException(fileName + " is hierarchy version " + buffer.getInt(4) + ", expected " + VERSION);
+        }
+        byte[] hash = new byte[64];
+        buffer.position(16);
+        buffer.get(hash);
+        if(buffer.getInt(8) != grid.getCols() || buffer.getInt(12) != grid.getRows()
+                || !new String(hash, StandardCharsets.US_ASCII).equals(grid.contentHash())){
+            throw new IOException(fileName + " was built for a different map or season");
+        }
+        int n = buffer.getInt();
+        int up = buffer.getInt();
+        int down = buffer.getInt();
+        if(buffer.capacity() != HEADER_BYTES + 4L * n + 2 * 4L * (n + 1) + 16L * (up + down)){
+            throw new IOException(fileName + " is truncated");
+        }
+        int[] rank = readInts(buffer, n);
+        int[] upOffsets = readInts(buffer, n + 1);
+        int[] upTargets = readInts(buffer, up);
+        double[] upWeights = readDoubles(buffer, up);
+        int[] upMiddles = readInts(buffer, up);
+        int[] downOffsets = readInts(buffer, n + 1);
+        int[] downSources = readInts(buffer, down);
+        double[] downWeights = readDoubles(buffer, down);
+        int[] downMiddles = readInts(buffer, down);
+        return new ContractionHierarchy(grid, rank, upOffsets, upTargets, upWeights, upMiddles,
+                downOffsets, downSources, downWeights, downMiddles);
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count){
+        int[] array = new int[count];
+        buffer.asIntBuffer().get(array);
+        buffer.position(buffer.position() + count * 4);
+        return array;
+    }
+
+    private static double[] readDoubles(ByteBuffer buffer, int count){
+        double[] array = new double[count];
+        buffer.asDoubleBuffer().get(array);
+        buffer.position(buffer.position() + count * 8);
+        return array;
+    }
+
+    private static class QueryState {
+        /**
+         * Per-thread query state. Distances are only valid where their stamp matches the current
+         * query, so nothing has to be cleared between queries.
+         */
+
+        final double[] distF;
+
+        final double[] distB;
+
+        final int[] stampF;
+
+        final int[] stampB;
+
+        final int[] parentF;
+
+        final int[] parentB;
+
+        final IndexedMinHeap openF;
+
+        final IndexedMinHeap openB;
+
+        int stamp;
+
+        int settled;
+
+        int meet;
+
+        QueryState(int size){
+            distF = new double[size];
+            distB = new double[size];
+            stampF = new int[size];
+            stampB = new int[size];
+            parentF = new int[size];
+            parentB = new int[size];
+            openF = new IndexedMinHeap(size);
+            openB = new IndexedMinHeap(size);
+        }
+
+        SearchStats stats(long nanos){
+            return SearchStats.of(openF, 0).plus(SearchStats.of(openB, 0), nanos);
+        }
+
+        void begin(){
+            openF.resetCounters();
+            openB.resetCounters();
+            stamp++;
+            if(stamp == Integer.MAX_VALUE){
+                Arrays.fill(stampF, 0);
+                Arrays.fill(stampB, 0);
+                stamp = 1;
+            }
+        }
+
+        double get(double[] dist, int[] stamps, int node){
+            return stamps[node] == stamp ? dist[node] : Double.POSITIVE_INFINITY;
+        }
+
+        void reach(double[] dist, int[] stamps, int node, double value){
+            dist[node] = value;
+            stamps[node] = stamp;
+        }
+    }
+
+    private static class IntList {
+        /**
+         * Growable int array for unpacked routes.
+         */
+
+        private int[] values = new int[256];
+
+        private int size;
+
+        void add(int value){
+            if(size == values.length){
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray(){
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static class Builder {
+        /**
+         * Contraction state: a growable adjacency list in both directions per cell. Contracting a cell
+         * records its remaining edges (they all lead to cells ranked higher) and detaches it from its
+         * neighbors, so the lists only ever hold the part of the graph still being contracted.
+         */
+
+        private static final int ESTIMATE_SETTLE_LIMIT = 40;
+
+        private static final int CONTRACT_SETTLE_LIMIT = 400;
+
+        private final TerrainGrid grid;
+
+        private final int n;
+
+        private final int[][] outTargets;
+
+        private final double[][] outWeights;
+
+        private final int[][] outMiddles;
+
+        private final int[] outCount;
+
+        private final int[][] inSources;
+
+        private final double[][] inWeights;
+
+        private final int[][] inMiddles;
+
+        private final int[] inCount;
+
+        private final boolean[] contracted;
+
+        private final int[] deletedNeighbors;
+
+        private final int[] level;
+
+        private final double[] witnessDist;
+
+        private final int[] witnessStamp;
+
+        private final IndexedMinHeap witnessHeap;
+
+        private int stamp;
+
+        //shortcuts found by the last contract call
+        private int[] pendingSources = new int[64];
+
+        private int[] pendingTargets = new int[64];
+
+        private double[] pendingWeights = new double[64];
+
+        private int pending;
+
+        Builder(TerrainGrid grid){
+            this.grid = grid;
+            this.n = grid.size();
+            outTargets = new int[n][];
+            outWeights = new double[n][];
+            outMiddles = new int[n][];
+            outCount = new int[n];
+            inSources = new int[n][];
+            inWeights = new double[n][];
+            inMiddles = new int[n][];
+            inCount = new int[n];
+            contracted = new boolean[n];
+            deletedNeighbors = new int[n];
+            level = new int[n];
+            witnessDist = new double[n];
+            witnessStamp = new int[n];
+            witnessHeap = new IndexedMinHeap(n);
+            for(int u = 0; u < n; u++){
+                outTargets[u] = new int[8];
+                outWeights[u] = new double[8];
+                outMiddles[u] = new int[8];
+                inSources[u] = new int[8];
+                inWeights[u] = new double[8];
+                inMiddles[u] = new int[8];
+            }
+            EdgeCosts costs = grid.edgeCosts();
+            for(int u = 0; u < n; u++){
+                for(int d = 0; d < EdgeCosts.DIRECTIONS; d++){
+                    double step = costs.get(u, d);
+                    if(step != Double.POSITIVE_INFINITY){
+                        addEdge(u, costs.neighbor(u, d), step, -1);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Adds edge u -> w, or lowers its weight if it already exists
+         */
+        private void addEdge(int u, int w, double weight, int middle){
+            int[] targets = outTargets[u];
+            for(int i = 0; i < outCount[u]; i++){
+                if(targets[i] == w){
+                    if(weight < outWeights[u][i]){
+                        outWeights[u][i] = weight;
+                        outMiddles[u][i] = middle;
+                        int[] sources = inSources[w];
+                        for(int j = 0; j < inCount[w]; j++){
+                            if(sources[j] == u){
+                                inWeights[w][j] = weight;
+                                inMiddles[w][j] = middle;
+                                break;
+                            }
+                        }
+                    }
+                    return;
+                }
+            }
+            if(outCount[u] == targets.length){
+                int capacity = targets.length * 2;
+                outTargets[u] = Arrays.copyOf(targets, capacity);
+                outWeights[u] = Arrays.copyOf(outWeights[u], capacity);
+                outMiddles[u] = Arrays.copyOf(outMiddles[u], capacity);
+            }
+            outTargets[u][outCount[u]] = w;
+            outWeights[u][outCount[u]] = weight;
+            outMiddles[u][outCount[u]] = middle;
+            outCount[u]++;
+            if(inCount[w] == inSources[w].length){
+                int capacity = inSources[w].length * 2;
+                inSources[w] = Arrays.copyOf(inSources[w], capacity);
+                inWeights[w] = Arrays.copyOf(inWeights[w], capacity);
+                inMiddles[w] = Arrays.copyOf(inMiddles[w], capacity);
+            }
+            inSources[w][inCount[w]] = u;
+            inWeights[w][inCount[w]] = weight;
+            inMiddles[w][inCount[w]] = middle;
+            inCount[w]++;
+        }
+
+        /**
+         * Dijkstra from u over the remaining graph, never passing through the cell being contracted
+         */
+        private void witnessSearch(int u, int excluded, double maxCost, int settleLimit){
+            stamp++;
+            witnessDist[u] = 0.0;
+            witnessStamp[u] = stamp;
+            witnessHeap.insert(u, 0.0);
+            int settled = 0;
+            while(!witnessHeap.isEmpty()){
+                if(witnessHeap.peekKey() > maxCost || ++settled > settleLimit){
+                    break;
+                }
+                int x = witnessHeap.poll();
+                double d = witnessDist[x];
+                int[] targets = outTargets[x];
+                double[] weights = outWeights[x];
+                for(int i = 0; i < outCount[x]; i++){
+                    int y = targets[i];
+                    if(y == excluded){
+                        continue;
+                    }
+                    double nd = d + weights[i];
+                    if(witnessStamp[y] != stamp || nd < witnessDist[y]){
+                        witnessDist[y] = nd;
+                        witnessStamp[y] = stamp;
+                        witnessHeap.insertOrDecrease(y, nd);
+                    }
+                }
+            }
+            witnessHeap.clear();
+        }
+
+        /**
+         * Finds the shortcuts contracting v needs and leaves them in the pending arrays
+         * @param settleLimit: how far each witness search may look; a search that gives up early only
+         *                   costs an unneeded shortcut, never a wrong one
+         */
+        private void findShortcuts(int v, int settleLimit){
+            pending = 0;
+            for(int i = 0; i < inCount[v]; i++){
+                int u = inSources[v][i];
+                double toV = inWeights[v][i];
+                double maxOut = -1.0;
+                for(int j = 0; j < outCount[v]; j++){
+                    if(outTargets[v][j] != u){
+                        maxOut = Math.max(maxOut, outWeights[v][j]);
+                    }
+                }
+                if(maxOut < 0){
+                    continue;
+                }
+                witnessSearch(u, v, toV + maxOut, settleLimit);
+                for(int j = 0; j < outCount[v]; j++){
+                    int w = outTargets[v][j];
+                    if(w == u){
+                        continue;
+                    }
+                    double through = toV + outWeights[v][j];
+                    double witness = witnessStamp[w] == stamp ? witnessDist[w] : Double.POSITIVE_INFINITY;
+                    if(witness > through){
+                        if(pending == pendingSources.length){
+                            pendingSources = Arrays.copyOf(pendingSources, pending * 2);
+                            pendingTargets = Arrays.copyOf(pendingTargets, pending * 2);
+                            pendingWeights = Arrays.copyOf(pendingWeights, pending * 2);
+                        }
+                        pendingSources[pending] = u;
+                        pendingTargets[pending] = w;
+                        pendingWeights[pending] = through;
+                        pending++;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Contraction order: cells whose removal adds few shortcuts go first, with penalties for cells
+         * next to many contracted ones and for deep levels, which spreads contraction evenly over the map
+         */
+        private double priority(int v){
+            findShortcuts(v, ESTIMATE_SETTLE_LIMIT);
+            return 2.0 * (pending - inCount[v] - outCount[v]) + deletedNeighbors[v] + level[v];
+        }
+
+        /**
+         * Removes the edge between a contracted cell and one of its neighbors from the neighbor's list
+         */
+        private static int detach(int[] ids, double[] weights, int[] middles, int count, int removed){
+            for(int i = 0; i < count; i++){
+                if(ids[i] == removed){
+                    count--;
+                    ids[i] = ids[count];
+                    weights[i] = weights[count];
+                    middles[i] = middles[count];
+                    return count;
+                }
+            }
+            return count;
+        }
+
+        ContractionHierarchy build(){
+            int[] rank = new int[n];
+            IndexedMinHeap queue = new IndexedMinHeap(n);
+            for(int v = 0; v < n; v++){
+                queue.insert(v, priority(v));
+            }
+            //upward edges as they are found, in contraction order; sorted into arrays per cell at the end
+            EdgeList up = new EdgeList();
+            EdgeList down = new EdgeList();
+            int next = 0;
+            while(!queue.isEmpty()){
+                int v = queue.poll();
+                //priorities go stale as neighbors get contracted, so recheck before committing
+                double current = priority(v);
+                if(!queue.isEmpty() && current > queue.peekKey()){
+                    queue.insert(v, current);
+                    continue;
+                }
+                findShortcuts(v, CONTRACT_SETTLE_LIMIT);
+                for(int i = 0; i < pending; i++){
+                    addEdge(pendingSources[i], pendingTargets[i], pendingWeights[i], v);
+                }
+                contracted[v] = true;
+                rank[v] = next++;
+                for(int i = 0; i < outCount[v]; i++){
+                    int w = outTargets[v][i];
+                    up.add(v, w, outWeights[v][i], outMiddles[v][i]);
+                    inCount[w] = detach(inSources[w], inWeights[w], inMiddles[w], inCount[w], v);
+                    deletedNeighbors[w]++;
+                    level[w] = Math.max(level[w], level[v] + 1);
+                }
+                for(int i = 0; i < inCount[v]; i++){
+                    int u = inSources[v][i];
+                    down.add(v, u, inWeights[v][i], inMiddles[v][i]);
+                    outCount[u] = detach(outTargets[u], outWeights[u], outMiddles[u], outCount[u], v);
+                    deletedNeighbors[u]++;
+                    level[u] = Math.max(level[u], level[v] + 1);
+                }
+                outTargets[v] = null;
+                outWeights[v] = null;
+                outMiddles[v] = null;
+                inSources[v] = null;
+                inWeights[v] = null;
+                inMiddles[v] = null;
+                outCount[v] = 0;
+                inCount[v] = 0;
+            }
+
+            int[] upOffsets = up.offsets(n);
+            int[] downOffsets = down.offsets(n);
+            int[] upTargets = new int[up.size];
+            double[] upWeights = new double[up.size];
+            int[] upMiddles = new int[up.size];
+            up.scatter(upOffsets, upTargets, upWeights, upMiddles);
+            int[] downSources = new int[down.size];
+            double[] downWeights = new double[down.size];
+            int[] downMiddles = new int[down.size];
+            down.scatter(downOffsets, downSources, downWeights, downMiddles);
+            return new ContractionHierarchy(grid, rank, upOffsets, upTargets, upWeights, upMiddles,
+                    downOffsets, downSources, downWeights, downMiddles);
+        }
+    }
+
+    private static class EdgeList {
+        /**
+         * Growable list of (owner, other end, weight, middle) edges, turned into per-owner arrays once complete.
+         */
+
+        private int[] owners = new int[1024];
+
+        private int[] others = new int[1024];
+
+        private double[] weights = new double[1024];
+
+        private int[] middles = new int[1024];
+
+        private int size;
+
+        void add(int owner, int other, double weight, int middle){
+            if(size == owners.length){
+                int capacity = size * 2;
+                owners = Arrays.copyOf(owners, capacity);
+                others = Arrays.copyOf(others, capacity);
+                weights = Arrays.copyOf(weights, capacity);
+                middles = Arrays.copyOf(middles, capacity);
+            }
+            owners[size] = owner;
+            others[size] = other;
+            weights[size] = weight;
+            middles[size] = middle;
+            size++;
+        }
+
+        int[] offsets(int n){
+            int[] offsets = new int[n + 1];
+            for(int i = 0; i < size; i++){
+                offsets[owners[i] + 1]++;
+            }
+            for(int v = 0; v < n; v++){
+                offsets[v + 1] += offsets[v];
+            }
+            return offsets;
+        }
+
+        void scatter(int[] offsets, int[] otherOut, double[] weightOut, int[] middleOut){
+            int[] fill = Arrays.copyOf(offsets, offsets.length - 1);
+            for(int i = 0; i < size; i++){
+                int e = fill[owners[i]]++;
+                otherOut[e] = others[i];
+                weightOut[e] = weights[i];
+                middleOut[e] = middles[i];
+            }
+        }
+    }
+}
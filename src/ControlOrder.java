@@ -0,0 +1,216 @@
+import java.util.Random;
+
+public class ControlOrder {
+    /**
+     * Finds a cheap order to visit the controls of a course in, for score-O and for checking course
+     * design. The first and last controls (start and finish) stay where they are; the ones in between
+     * may be visited in any order. Leg costs are not symmetric (climbing costs more than descending),
+     * so every move is costed from the matrix in the direction it is actually run.
+     *
+     * Nearest neighbour gives a first order, which 2-opt (reversing a stretch) and Or-opt (moving a run
+     * of 1-3 controls elsewhere) improve until neither helps. The rest of the time budget goes to
+     * perturbing the best order (swapping two stretches) and improving it again, keeping the result
+     * whenever it is cheaper. The search stops early once that many restarts in a row found nothing
+     * cheaper: PATIENCE per control in between, and never more than the number of orders there are, so
+     * a short course doesn't use up the whole budget.
+     */
+
+    private static final double EPSILON = 1e-9;
+
+    //restarts in a row without a cheaper order before giving up, per control between start and finish
+    private static final int PATIENCE = 50;
+
+    private final CostMatrix matrix;
+
+    private final int n;
+
+    private final long deadline;
+
+    private ControlOrder(CostMatrix matrix, long deadline){
+        this.matrix = matrix;
+        this.n = matrix.size();
+        this.deadline = deadline;
+    }
+
+    /**
+     * Optimizes the visiting order
+     * @param matrix: leg costs between the controls
+     * @param budgetMillis: time the search may take
+     * @param seed: seed of the perturbations, so results can be reproduced
+     * @return positions of the controls in visiting order, starting with 0 and ending with size - 1
+     */
+    public static int[] optimize(CostMatrix matrix, long budgetMillis, long seed){
+        ControlOrder search = new ControlOrder(matrix, System.nanoTime() + budgetMillis * 1000000L);
+        int[] best = search.nearestNeighbor();
+        if(search.n <= 3){
+            return best;
+        }
+        search.improve(best);
+        double bestCost = matrix.courseCost(best);
+        Random random = new Random(seed);
+        long patience = Math.min((long) PATIENCE * (search.n - 2), orders(search.n - 2));
+        long stale = 0;
+        while(stale < patience && !search.outOfTime()){
+            int[] candidate = best.clone();
+            search.perturb(candidate, random);
+            search.improve(candidate);
+            double cost = matrix.courseCost(candidate);
+            stale++;
+            if(cost < bestCost - EPSILON){
+                best = candidate;
+                bestCost = cost;
+                stale = 0;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Number of orders some controls can be visited in, capped at Long.MAX_VALUE
+     */
+    private static long orders(int controls){
+        long orders = 1;
+        for(int i = 2; i <= controls; i++){
+            if(orders > Long.MAX_VALUE / i){
+                return Long.MAX_VALUE;
+            }
+            orders *= i;
+        }
+        return orders;
+    }
+
+    private boolean outOfTime(){
+        return System.nanoTime() >= deadline;
+    }
+
+    private int[] nearestNeighbor(){
+        int[] order = new int[n];
+        boolean[] used = new boolean[n];
+        order[0] = 0;
+        order[n - 1] = n - 1;
+        used[0] = true;
+        used[n - 1] = true;
+        for(int i = 1; i < n - 1; i++){
+            int next = -1;
+            for(int c = 1; c < n - 1; c++){
+                if(!used[c] && (next == -1 || matrix.getCost(order[i - 1], c) < matrix.getCost(order[i - 1], next))){
+                    next = c;
+                }
+            }
+            order[i] = next;
+            used[next] = true;
+        }
+        return order;
+    }
+
+    /**
+     * Applies improving 2-opt and Or-opt moves until there are none left or time runs out
+     */
+    private void improve(int[] order){
+        boolean improved = true;
+        while(improved && !outOfTime()){
+            improved = twoOpt(order) || orOpt(order);
+        }
+    }
+
+    /**
+     * Reverses the first stretch order[i..j] whose reversal makes the course cheaper
+     */
+    private boolean twoOpt(int[] order){
+        for(int i = 1; i < n - 2; i++){
+            //forward and backward cost of the stretch order[i..j], grown one control at a time
+            double forward = 0.0;
+            double backward = 0.0;
+            for(int j = i + 1; j < n - 1; j++){
+                forward += matrix.getCost(order[j - 1], order[j]);
+                backward += matrix.getCost(order[j], order[j - 1]);
+                double before = matrix.getCost(order[i - 1], order[i]) + forward + matrix.getCost(order[j], order[j + 1]);
+                double after = matrix.getCost(order[i - 1], order[j]) + backward + matrix.getCost(order[i], order[j + 1]);
+                if(after < before - EPSILON){
+                    for(int a = i, b = j; a < b; a++, b--){
+                        int swap = order[a];
+                        order[a] = order[b];
+                        order[b] = swap;
+                    }
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves the first run of 1-3 controls whose relocation makes the course cheaper
+     */
+    private boolean orOpt(int[] order){
+        for(int length = 1; length <= 3; length++){
+            for(int i = 1; i + length < n; i++){
+                int first = order[i];
+                int last = order[i + length - 1];
+                int before = order[i - 1];
+                int after = order[i + length];
+                double removed = matrix.getCost(before, first) + matrix.getCost(last, after) - matrix.getCost(before, after);
+                //insert between order[k] and order[k + 1], anywhere outside the run itself
+                for(int k = 0; k < n - 1; k++){
+                    if(k >= i - 1 && k < i + length){
+                        continue;
+                    }
+                    double added = matrix.getCost(order[k], first) + matrix.getCost(last, order[k + 1]) - matrix.getCost(order[k], order[k + 1]);
+                    if(added < removed - EPSILON){
+                        move(order, i, length, k);
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves order[i..i+length) so it follows the control currently at position k
+     */
+    private static void move(int[] order, int i, int length, int k){
+        int[] run = new int[length];
+        System.arraycopy(order, i, run, 0, length);
+        if(k < i){
+            System.arraycopy(order, k + 1, order, k + 1 + length, i - k - 1);
+            System.arraycopy(run, 0, order, k + 1, length);
+        }
+        else{
+            System.arraycopy(order, i + length, order, i, k + 1 - i - length);
+            System.arraycopy(run, 0, order, k + 1 - length, length);
+        }
+    }
+
+    /**
+     * Swaps two random adjacent stretches of the controls between start and finish (a double bridge)
+     */
+    private void perturb(int[] order, Random random){
+        int middle = n - 2;
+        int a = 1 + random.nextInt(middle);
+        int b = 1 + random.nextInt(middle);
+        int c = 1 + random.nextInt(middle);
+        int lo = Math.min(a, Math.min(b, c));
+        int hi = Math.max(a, Math.max(b, c));
+        int mid = a + b + c - lo - hi;
+        if(lo == mid || mid == hi){
+            //too few distinct cut points, swap two controls instead
+            int x = 1 + random.nextInt(middle);
+            int y = 1 + random.nextInt(middle);
+            int swap = order[x];
+            order[x] = order[y];
+            order[y] = swap;
+            return;
+        }
+        //order[lo..mid) and order[mid..hi] trade places
+        int[] stretch = new int[hi + 1 - lo];
+        int pos = 0;
+        for(int i = mid; i <= hi; i++){
+            stretch[pos++] = order[i];
+        }
+        for(int i = lo; i < mid; i++){
+            stretch[pos++] = order[i];
+        }
+        System.arraycopy(stretch, 0, order, lo, stretch.length);
+    }
+}
@@ -0,0 +1,75 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public class CostMatrix {
+    /**
+     * Cheapest leg cost between every ordered pair of controls. Instead of one search per pair, each
+     * control runs a single Dijkstra that stops as soon as every other control is settled, and the
+     * controls' searches run in parallel on a ForkJoinPool, each pool thread with its own workspace.
+     */
+
+    private final int[] controls;
+
+    private final double[][] costs;
+
+    private CostMatrix(int[] controls, double[][] costs){
+        this.controls = controls;
+        this.costs = costs;
+    }
+
+    /**
+     * Fills the matrix
+     * @param grid: the terrain grid, already including the season's overlay
+     * @param controls: cell indices of the controls
+     * @param pool: pool the searches run on
+     * @return the matrix, infinity where a control can't be reached from another
+     */
+    public static CostMatrix compute(TerrainGrid grid, int[] controls, ForkJoinPool pool){
+        ThreadLocal<SearchWorkspace> workspaces = ThreadLocal.withInitial(() -> new SearchWorkspace(grid.size()));
+        List<ForkJoinTask<double[]>> rows = new ArrayList<>();
+        for(int control: controls){
+            rows.add(pool.submit(() -> Dijkstra.toTargets(grid, control, controls, workspaces.get())));
+        }
+        double[][] costs = new double[controls.length][];
+        for(int i = 0; i < controls.length; i++){
+            costs[i] = rows.get(i).join();
+        }
+        return new CostMatrix(controls.clone(), costs);
+    }
+
+    public static CostMatrix compute(TerrainGrid grid, int[] controls){
+        return compute(grid, controls, ForkJoinPool.commonPool());
+    }
+
+    public int size() {
+        return controls.length;
+    }
+
+    public int getControl(int i) {
+        return controls[i];
+    }
+
+    /**
+     * @param from: position of the first control
+     * @param to: position of the second control
+     * @return cost of the cheapest leg from one control to the other
+     */
+    public double getCost(int from, int to) {
+        return costs[from][to];
+    }
+
+    /**
+     * Cost of visiting the controls in a given order
+     * @param order: positions of the controls, in visiting order
+     * @return the summed leg costs
+     */
+    public double courseCost(int[] order) {
+        double total = 0.0;
+        for(int i = 0; i + 1 < order.length; i++){
+            total += costs[order[i]][order[i + 1]];
+        }
+        return total;
+    }
+}
@@ -0,0 +1,137 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+public class CourseReplanner {
+    /**
+     * Keeps the routes of a course up to date while the map changes during the event: closures, new
+     * mud, a trail icing over. Every leg keeps its own LifelongPlanner, so a batch of relabeled cells
+     * is repaired leg by leg from the cells that changed instead of searching every leg again. The
+     * replanner relabels a copy of the grid it was given, so the season's grid stays untouched.
+     */
+
+    private final TerrainGrid grid;
+
+    private final LifelongPlanner[] legs;
+
+    private final List<Route> routes = new ArrayList<>();
+
+    /**
+     * Plans every leg of a course
+     * @param grid: the terrain grid of the season, copied before anything is relabeled
+     * @param controls: cell indices of the controls, in the order they are visited
+     */
+    public CourseReplanner(TerrainGrid grid, int[] controls){
+        this.grid = grid.copy();
+        Heuristic heuristic = lab1.lowerBound(this.grid);
+        legs = new LifelongPlanner[Math.max(0, controls.length - 1)];
+        for(int i = 0; i < legs.length; i++){
+            legs[i] = new LifelongPlanner(this.grid, heuristic, controls[i], controls[i + 1]);
+        }
+        replan();
+    }
+
+    /**
+     * @return the grid with every change applied so far
+     */
+    public TerrainGrid getGrid() {
+        return grid;
+    }
+
+    /**
+     * @return the current route of every leg, in course order
+     */
+    public List<Route> getRoutes() {
+        return routes;
+    }
+
+    /**
+     * Relabels a batch of cells and repairs the routes
+     * @param changes: the new terrain of each changed cell
+     * @return the repaired route of every leg, in course order; each route's expanded count and
+     *         stats are those of the repair
+     */
+    public List<Route> apply(Map<Integer, Pixel.TerrainType> changes){
+        int[] changed = new int[changes.size()];
+        int count = 0;
+        for(Map.Entry<Integer, Pixel.TerrainType> change: changes.entrySet()){
+            int cell = change.getKey();
+            if(grid.getType(cell) != change.getValue()){
+                grid.setType(cell, change.getValue());
+                changed[count++] = cell;
+            }
+        }
+        int[] relabeled = Arrays.copyOf(changed, count);
+        for(LifelongPlanner leg: legs){
+            leg.cellsChanged(relabeled);
+        }
+        return replan();
+    }
+
+    /**
+     * Brings every leg up to date. The grid isn't written while this runs, so the legs are repaired in parallel.
+     */
+    private List<Route> replan(){
+        grid.edgeCosts();
+        Route[] repaired = new Route[legs.length];
+        IntStream.range(0, legs.length).parallel().forEach(i -> repaired[i] = legs[i].plan());
+        routes.clear();
+        routes.addAll(Arrays.asList(repaired));
+        return routes;
+    }
+
+    /**
+     * Reads a batch of changes. Each line is "x y terrain" for one pixel or "x1 y1 x2 y2 terrain" for
+     * the rectangle between two corners, terrain being a Pixel.TerrainType name such as muddy, ice or
+     * closed (for a closure, which no route may enter). Blank lines and lines starting with # are
+     * skipped, and later lines win over earlier ones.
+     * @param fileName: the change file
+     * @param grid: the grid the changes are for
+     * @return the new terrain of each changed cell
+     * @throws IOException if the file can't be read or a line is malformed
+     */
+    public static Map<Integer, Pixel.TerrainType> readChanges(String fileName, TerrainGrid grid) throws IOException {
+        Map<Integer, Pixel.TerrainType> changes = new LinkedHashMap<>();
+        List<String> lines = Files.readAllLines(Paths.get(fileName));
+        for(int i = 0; i < lines.size(); i++){
+            String line = lines.get(i).trim();
+            if(line.isEmpty() || line.startsWith("#")){
+                continue;
+            }
+            String where = fileName + ":" + (i + 1) + ": ";
+            String[] fields = line.split("\\s+");
+            if(fields.length != 3 && fields.length != 5){
+                throw new IOException(where + "expected 3 or 5 fields but found " + fields.length);
+            }
+            Pixel.TerrainType type;
+            int[] corners = new int[fields.length - 1];
+            try {
+                type = Pixel.TerrainType.valueOf(fields[fields.length - 1].toUpperCase());
+                for(int f = 0; f < corners.length; f++){
+                    corners[f] = Integer.parseInt(fields[f]);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException(where + "can't read \"" + line + "\"");
+            }
+            int x1 = corners[0];
+            int y1 = corners[1];
+            int x2 = corners.length == 4 ? corners[2] : x1;
+            int y2 = corners.length == 4 ? corners[3] : y1;
+            if(!grid.inBounds(x1, y1) || !grid.inBounds(x2, y2)){
+                throw new IOException(where + "outside the " + grid.getCols() + "x" + grid.getRows() + " map");
+            }
+            for(int y = Math.min(y1, y2); y <= Math.max(y1, y2); y++){
+                for(int x = Math.min(x1, x2); x <= Math.max(x1, x2); x++){
+                    changes.put(grid.index(x, y), type);
+                }
+            }
+        }
+        return changes;
+    }
+}
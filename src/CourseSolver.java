@@ -0,0 +1,46 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public class CourseSolver {
+    /**
+     * Solves all legs of a course at the same time. Each leg is an independent search over the
+     * shared, read-only grid, so legs are handed to a ForkJoinPool and every pool thread searches
+     * with its own workspace. Routes come back in course order.
+     */
+
+    private final LegSearch search;
+
+    private final ForkJoinPool pool;
+
+    public CourseSolver(LegSearch search, ForkJoinPool pool){
+        this.search = search;
+        this.pool = pool;
+    }
+
+    public CourseSolver(LegSearch search){
+        this(search, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Runs every leg of the course in parallel
+     * @param controls: cell indices of the controls, in the order they are visited
+     * @return one route per leg, leg i going from controls[i] to controls[i+1]
+     */
+    public List<Route> solve(int[] controls){
+        List<ForkJoinTask<Route>> legs = new ArrayList<>();
+        for(int i = 0; i < controls.length - 1; i++){
+            int from = controls[i];
+            int to = controls[i + 1];
+            legs.add(pool.submit(() -> search.search(from, to)));
+        }
+        List<Route> routes = new ArrayList<>();
+        for(ForkJoinTask<Route> leg: legs){
+            Route route = leg.join();
+            Metrics.shared().recordLeg(route);
+            routes.add(route);
+        }
+        return routes;
+    }
+}
@@ -0,0 +1,357 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+
+public class DeltaStepping {
+    /**
+     * Parallel one-to-all search (delta-stepping). Cells are kept in buckets of width delta by their
+     * tentative cost, and the lowest bucket is emptied in phases: every cell of the bucket is relaxed
+     * at the same time across the pool, and cells whose cost drops into the same bucket are relaxed
+     * again in the next phase. Steps longer than delta can't land in the bucket being emptied, so they
+     * are relaxed only once, after the bucket is done. Costs are lowered with a compare-and-set on
+     * their bits, which order like the (non-negative) doubles they hold, so the result is the same
+     * cost field Dijkstra.oneToAll computes, using the same step costs.
+     */
+
+    public static final int MAGIC = 0x444C4643; //"CFLD"
+
+    public static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 20;
+
+    //about the cost of a step across open land; widths from 6 to 100 ran within noise of each other on the bundled map
+    public static final double DEFAULT_DELTA = 12.0;
+
+    //fewest cells relaxed by one task; below this the fork/join overhead outweighs the work
+    private static final int MIN_CHUNK = 32;
+
+    //tasks per thread a large frontier is split into, so threads that finish early can steal work
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static final long INFINITE = Double.doubleToRawLongBits(Double.POSITIVE_INFINITY);
+
+    private final TerrainGrid grid;
+
+    private final boolean reverse;
+
+    private final double delta;
+
+    private final ForkJoinPool pool;
+
+    private final AtomicLongArray cost;
+
+    //bucket each cell was last filed in, so a cell is filed at most once per bucket
+    private final int[] filed;
+
+    //phase a cell was last put in the frontier, and bucket it was last settled in
+    private final int[] inFrontier;
+
+    private final int[] settledIn;
+
+    private final List<IntList> buckets = new ArrayList<>();
+
+    //cells whose cost went down, one list per chunk of the frontier
+    private final List<IntList> updates = new ArrayList<>();
+
+    private int phase;
+
+    private DeltaStepping(TerrainGrid grid, boolean reverse, double delta, ForkJoinPool pool){
+        this.grid = grid;
+        this.reverse = reverse;
+        this.delta = delta;
+        this.pool = pool;
+        int size = grid.size();
+        cost = new AtomicLongArray(size);
+        filed = new int[size];
+        inFrontier = new int[size];
+        settledIn = new int[size];
+        for(int i = 0; i < size; i++){
+            cost.set(i, INFINITE);
+        }
+        Arrays.fill(filed, -1);
+        Arrays.fill(settledIn, -1);
+    }
+
+    /**
+     * Computes the cost field of a source
+     * @param grid: the terrain grid, already including the season's overlay
+     * @param source: index of the source cell
+     * @param reverse: false for the cost from the source to every cell, true for the cost from every cell to the source
+     * @param delta: bucket width
+     * @param pool: pool the relaxations run on, its parallelism is the number of threads used
+     * @return the cost of every cell, infinity for cells that can't be reached
+     */
+    public static float[] costField(TerrainGrid grid, int source, boolean reverse, double delta, ForkJoinPool pool){
+        if(!(delta > 0.0)){
+            throw new IllegalArgumentException("Bucket width must be positive, got " + delta);
+        }
+        DeltaStepping search = new DeltaStepping(grid, reverse, delta, pool);
+        return pool.submit(() -> search.run(source)).join();
+    }
+
+    private float[] run(int source){
+        cost.set(source, Double.doubleToRawLongBits(0.0));
+        file(source, 0);
+        IntList frontier = new IntList();
+        IntList settled = new IntList();
+        for(int b = 0; b < buckets.size(); b++){
+            IntList bucket = buckets.get(b);
+            if(bucket == null){
+                continue;
+            }
+            buckets.set(b, null);
+            phase++;
+            frontier.clear();
+            settled.clear();
+            //skip cells whose cost has since dropped into an earlier bucket
+            for(int i = 0; i < bucket.size; i++){
+                int node = bucket.values[i];
+                if(bucketOf(node) == b){
+                    addToFrontier(frontier, node);
+                }
+            }
+            while(frontier.size > 0){
+                while(frontier.size > 0){
+                    for(int i = 0; i < frontier.size; i++){
+                        int node = frontier.values[i];
+                        if(settledIn[node] != b){
+                            settledIn[node] = b;
+                            settled.add(node);
+                        }
+                    }
+                    relax(frontier, true);
+                    phase++;
+                    frontier.clear();
+                    fileUpdates(b, frontier);
+                }
+                //long steps end past this bucket, unless rounding puts one right on its edge
+                relax(settled, false);
+                settled.clear();
+                fileUpdates(b, frontier);
+            }
+        }
+        float[] field = new float[grid.size()];
+        for(int i = 0; i < field.length; i++){
+            field[i] = (float) Double.longBitsToDouble(cost.get(i));
+        }
+        return field;
+    }
+
+    private int bucketOf(int node){
+        return (int) (Double.longBitsToDouble(cost.get(node)) / delta);
+    }
+
+    private void addToFrontier(IntList frontier, int node){
+        if(inFrontier[node] != phase){
+            inFrontier[node] = phase;
+            frontier.add(node);
+        }
+    }
+
+    private void file(int node, int b){
+        if(filed[node] == b){
+            return;
+        }
+        filed[node] = b;
+        while(buckets.size() <= b){
+            buckets.add(null);
+        }
+        IntList bucket = buckets.get(b);
+        if(bucket == null){
+            bucket = new IntList();
+            buckets.set(b, bucket);
+        }
+        bucket.add(node);
+    }
+
+    /**
+     * Relaxes the short (at most delta) or long steps out of some cells, in parallel chunks
+     */
+    private void relax(IntList cells, boolean light){
+        int threads = pool.getParallelism();
+        int chunkSize = Math.max(MIN_CHUNK, cells.size / (CHUNKS_PER_THREAD * threads));
+        int chunks = (cells.size + chunkSize - 1) / chunkSize;
+        while(updates.size() < chunks){
+            updates.add(new IntList());
+        }
+        if(chunks == 1 || threads == 1){
+            for(int chunk = 0; chunk < chunks; chunk++){
+                relaxChunk(cells, chunk, chunkSize, light);
+            }
+            return;
+        }
+        //parallel streams started from a pool thread run on that pool
+        IntStream.range(0, chunks).parallel().forEach(chunk -> relaxChunk(cells, chunk, chunkSize, light));
+    }
+
+    private void relaxChunk(IntList cells, int chunk, int chunkSize, boolean light){
+        IntList changed = updates.get(chunk);
+        EdgeCosts costs = grid.edgeCosts();
+        int last = Math.min(cells.size, (chunk + 1) * chunkSize);
+        for(int i = chunk * chunkSize; i < last; i++){
+            int node = cells.values[i];
+            double nodeCost = Double.longBitsToDouble(cost.get(node));
+            for(int d = 0; d < EdgeCosts.DIRECTIONS; d++){
+                if(costs.get(node, d) == Double.POSITIVE_INFINITY){
+                    continue; //off the map
+                }
+                int neighbor = costs.neighbor(node, d);
+                double step = reverse ? costs.getInto(node, d) : costs.get(node, d);
+                if((step <= delta) == light && lower(neighbor, nodeCost + step)){
+                    changed.add(neighbor);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lowers the cost of a cell if the new cost is smaller
+     * @return whether the cost was lowered
+     */
+    private boolean lower(int node, double value){
+        long bits = Double.doubleToRawLongBits(value);
+        long current = cost.get(node);
+        while(bits < current){
+            if(cost.compareAndSet(node, current, bits)){
+                return true;
+            }
+            current = cost.get(node);
+        }
+        return false;
+    }
+
+    /**
+     * Files every cell whose cost went down: into the next frontier if it is still in the bucket being
+     * emptied, otherwise into its new bucket
+     */
+    private void fileUpdates(int current, IntList frontier){
+        for(IntList changed: updates){
+            for(int i = 0; i < changed.size; i++){
+                int node = changed.values[i];
+                int b = bucketOf(node);
+                if(b == current){
+                    addToFrontier(frontier, node);
+                }
+                else{
+                    file(node, b);
+                }
+            }
+            changed.clear();
+        }
+    }
+
+    private static class IntList {
+        /**
+         * Growable int array for buckets, frontiers and updates.
+         */
+
+        private int[] values = new int[64];
+
+        private int size;
+
+        void add(int value){
+            if(size == values.length){
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void clear(){
+            size = 0;
+        }
+    }
+
+    /**
+     * Writes a cost field as a raster: a header (magic, version, width, height, source) followed by
+     * one little-endian float per cell in row-major order
+     * @param fileName: file to write
+     * @param grid: the grid the field was computed on
+     * @param source: index of the field's source cell
+     * @param field: the cost field
+     * @throws IOException if the file can't be written
+     */
+    public static void saveRaster(String fileName, TerrainGrid grid, int source, float[] field) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + field.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(grid.getCols()).putInt(grid.getRows()).putInt(source);
+        buffer.asFloatBuffer().put(field);
+        Path path = Paths.get(fileName);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temp, buffer.array());
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Renders a cost field as a heatmap, from blue at the source through green and yellow to red at
+     * the most expensive reachable cell, with cells that can't be reached in black
+     * @param grid: the grid the field was computed on
+     * @param field: the cost field
+     * @param step: cost between contour lines drawn on the heatmap, 0 for none
+     * @return the heatmap image
+     */
+    public static BufferedImage heatmap(TerrainGrid grid, float[] field, double step){
+        float max = 0.0f;
+        for(float value: field){
+            if(value != Float.POSITIVE_INFINITY && value > max){
+                max = value;
+            }
+        }
+        int cols = grid.getCols();
+        BufferedImage image = new BufferedImage(cols, grid.getRows(), BufferedImage.TYPE_INT_RGB);
+        for(int i = 0; i < field.length; i++){
+            float value = field[i];
+            int rgb;
+            if(value == Float.POSITIVE_INFINITY){
+                rgb = 0x000000;
+            }
+            else if(step > 0.0 && isContour(grid, field, i, step)){
+                rgb = 0xFFFFFF;
+            }
+            else{
+                rgb = ramp(max == 0.0f ? 0.0f : value / max);
+            }
+            image.setRGB(i % cols, i / cols, rgb);
+        }
+        return image;
+    }
+
+    /**
+     * A cell is on a contour when a neighbor to its right or below is in a different step band
+     */
+    private static boolean isContour(TerrainGrid grid, float[] field, int index, double step){
+        long band = (long) (field[index] / step);
+        int x = grid.getX(index);
+        int y = grid.getY(index);
+        if(grid.inBounds(x + 1, y) && field[index + 1] != Float.POSITIVE_INFINITY && (long) (field[index + 1] / step) != band){
+            return true;
+        }
+        int below = index + grid.getCols();
+        return grid.inBounds(x, y + 1) && field[below] != Float.POSITIVE_INFINITY && (long) (field[below] / step) != band;
+    }
+
+    /**
+     * @param t: position on the ramp, 0 to 1
+     * @return blue, cyan, green, yellow, red as t goes from 0 to 1
+     */
+    private static int ramp(float t){
+        float scaled = Math.max(0.0f, Math.min(1.0f, t)) * 4.0f;
+        int segment = Math.min(3, (int) scaled);
+        int rise = Math.round((scaled - segment) * 255);
+        switch (segment) {
+            case 0: return (rise << 8) | 0xFF;
+            case 1: return 0xFF00 | (255 - rise);
+            case 2: return (rise << 16) | 0xFF00;
+            default: return 0xFF0000 | ((255 - rise) << 8);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class Dijkstra {
+    /**
+     * One-to-all searches: the cost of the cheapest route between a source and every other cell.
+     */
+
+    /**
+     * Runs Dijkstra from a source over the whole grid
+     * @param grid: the terrain grid
+     * @param source: index of the source cell
+     * @param reverse: false for the cost from the source to every cell, true for the cost from every cell to the source
+     * @param workspace: search state with an exact open list (no quantum), its g array holds the result afterwards
+     * @return the workspace's g array, infinity for cells that can't be reached
+     */
+    public static double[] oneToAll(TerrainGrid grid, int source, boolean reverse, SearchWorkspace workspace){
+        workspace.reset();
+        OpenList openList = workspace.getOpenList();
+        BitSet closed = workspace.getClosed();
+        EdgeCosts costs = grid.edgeCosts();
+        workspace.setG(source, 0.0, -1);
+        openList.insert(source, 0.0);
+        while(!openList.isEmpty()){
+            int node = openList.poll();
+            closed.set(node);
+            double nodeG = workspace.getG(node);
+            for(int d = 0; d < EdgeCosts.DIRECTIONS; d++){
+                if(costs.get(node, d) == Double.POSITIVE_INFINITY){
+                    continue; //off the map
+                }
+                int neighbor = costs.neighbor(node, d);
+                if(closed.get(neighbor)){
+                    continue; //keys come out in order, so a closed cell's cost is final
+                }
+                double tempG = nodeG + (reverse ? costs.getInto(node, d) : costs.get(node, d));
+                if(tempG < workspace.getG(neighbor)){
+                    workspace.setG(neighbor, tempG, node);
+                    openList.insertOrDecrease(neighbor, tempG);
+                }
+            }
+        }
+        return workspace.getCosts();
+    }
+
+    /**
+     * Runs Dijkstra from a source until every target is settled
+     * @param grid: the terrain grid
+     * @param source: index of the source cell
+     * @param targets: indices of the cells whose costs are wanted
+     * @param workspace: search state with an exact open list (no quantum)
+     * @return the cost from the source to each target, infinity for targets that can't be reached
+     */
+    public static double[] toTargets(TerrainGrid grid, int source, int[] targets, SearchWorkspace workspace){
+        workspace.reset();
+        OpenList openList = workspace.getOpenList();
+        BitSet closed = workspace.getClosed();
+        EdgeCosts costs = grid.edgeCosts();
+        int[] sorted = targets.clone();
+        Arrays.sort(sorted);
+        int remaining = 0;
+        for(int i = 0; i < sorted.length; i++){
+            if(i == 0 || sorted[i] != sorted[i - 1]){
+                remaining++;
+            }
+        }
+        workspace.setG(source, 0.0, -1);
+        openList.insert(source, 0.0);
+        //a cell's cost is final once it leaves the open list, so the search ends with the last target
+        while(!openList.isEmpty() && remaining > 0){
+            int node = openList.poll();
+            closed.set(node);
+            if(Arrays.binarySearch(sorted, node) >= 0){
+                remaining--;
+            }
+            double nodeG = workspace.getG(node);
+            for(int d = 0; d < EdgeCosts.DIRECTIONS; d++){
+                double step = costs.get(node, d);
+                if(step == Double.POSITIVE_INFINITY){
+                    continue; //off the map
+                }
+                int neighbor = costs.neighbor(node, d);
+                if(closed.get(neighbor)){
+                    continue;
+                }
+                double tempG = nodeG + step;
+                if(tempG < workspace.getG(neighbor)){
+                    workspace.setG(neighbor, tempG, node);
+                    openList.insertOrDecrease(neighbor, tempG);
+                }
+            }
+        }
+        double[] targetCosts = new double[targets.length];
+        for(int i = 0; i < targets.length; i++){
+            targetCosts[i] = workspace.getG(targets[i]);
+        }
+        return targetCosts;
+    }
+}
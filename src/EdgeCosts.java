@@ -0,0 +1,251 @@
+import java.util.BitSet;
+
+public class EdgeCosts {
+    /**
+     * Cost of every step of a grid, 8 per cell (one per direction, in the order getNeighbors returns
+     * neighbors). A step costs its length times the speed modifier of the cell it enters, times a slope
+     * factor 1 + uphill * grade when climbing or 1 + downhill * grade when descending, where grade is
+     * the elevation change over the step's length. Steps off the map or into a CLOSED cell cost infinity.
+     *
+     * Without slope penalties a step's cost is one multiplication from the terrain byte of the cell it
+     * enters, so it is worked out on every call and the only extra memory is one byte per cell marking
+     * the directions that leave the map, shared by every season's copy of the grid. With penalties
+     * each step also needs both elevations, so the costs are kept in a table of 8 doubles (64 bytes) per
+     * cell. The costs of the steps into a cell only depend on that cell's terrain, so when cells are
+     * relabeled only the steps into them are recomputed.
+     */
+
+    public static final int DIRECTIONS = 8;
+
+    //neighbor offsets, in the order getNeighbors has always returned them
+    private static final int[] DX = {-1, -1, 1, 1, -1, 0, 0, 1};
+    private static final int[] DY = {-1, 1, -1, 1, 0, -1, 1, 0};
+
+    //step lengths in meters: horizontal pixels are 10.29m wide, vertical pixels 7.55m tall
+    private static final double HORIZONTAL = 10.29;
+    private static final double VERTICAL = 7.55;
+    private static final double DIAGONAL = Math.sqrt(Math.pow(10.29, 2) + Math.pow(7.55, 2));
+
+    private static final double[] LENGTH = new double[DIRECTIONS];
+
+    private static final int[] OPPOSITE = new int[DIRECTIONS];
+
+    private static final int[] DIRECTION = new int[9]; //by (dy + 1) * 3 + dx + 1
+
+    private static final double[] SPEED = new double[Pixel.TerrainType.values().length];
+
+    private static final double MIN_SPEED = lab1.getSpeedModifier(Pixel.TerrainType.FOOTPATH); //no terrain is faster
+
+    static {
+        for(int d = 0; d < DIRECTIONS; d++){
+            LENGTH[d] = DY[d] == 0 ? HORIZONTAL : DX[d] == 0 ? VERTICAL : DIAGONAL;
+            DIRECTION[(DY[d] + 1) * 3 + DX[d] + 1] = d;
+        }
+        for(int d = 0; d < DIRECTIONS; d++){
+            OPPOSITE[d] = DIRECTION[(1 - DY[d]) * 3 + 1 - DX[d]];
+        }
+        for(Pixel.TerrainType type: Pixel.TerrainType.values()){
+            SPEED[type.ordinal()] = lab1.getSpeedModifier(type);
+        }
+    }
+
+    private final TerrainGrid grid;
+
+    private final double uphill;
+
+    private final double downhill;
+
+    private final int[] offsets = new int[DIRECTIONS];
+
+    private final byte[] offMap; //bit d set when the step in direction d leaves the map
+
+    private final double[] costs; //null without slope penalties
+
+    private EdgeCosts(TerrainGrid grid, double uphill, double downhill, byte[] offMap, double[] costs){
+        this.grid = grid;
+        this.uphill = uphill;
+        this.downhill = downhill;
+        this.offMap = offMap;
+        this.costs = costs;
+        for(int d = 0; d < DIRECTIONS; d++){
+            offsets[d] = DY[d] * grid.getCols() + DX[d];
+        }
+    }
+
+    /**
+     * Computes the costs of every step of a grid
+     * @param grid: the terrain grid
+     * @param uphill: extra cost per unit of grade when climbing, 0 to ignore climbs
+     * @param downhill: extra cost per unit of grade when descending, 0 to ignore descents
+     * @return the costs
+     */
+    public static EdgeCosts build(TerrainGrid grid, double uphill, double downhill){
+        byte[] offMap = new byte[grid.size()];
+        for(int cell = 0; cell < grid.size(); cell++){
+            for(int d = 0; d < DIRECTIONS; d++){
+                if(!grid.inBounds(grid.getX(cell) + DX[d], grid.getY(cell) + DY[d])){
+                    offMap[cell] |= 1 << d;
+                }
+            }
+        }
+        boolean table = uphill != 0.0 || downhill != 0.0;
+        EdgeCosts edgeCosts = new EdgeCosts(grid, uphill, downhill, offMap, table ? new double[grid.size() * DIRECTIONS] : null);
+        if(table){
+            for(int cell = 0; cell < grid.size(); cell++){
+                for(int d = 0; d < DIRECTIONS; d++){
+                    edgeCosts.computeStep(cell, d);
+                }
+            }
+        }
+        return edgeCosts;
+    }
+
+    /**
+     * Copies the costs for a copy of the grid, which may since have been relabeled
+     * @param copy: the copied grid
+     * @param relabeled: cells whose terrain differs between the two grids
+     * @return costs of the copy
+     */
+    public EdgeCosts copyFor(TerrainGrid copy, BitSet relabeled){
+        EdgeCosts edgeCosts = new EdgeCosts(copy, uphill, downhill, offMap, costs == null ? null : costs.clone());
+        edgeCosts.refresh(relabeled);
+        return edgeCosts;
+    }
+
+    /**
+     * Recomputes the steps into relabeled cells
+     * @param relabeled: cells whose terrain changed
+     */
+    public void refresh(BitSet relabeled){
+        if(costs == null){
+            return; //nothing stored, the next step read sees the new terrain
+        }
+        int cols = grid.getCols();
+        for(int cell = relabeled.nextSetBit(0); cell >= 0; cell = relabeled.nextSetBit(cell + 1)){
+            int x = cell % cols;
+            int y = cell / cols;
+            for(int d = 0; d < DIRECTIONS; d++){
+                if(grid.inBounds(x + DX[d], y + DY[d])){
+                    computeStep(cell + offsets[d], OPPOSITE[d]);
+                }
+            }
+        }
+    }
+
+    private void computeStep(int cell, int d){
+        if((offMap[cell] & 1 << d) != 0){
+            costs[cell * DIRECTIONS + d] = Double.POSITIVE_INFINITY;
+            return;
+        }
+        int next = cell + offsets[d];
+        costs[cell * DIRECTIONS + d] = stepCost(d, grid.getTerrain(next), grid.getElevation(next) - grid.getElevation(cell), uphill, downhill);
+    }
+
+    /**
+     * Cost of one step, the same way the table computes it, for searches that don't have a table
+     * @param d: direction of the step
+     * @param terrain: terrain ordinal of the cell the step enters
+     * @param rise: elevation of the cell entered minus elevation of the cell left
+     * @param uphill: extra cost per unit of grade when climbing
+     * @param downhill: extra cost per unit of grade when descending
+     * @return the cost of the step
+     */
+    public static double stepCost(int d, int terrain, double rise, double uphill, double downhill){
+        double cost = LENGTH[d] * SPEED[terrain];
+        double grade = rise / LENGTH[d];
+        if(grade > 0.0 && uphill != 0.0){
+            cost *= 1.0 + uphill * grade;
+        }
+        else if(grade < 0.0 && downhill != 0.0){
+            cost *= 1.0 - downhill * grade;
+        }
+        return cost;
+    }
+
+    /**
+     * @param d: direction, 0 to DIRECTIONS - 1
+     * @return the x offset of a step in that direction
+     */
+    public static int dx(int d) {
+        return DX[d];
+    }
+
+    /**
+     * @param d: direction, 0 to DIRECTIONS - 1
+     * @return the y offset of a step in that direction
+     */
+    public static int dy(int d) {
+        return DY[d];
+    }
+
+    /**
+     * Cheapest any route between two cells can possibly cost: diagonal steps as far as they go, then
+     * straight ones, all on the fastest terrain. Unlike calculateHn this ignores elevation, so it holds
+     * however steep the ground is, and slope penalties only add to it.
+     * @param dx: x distance between the cells in pixels
+     * @param dy: y distance between the cells in pixels
+     * @return a lower bound on the cost
+     */
+    public static double lowerBound(int dx, int dy){
+        int across = Math.abs(dx);
+        int down = Math.abs(dy);
+        int diagonal = Math.min(across, down);
+        return (diagonal * DIAGONAL + (across - diagonal) * HORIZONTAL + (down - diagonal) * VERTICAL) * MIN_SPEED;
+    }
+
+    /**
+     * @param cell: index of the cell
+     * @param d: direction, 0 to DIRECTIONS - 1
+     * @return cost of the step from the cell in that direction, infinity if it leaves the map
+     */
+    public double get(int cell, int d) {
+        if(costs != null){
+            return costs[cell * DIRECTIONS + d];
+        }
+        if((offMap[cell] & 1 << d) != 0){
+            return Double.POSITIVE_INFINITY;
+        }
+        return LENGTH[d] * SPEED[grid.getTerrain(cell + offsets[d])];
+    }
+
+    /**
+     * @param cell: index of the cell
+     * @param d: direction of a step that stays on the map
+     * @return index of the cell the step leads to
+     */
+    public int neighbor(int cell, int d) {
+        return cell + offsets[d];
+    }
+
+    /**
+     * @param cell: index of the cell
+     * @param d: direction of a step that stays on the map
+     * @return cost of the opposite step, from the neighbor in that direction back into the cell
+     */
+    public double getInto(int cell, int d) {
+        if(costs != null){
+            return costs[(cell + offsets[d]) * DIRECTIONS + OPPOSITE[d]];
+        }
+        return LENGTH[d] * SPEED[grid.getTerrain(cell)]; //opposite steps have the same length
+    }
+
+    /**
+     * @param from: index of a cell
+     * @param to: index of one of its neighbors
+     * @return cost of the step between them
+     */
+    public double cost(int from, int to) {
+        int cols = grid.getCols();
+        int dx = to % cols - from % cols;
+        int dy = to / cols - from / cols;
+        return get(from, DIRECTION[(dy + 1) * 3 + dx + 1]);
+    }
+
+    public double getUphill() {
+        return uphill;
+    }
+
+    public double getDownhill() {
+        return downhill;
+    }
+}
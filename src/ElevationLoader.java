@@ -0,0 +1,172 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+public class ElevationLoader {
+    /**
+     * Loads an elevation file (one line of whitespace separated values per row of the map) straight
+     * into a flat float array. The file is memory-mapped, row starts are found with a single pass
+     * over the bytes and row bands are then parsed in parallel with a hand-written ASCII parser,
+     * so no Strings or boxed Doubles are created.
+     */
+
+    private static final int ROWS_PER_BAND = 32;
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for(int i = 1; i < POWERS_OF_TEN.length; i++){
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+    /**
+     * Reads the elevations of a map
+     * @param elevationFileName: name of elevation file
+     * @param cols: width of the terrain image, rows may hold more values than this (they are ignored)
+     * @param rows: height of the terrain image, the file must have exactly this many rows
+     * @return elevations in row-major order (index = y * cols + x)
+     * @throws IOException if the file can't be read or doesn't match the image size
+     */
+    public static float[] load(String elevationFileName, int cols, int rows) throws IOException {
+        Path path = Paths.get(elevationFileName);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if(length > Integer.MAX_VALUE){
+                throw new IOException(elevationFileName + " is too large to map (" + length + " bytes)");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            int[] rowStarts = findRowStarts(buffer, (int) length, rows, elevationFileName);
+            float[] elevations = new float[cols * rows];
+            int bands = (rows + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+            try {
+                IntStream.range(0, bands).parallel().forEach(band -> {
+                    int first = band * ROWS_PER_BAND;
+                    int last = Math.min(rows, first + ROWS_PER_BAND);
+                    for(int row = first; row < last; row++){
+                        parseRow(buffer, rowStarts[row], rowStarts[row + 1], row, cols, elevations, elevationFileName);
+                    }
+                });
+            } catch (IllegalStateException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            return elevations;
+        }
+    }
+
+    /**
+     * Finds where every non-empty line of the file starts
+     * @return rows + 1 offsets, the last one being the end of the final row
+     */
+    private static int[] findRowStarts(MappedByteBuffer buffer, int length, int rows, String fileName) throws IOException {
+        int[] starts = new int[rows + 1];
+        int count = 0;
+        int lineStart = 0;
+        boolean blank = true;
+        for(int i = 0; i <= length; i++){
+            byte b = i < length ? buffer.get(i) : (byte) '\n';
+            if(b == '\n'){
+                if(!blank){
+                    if(count == rows){
+                        throw new IOException(fileName + " has more than the " + rows + " rows of the terrain image");
+                    }
+                    starts[count++] = lineStart;
+                }
+                lineStart = i + 1;
+                blank = true;
+            }
+            else if(b > ' '){
+                blank = false;
+            }
+        }
+        if(count != rows){
+            throw new IOException(fileName + " has " + count + " rows but the terrain image has " + rows);
+        }
+        starts[rows] = length;
+        return starts;
+    }
+
+    /**
+     * Parses the first cols values of one row into the elevation array
+     */
+    private static void parseRow(MappedByteBuffer buffer, int pos, int end, int row, int cols, float[] out, String fileName){
+        int offset = row * cols;
+        for(int col = 0; col < cols; col++){
+            while(pos < end && buffer.get(pos) <= ' '){
+                pos++;
+            }
+            if(pos >= end){
+                throw new IllegalStateException(fileName + ": row " + row + " has " + col + " values but the terrain image is " + cols + " wide");
+            }
+            //parse one number: [sign] digits [. digits] [e|E [sign] digits]
+            boolean negative = false;
+            byte b = buffer.get(pos);
+            if(b == '-' || b == '+'){
+                negative = b == '-';
+                pos++;
+            }
+            long mantissa = 0;
+            int exponent = 0;
+            int digits = 0;
+            while(pos < end && (b = buffer.get(pos)) >= '0' && b <= '9'){
+                if(digits < 18){
+                    mantissa = mantissa * 10 + (b - '0');
+                    digits++;
+                }
+                else{
+                    exponent++;
+                }
+                pos++;
+            }
+            if(pos < end && buffer.get(pos) == '.'){
+                pos++;
+                while(pos < end && (b = buffer.get(pos)) >= '0' && b <= '9'){
+                    if(digits < 18){
+                        mantissa = mantissa * 10 + (b - '0');
+                        digits++;
+                        exponent--;
+                    }
+                    pos++;
+                }
+            }
+            //digits counts the integer and fraction digits, so -, . and e5 aren't read as 0
+            boolean valid = digits > 0;
+            if(pos < end && ((b = buffer.get(pos)) == 'e' || b == 'E')){
+                pos++;
+                boolean negativeExponent = false;
+                if(pos < end && ((b = buffer.get(pos)) == '-' || b == '+')){
+                    negativeExponent = b == '-';
+                    pos++;
+                }
+                int e = 0;
+                int exponentDigits = 0;
+                while(pos < end && (b = buffer.get(pos)) >= '0' && b <= '9'){
+                    e = e * 10 + (b - '0');
+                    exponentDigits++;
+                    pos++;
+                }
+                valid &= exponentDigits > 0;
+                exponent += negativeExponent ? -e : e;
+            }
+            if(!valid || pos < end && buffer.get(pos) > ' '){
+                throw new IllegalStateException(fileName + ": bad number in row " + row + ", column " + col);
+            }
+            out[offset + col] = (float) scale(negative ? -mantissa : mantissa, exponent);
+        }
+    }
+
+    private static double scale(long mantissa, int exponent){
+        if(exponent == 0){
+            return mantissa;
+        }
+        if(exponent > 0){
+            return exponent < POWERS_OF_TEN.length ? mantissa * POWERS_OF_TEN[exponent] : mantissa * Math.pow(10, exponent);
+        }
+        return -exponent < POWERS_OF_TEN.length ? mantissa / POWERS_OF_TEN[-exponent] : mantissa / Math.pow(10, -exponent);
+    }
+}
@@ -0,0 +1,13 @@
+public interface Heuristic {
+    /**
+     * Estimate of the cost between two cells, used as H(n) by the searches. It must never be larger
+     * than the real cheapest cost or the searches stop being optimal.
+     */
+
+    /**
+     * @param from: index of the cell the route starts at
+     * @param to: index of the cell the route ends at
+     * @return a lower bound on the cost of moving from one cell to the other
+     */
+    double estimate(int from, int to);
+}
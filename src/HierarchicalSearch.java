@@ -0,0 +1,369 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+public class HierarchicalSearch implements LegSearch {
+    /**
+     * Hierarchical pathfinding (HPA*). The grid is cut into square clusters. Entrances are placed
+     * along every border between two neighboring clusters, and the cost between every pair of
+     * entrances of a cluster is precomputed with calculateGn while staying inside that cluster.
+     * A query first searches this small abstract graph. A* then refines the route at full resolution,
+     * but only inside the clusters the abstract route passes through and the ring of clusters around them.
+     *
+     * Entrance positions depend only on the grid size. A season that relabels cells therefore only
+     * changes the costs of the clusters holding those cells, and rebuild() recomputes just those. BatchRunner
+     * builds the summer abstraction of a map once and derives every other season from it this way.
+     */
+
+    public static final int DEFAULT_CLUSTER_SIZE = 16;
+
+    private final TerrainGrid grid;
+
+    private final Heuristic heuristic;
+
+    private final int clusterSize;
+
+    private final int clustersX;
+
+    private final int clustersY;
+
+    private final int[] nodeCells; //cell of every entrance node
+
+    private final int[] partners; //entrance node on the other side of the border
+
+    private final int[][] clusterNodes; //entrance nodes of every cluster
+
+    private final double[][] intraCosts; //per cluster, k*k costs between its entrances (row = from)
+
+    private final ThreadLocal<SearchWorkspace> workspaces;
+
+    private HierarchicalSearch(TerrainGrid grid, Heuristic heuristic, int clusterSize, int[] nodeCells, int[] partners,
+                               int[][] clusterNodes, double[][] intraCosts){
+        this.grid = grid;
+        this.heuristic = heuristic;
+        this.clusterSize = clusterSize;
+        this.clustersX = (grid.getCols() + clusterSize - 1) / clusterSize;
+        this.clustersY = (grid.getRows() + clusterSize - 1) / clusterSize;
+        this.nodeCells = nodeCells;
+        this.partners = partners;
+        this.clusterNodes = clusterNodes;
+        this.intraCosts = intraCosts;
+        this.workspaces = ThreadLocal.withInitial(() -> new SearchWorkspace(grid.size()));
+    }
+
+    /**
+     * Builds the abstraction of a grid
+     * @param grid: the terrain grid
+     * @param heuristic: H(n) used by the abstract search and the refinement
+     * @param clusterSize: width and height of a cluster in pixels
+     * @return the hierarchical search
+     */
+    public static HierarchicalSearch build(TerrainGrid grid, Heuristic heuristic, int clusterSize){
+        int clustersX = (grid.getCols() + clusterSize - 1) / clusterSize;
+        int clustersY = (grid.getRows() + clusterSize - 1) / clusterSize;
+        List<Integer> cells = new ArrayList<>();
+        List<Integer> partnerList = new ArrayList<>();
+        //vertical borders: cluster (cx, cy) | (cx + 1, cy)
+        for(int cy = 0; cy < clustersY; cy++){
+            for(int cx = 0; cx + 1 < clustersX; cx++){
+                int x = (cx + 1) * clusterSize - 1;
+                int top = cy * clusterSize;
+                int bottom = Math.min(grid.getRows(), top + clusterSize) - 1;
+                for(int y: entranceOffsets(top, bottom)){
+                    addEntrancePair(cells, partnerList, grid.index(x, y), grid.index(x + 1, y));
+                }
+            }
+        }
+        //horizontal borders: cluster (cx, cy) above (cx, cy + 1)
+        for(int cy = 0; cy + 1 < clustersY; cy++){
+            for(int cx = 0; cx < clustersX; cx++){
+                int y = (cy + 1) * clusterSize - 1;
+                int left = cx * clusterSize;
+                int right = Math.min(grid.getCols(), left + clusterSize) - 1;
+                for(int x: entranceOffsets(left, right)){
+                    addEntrancePair(cells, partnerList, grid.index(x, y), grid.index(x, y + 1));
+                }
+            }
+        }
+        int[] nodeCells = new int[cells.size()];
+        int[] partners = new int[cells.size()];
+        for(int i = 0; i < nodeCells.length; i++){
+            nodeCells[i] = cells.get(i);
+            partners[i] = partnerList.get(i);
+        }
+
+        List<List<Integer>> perCluster = new ArrayList<>();
+        for(int c = 0; c < clustersX * clustersY; c++){
+            perCluster.add(new ArrayList<>());
+        }
+        for(int node = 0; node < nodeCells.length; node++){
+            int cell = nodeCells[node];
+            perCluster.get((grid.getY(cell) / clusterSize) * clustersX + grid.getX(cell) / clusterSize).add(node);
+        }
+        int[][] clusterNodes = new int[perCluster.size()][];
+        for(int c = 0; c < clusterNodes.length; c++){
+            clusterNodes[c] = perCluster.get(c).stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        HierarchicalSearch search = new HierarchicalSearch(grid, heuristic, clusterSize, nodeCells, partners,
+                clusterNodes, new double[clusterNodes.length][]);
+        for(int c = 0; c < clusterNodes.length; c++){
+            search.intraCosts[c] = search.computeIntraCosts(c);
+        }
+        return search;
+    }
+
+    /**
+     * Positions of the entrances along one border: both ends and the middle
+     */
+    private static int[] entranceOffsets(int first, int last){
+        if(last - first < 2){
+            return new int[]{(first + last) / 2};
+        }
+        return new int[]{first, (first + last) / 2, last};
+    }
+
+    private static void addEntrancePair(List<Integer> cells, List<Integer> partners, int a, int b){
+        int node = cells.size();
+        cells.add(a);
+        partners.add(node + 1);
+        cells.add(b);
+        partners.add(node);
+    }
+
+    /**
+     * Builds the abstraction of the same map after a season relabeled some cells. Only the clusters
+     * that contain changed cells are recomputed, the others share their costs with this abstraction.
+     * @param changedGrid: the grid with the new terrain
+     * @param changed: the relabeled cells
+     * @param heuristic: H(n) for the new grid
+     * @return the hierarchical search over changedGrid
+     */
+    public HierarchicalSearch rebuild(TerrainGrid changedGrid, BitSet changed, Heuristic heuristic){
+        HierarchicalSearch search = new HierarchicalSearch(changedGrid, heuristic, clusterSize, nodeCells, partners,
+                clusterNodes, intraCosts.clone());
+        BitSet dirty = new BitSet(clusterNodes.length);
+        for(int cell = changed.nextSetBit(0); cell >= 0; cell = changed.nextSetBit(cell + 1)){
+            dirty.set(clusterOf(cell));
+        }
+        for(int c = dirty.nextSetBit(0); c >= 0; c = dirty.nextSetBit(c + 1)){
+            search.intraCosts[c] = search.computeIntraCosts(c);
+        }
+        return search;
+    }
+
+    private int clusterOf(int cell){
+        return (grid.getY(cell) / clusterSize) * clustersX + grid.getX(cell) / clusterSize;
+    }
+
+    /**
+     * Costs between every ordered pair of entrances of a cluster, staying inside the cluster
+     */
+    private double[] computeIntraCosts(int cluster){
+        int[] nodes = clusterNodes[cluster];
+        int k = nodes.length;
+        double[] costs = new double[k * k];
+        ClusterDijkstra dijkstra = new ClusterDijkstra(cluster);
+        for(int i = 0; i < k; i++){
+            dijkstra.run(nodeCells[nodes[i]], false);
+            for(int j = 0; j < k; j++){
+                costs[i * k + j] = dijkstra.cost(nodeCells[nodes[j]]);
+            }
+        }
+        return costs;
+    }
+
+    @Override
+    public Route search(int start, int goal) {
+        long startTime = System.nanoTime();
+        int startCluster = clusterOf(start);
+        int goalCluster = clusterOf(goal);
+        int count = nodeCells.length;
+        int startNode = count;
+        int goalNode = count + 1;
+
+        //connect start and goal to the entrances of their clusters
+        ClusterDijkstra fromStart = new ClusterDijkstra(startCluster);
+        fromStart.run(start, false);
+        ClusterDijkstra toGoal = new ClusterDijkstra(goalCluster);
+        toGoal.run(goal, true);
+
+        double[] g = new double[count + 2];
+        int[] parents = new int[count + 2];
+        Arrays.fill(g, Double.POSITIVE_INFINITY);
+        IndexedMinHeap openList = new IndexedMinHeap(count + 2);
+        g[startNode] = 0.0;
+        parents[startNode] = -1;
+        openList.insert(startNode, heuristic.estimate(start, goal));
+        int expanded = 0;
+
+        while(!openList.isEmpty()){
+            int node = openList.poll();
+            expanded++;
+            if(node == goalNode){
+                break;
+            }
+            if(node == startNode){
+                for(int next: clusterNodes[startCluster]){
+                    relax(openList, g, parents, node, next, fromStart.cost(nodeCells[next]), goal);
+                }
+                if(startCluster == goalCluster){
+                    relax(openList, g, parents, node, goalNode, fromStart.cost(goal), goal);
+                }
+                continue;
+            }
+            int cluster = clusterOf(nodeCells[node]);
+            int[] nodes = clusterNodes[cluster];
+            int k = nodes.length;
+            int i = indexIn(nodes, node);
+            for(int j = 0; j < k; j++){
+                if(j != i){
+                    relax(openList, g, parents, node, nodes[j], intraCosts[cluster][i * k + j], goal);
+                }
+            }
+            int partner = partners[node];
+            relax(openList, g, parents, node, partner, lab1.calculateGn(grid, nodeCells[node], nodeCells[partner], 0.0), goal);
+            if(cluster == goalCluster){
+                relax(openList, g, parents, node, goalNode, toGoal.cost(nodeCells[node]), goal);
+            }
+        }
+
+        SearchWorkspace workspace = workspaces.get();
+        if(g[goalNode] == Double.POSITIVE_INFINITY){
+            Route route = lab1.aStar(grid, start, goal, workspace, heuristic);
+            return new Route(route.getCells(), route.getCost(), expanded + route.getExpanded(),
+                    SearchStats.of(openList, 0).plus(route.getStats(), System.nanoTime() - startTime));
+        }
+
+        //refine at full resolution inside the clusters the abstract route passes through and the ring around them
+        BitSet clusters = new BitSet(clusterNodes.length);
+        clusters.set(startCluster);
+        clusters.set(goalCluster);
+        for(int node = parents[goalNode]; node != startNode; node = parents[node]){
+            clusters.set(clusterOf(nodeCells[node]));
+        }
+        BitSet corridor = new BitSet(grid.size());
+        for(int c = clusters.nextSetBit(0); c >= 0; c = clusters.nextSetBit(c + 1)){
+            int cx = c % clustersX;
+            int cy = c / clustersX;
+            for(int y = Math.max(0, cy - 1); y <= Math.min(clustersY - 1, cy + 1); y++){
+                for(int x = Math.max(0, cx - 1); x <= Math.min(clustersX - 1, cx + 1); x++){
+                    addCluster(corridor, y * clustersX + x);
+                }
+            }
+        }
+        Route route = lab1.aStar(grid, start, goal, workspace, heuristic, corridor);
+        if(!route.isFound()){
+            route = lab1.aStar(grid, start, goal, workspace, heuristic);
+        }
+        //counts of the abstract search plus those of the (last) refinement
+        return new Route(route.getCells(), route.getCost(), expanded + route.getExpanded(),
+                SearchStats.of(openList, 0).plus(route.getStats(), System.nanoTime() - startTime));
+    }
+
+    private void relax(IndexedMinHeap openList, double[] g, int[] parents, int node, int next, double cost, int goal){
+        double tempG = g[node] + cost;
+        if(tempG < g[next]){
+            g[next] = tempG;
+            parents[next] = node;
+            int cell = next < nodeCells.length ? nodeCells[next] : goal;
+            openList.insertOrDecrease(next, tempG + heuristic.estimate(cell, goal));
+        }
+    }
+
+    private static int indexIn(int[] nodes, int node){
+        for(int i = 0; i < nodes.length; i++){
+            if(nodes[i] == node){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void addCluster(BitSet corridor, int cluster){
+        int left = (cluster % clustersX) * clusterSize;
+        int top = (cluster / clustersX) * clusterSize;
+        int right = Math.min(grid.getCols(), left + clusterSize);
+        int bottom = Math.min(grid.getRows(), top + clusterSize);
+        for(int y = top; y < bottom; y++){
+            corridor.set(grid.index(left, y), grid.index(right - 1, y) + 1);
+        }
+    }
+
+    private class ClusterDijkstra {
+        /**
+         * Dijkstra that never leaves one cluster, indexed by position inside the cluster.
+         */
+
+        private final int left;
+
+        private final int top;
+
+        private final int width;
+
+        private final int height;
+
+        private final double[] g;
+
+        private final IndexedMinHeap openList;
+
+        ClusterDijkstra(int cluster){
+            this.left = (cluster % clustersX) * clusterSize;
+            this.top = (cluster / clustersX) * clusterSize;
+            this.width = Math.min(grid.getCols(), left + clusterSize) - left;
+            this.height = Math.min(grid.getRows(), top + clusterSize) - top;
+            this.g = new double[width * height];
+            this.openList = new IndexedMinHeap(width * height);
+        }
+
+        private int local(int cell){
+            return (grid.getY(cell) - top) * width + (grid.getX(cell) - left);
+        }
+
+        private int cell(int local){
+            return grid.index(left + local % width, top + local / width);
+        }
+
+        /**
+         * @param source: cell the search starts at
+         * @param reverse: false for costs from the source, true for costs to the source
+         */
+        void run(int source, boolean reverse){
+            Arrays.fill(g, Double.POSITIVE_INFINITY);
+            openList.clear();
+            g[local(source)] = 0.0;
+            openList.insert(local(source), 0.0);
+            EdgeCosts costs = grid.edgeCosts();
+            while(!openList.isEmpty()){
+                int node = openList.poll();
+                int nodeCell = cell(node);
+                for(int d = 0; d < EdgeCosts.DIRECTIONS; d++){
+                    if(costs.get(nodeCell, d) == Double.POSITIVE_INFINITY){
+                        continue; //off the map
+                    }
+                    int neighborCell = costs.neighbor(nodeCell, d);
+                    int x = grid.getX(neighborCell) - left;
+                    int y = grid.getY(neighborCell) - top;
+                    if(x < 0 || y < 0 || x >= width || y >= height){
+                        continue;
+                    }
+                    int neighbor = y * width + x;
+                    double tempG = g[node] + (reverse ? costs.getInto(nodeCell, d) : costs.get(nodeCell, d));
+                    if(tempG < g[neighbor]){
+                        g[neighbor] = tempG;
+                        openList.insertOrDecrease(neighbor, tempG);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @param cell: a cell of the cluster
+         * @return its cost from (or to, for a reverse run) the source
+         */
+        double cost(int cell){
+            return g[local(cell)];
+        }
+    }
+}
@@ -0,0 +1,229 @@
+import java.util.Arrays;
+
+public class IndexedMinHeap implements OpenList {
+    /**
+     * Binary min-heap over integer ids (grid cell indices) ordered by a double key, the default open list.
+     * Each id remembers its slot in the heap, so contains and decrease-key don't need to scan.
+     * It also counts its pushes, pops and decrease-keys and its largest size since resetCounters,
+     * which are plain int fields so they can stay on in every search. A search that numbers its ids
+     * as it reaches them can start small and grow the heap along with them.
+     */
+
+    private int[] heap;
+
+    private double[] keys;
+
+    private int[] position; //slot of each id in heap, -1 when the id is not in the heap
+
+    private int size;
+
+    private int pushes;
+
+    private int pops;
+
+    private int decreaseKeys;
+
+    private int peakSize;
+
+    public IndexedMinHeap(int capacity){
+        this.heap = new int[capacity];
+        this.keys = new double[capacity];
+        this.position = new int[capacity];
+        Arrays.fill(position, -1);
+        this.size = 0;
+    }
+
+    /**
+     * Makes room for more ids, keeping the ones queued
+     * @param capacity: ids the heap can hold from now on, not less than now
+     */
+    public void grow(int capacity){
+        int old = position.length;
+        heap = Arrays.copyOf(heap, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+        position = Arrays.copyOf(position, capacity);
+        Arrays.fill(position, old, capacity, -1);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(int id) {
+        return position[id] != -1;
+    }
+
+    @Override
+    public double getKey(int id) {
+        return keys[id];
+    }
+
+    /**
+     * Smallest key currently in the heap
+     * @return the key of the top element
+     */
+    @Override
+    public double peekKey() {
+        return keys[heap[0]];
+    }
+
+    /**
+     * Id with the smallest key, without removing it
+     * @return the id of the top element
+     */
+    @Override
+    public int peek() {
+        return heap[0];
+    }
+
+    /**
+     * Adds an id to the heap
+     * @param id: id to add, must not already be in the heap
+     * @param key: its priority
+     */
+    @Override
+    public void insert(int id, double key) {
+        keys[id] = key;
+        heap[size] = id;
+        position[id] = size;
+        size++;
+        pushes++;
+        if(size > peakSize){
+            peakSize = size;
+        }
+        siftUp(size - 1);
+    }
+
+    /**
+     * Lowers the key of an id already in the heap
+     * @param id: id to update
+     * @param key: new priority, must not be larger than the old one
+     */
+    @Override
+    public void decreaseKey(int id, double key) {
+        keys[id] = key;
+        decreaseKeys++;
+        siftUp(position[id]);
+    }
+
+    /**
+     * Inserts the id, or lowers its key when it is already queued
+     * @param id: id to add or update
+     * @param key: its priority
+     */
+    @Override
+    public void insertOrDecrease(int id, double key) {
+        if(position[id] == -1){
+            insert(id, key);
+        }
+        else if(key < keys[id]){
+            decreaseKey(id, key);
+        }
+    }
+
+    /**
+     * Removes the id with the smallest key
+     * @return the removed id
+     */
+    @Override
+    public int poll() {
+        int top = heap[0];
+        size--;
+        pops++;
+        position[top] = -1;
+        if(size > 0){
+            int last = heap[size];
+            heap[0] = last;
+            position[last] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    @Override
+    public int getPushes() {
+        return pushes;
+    }
+
+    @Override
+    public int getPops() {
+        return pops;
+    }
+
+    @Override
+    public int getDecreaseKeys() {
+        return decreaseKeys;
+    }
+
+    @Override
+    public int getPeakSize() {
+        return peakSize;
+    }
+
+    /**
+     * Starts counting pushes, pops, decrease-keys and the peak size from zero
+     */
+    @Override
+    public void resetCounters() {
+        pushes = 0;
+        pops = 0;
+        decreaseKeys = 0;
+        peakSize = size;
+    }
+
+    /**
+     * Empties the heap. Only the slots that are in use get touched.
+     */
+    @Override
+    public void clear() {
+        for(int i = 0; i < size; i++){
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int slot) {
+        int id = heap[slot];
+        double key = keys[id];
+        while(slot > 0){
+            int parentSlot = (slot - 1) >>> 1;
+            int parent = heap[parentSlot];
+            if(keys[parent] <= key){
+                break;
+            }
+            heap[slot] = parent;
+            position[parent] = slot;
+            slot = parentSlot;
+        }
+        heap[slot] = id;
+        position[id] = slot;
+    }
+
+    private void siftDown(int slot) {
+        int id = heap[slot];
+        double key = keys[id];
+        int half = size >>> 1;
+        while(slot < half){
+            int child = 2 * slot + 1;
+            int right = child + 1;
+            if(right < size && keys[heap[right]] < keys[heap[child]]){
+                child = right;
+            }
+            if(key <= keys[heap[child]]){
+                break;
+            }
+            heap[slot] = heap[child];
+            position[heap[slot]] = slot;
+            slot = child;
+        }
+        heap[slot] = id;
+        position[id] = slot;
+    }
+}
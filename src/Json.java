@@ -0,0 +1,217 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Json {
+    /**
+     * Minimal JSON reader and writer for the route server's requests and responses. Objects become
+     * Maps, arrays Lists, numbers Doubles, and true/false/null Booleans and null. Objects and arrays
+     * nest at most MAX_DEPTH deep, so a request body can't run the parser out of stack.
+     */
+
+    public static final int MAX_DEPTH = 64;
+
+    private final String text;
+
+    private int pos;
+
+    private int depth;
+
+    private Json(String text){
+        this.text = text;
+    }
+
+    /**
+     * Parses a JSON document
+     * @param text: the document
+     * @return the parsed value
+     * @throws IllegalArgumentException if the text isn't valid JSON or nests deeper than MAX_DEPTH
+     */
+    public static Object parse(String text){
+        Json parser = new Json(text);
+        Object value = parser.value();
+        parser.skipSpace();
+        if(parser.pos != text.length()){
+            throw parser.error("unexpected trailing characters");
+        }
+        return value;
+    }
+
+    /**
+     * Quotes and escapes a string
+     * @param value: the string
+     * @return the JSON string literal
+     */
+    public static String quote(String value){
+        StringBuilder out = new StringBuilder("\"");
+        for(int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if(c < 0x20){
+                        out.append(String.format("\\u%04x", (int) c));
+                    }
+                    else{
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    private IllegalArgumentException error(String message){
+        return new IllegalArgumentException("Invalid JSON at character " + pos + ": " + message);
+    }
+
+    private void skipSpace(){
+        while(pos < text.length() && Character.isWhitespace(text.charAt(pos))){
+            pos++;
+        }
+    }
+
+    private Object value(){
+        skipSpace();
+        if(pos >= text.length()){
+            throw error("unexpected end of input");
+        }
+        char c = text.charAt(pos);
+        switch (c) {
+            case '{':
+            case '[':
+                if(depth == MAX_DEPTH){
+                    throw error("nested deeper than " + MAX_DEPTH + " levels");
+                }
+                depth++;
+                Object nested = c == '{' ? object() : array();
+                depth--;
+                return nested;
+            case '"': return string();
+            case 't': return literal("true", Boolean.TRUE);
+            case 'f': return literal("false", Boolean.FALSE);
+            case 'n': return literal("null", null);
+            default: return number();
+        }
+    }
+
+    private Object literal(String word, Object value){
+        if(!text.startsWith(word, pos)){
+            throw error("unexpected character '" + text.charAt(pos) + "'");
+        }
+        pos += word.length();
+        return value;
+    }
+
+    private Map<String, Object> object(){
+        Map<String, Object> object = new LinkedHashMap<>();
+        pos++;
+        skipSpace();
+        if(pos < text.length() && text.charAt(pos) == '}'){
+            pos++;
+            return object;
+        }
+        while(true){
+            skipSpace();
+            if(pos >= text.length() || text.charAt(pos) != '"'){
+                throw error("expected a field name");
+            }
+            String key = string();
+            skipSpace();
+            expect(':');
+            object.put(key, value());
+            skipSpace();
+            if(pos < text.length() && text.charAt(pos) == ','){
+                pos++;
+                continue;
+            }
+            expect('}');
+            return object;
+        }
+    }
+
+    private List<Object> array(){
+        List<Object> array = new ArrayList<>();
+        pos++;
+        skipSpace();
+        if(pos < text.length() && text.charAt(pos) == ']'){
+            pos++;
+            return array;
+        }
+        while(true){
+            array.add(value());
+            skipSpace();
+            if(pos < text.length() && text.charAt(pos) == ','){
+                pos++;
+                continue;
+            }
+            expect(']');
+            return array;
+        }
+    }
+
+    private void expect(char c){
+        if(pos >= text.length() || text.charAt(pos) != c){
+            throw error("expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private String string(){
+        pos++;
+        StringBuilder out = new StringBuilder();
+        while(pos < text.length()){
+            char c = text.charAt(pos++);
+            if(c == '"'){
+                return out.toString();
+            }
+            if(c != '\\'){
+                out.append(c);
+                continue;
+            }
+            if(pos >= text.length()){
+                break;
+            }
+            char escaped = text.charAt(pos++);
+            switch (escaped) {
+                case 'n': out.append('\n'); break;
+                case 'r': out.append('\r'); break;
+                case 't': out.append('\t'); break;
+                case 'b': out.append('\b'); break;
+                case 'f': out.append('\f'); break;
+                case 'u':
+                    if(pos + 4 > text.length()){
+                        throw error("truncated escape");
+                    }
+                    try {
+                        out.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("bad unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default: out.append(escaped);
+            }
+        }
+        throw error("unterminated string");
+    }
+
+    private Double number(){
+        int start = pos;
+        while(pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) != -1){
+            pos++;
+        }
+        if(start == pos){
+            throw error("unexpected character '" + text.charAt(pos) + "'");
+        }
+        try {
+            return Double.valueOf(text.substring(start, pos));
+        } catch (NumberFormatException e) {
+            throw error("bad number " + text.substring(start, pos));
+        }
+    }
+}
@@ -0,0 +1,218 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+public class Landmarks implements Heuristic {
+    /**
+     * ALT heuristic (A*, landmarks, triangle inequality). For a handful of landmark cells L the exact
+     * costs d(L, v) and d(v, L) to and from every cell are precomputed, and then for any pair of cells
+     *     d(a, b) >= d(L, b) - d(L, a)   and   d(a, b) >= d(a, L) - d(b, L)
+     * The largest of these bounds (and calculateHn) is a much tighter H(n) than straight-line distance
+     * over slow terrain. Fields are kept as floats; the bounds subtract a small slack so float rounding
+     * can't make them overestimate.
+     *
+     * File layout (little-endian): magic, version, cols, rows, landmark count, grid content hash
+     * (64 ASCII hex chars), landmark cell indices, then every d(L, v) field followed by every d(v, L) field.
+     */
+
+    public static final int MAGIC = 0x4C544C41; //"ALTL"
+
+    public static final int VERSION = 1;
+
+    public static final int DEFAULT_COUNT = 8;
+
+    private static final int HEADER_BYTES = 4 * 5 + 64;
+
+    private final TerrainGrid grid;
+
+    private final int[] landmarks;
+
+    private final float[][] from; //from[l][v] = d(landmark l, v)
+
+    private final float[][] to;   //to[l][v] = d(v, landmark l)
+
+    private final double slack;
+
+    private Landmarks(TerrainGrid grid, int[] landmarks, float[][] from, float[][] to){
+        this.grid = grid;
+        this.landmarks = landmarks;
+        this.from = from;
+        this.to = to;
+        float largest = 0f;
+        for(float[][] fields: new float[][][]{from, to}){
+            for(float[] field: fields){
+                for(float cost: field){
+                    if(cost != Float.POSITIVE_INFINITY && cost > largest){
+                        largest = cost;
+                    }
+                }
+            }
+        }
+        //each bound subtracts two rounded floats, and each double was at most half an ulp away from its float
+        this.slack = 2 * Math.ulp(largest);
+    }
+
+    /**
+     * Picks landmarks by farthest-point selection and computes their cost fields
+     * @param grid: the terrain grid of one season
+     * @param count: number of landmarks
+     * @return the landmarks
+     */
+    public static Landmarks compute(TerrainGrid grid, int count){
+        int size = grid.size();
+        SearchWorkspace workspace = new SearchWorkspace(size);
+        int[] landmarks = new int[count];
+        float[][] from = new float[count][];
+        float[][] to = new float[count][];
+
+        //start from the cell farthest from the centre, then keep adding the cell farthest from every landmark so far
+        double[] nearest = new double[size];
+        double[] g = Dijkstra.oneToAll(grid, grid.index(grid.getCols() / 2, grid.getRows() / 2), false, workspace);
+        System.arraycopy(g, 0, nearest, 0, size);
+        for(int l = 0; l < count; l++){
+            int farthest = 0;
+            for(int i = 1; i < size; i++){
+                if(nearest[i] != Double.POSITIVE_INFINITY && (nearest[farthest] == Double.POSITIVE_INFINITY || nearest[i] > nearest[farthest])){
+                    farthest = i;
+                }
+            }
+            landmarks[l] = farthest;
+            g = Dijkstra.oneToAll(grid, farthest, false, workspace);
+            from[l] = toFloats(g);
+            for(int i = 0; i < size; i++){
+                if(l == 0 || g[i] < nearest[i]){
+                    nearest[i] = g[i];
+                }
+            }
+            to[l] = toFloats(Dijkstra.oneToAll(grid, farthest, true, workspace));
+        }
+        return new Landmarks(grid, landmarks, from, to);
+    }
+
+    private static float[] toFloats(double[] values){
+        float[] floats = new float[values.length];
+        for(int i = 0; i < values.length; i++){
+            floats[i] = (float) values[i];
+        }
+        return floats;
+    }
+
+    @Override
+    public double estimate(int a, int b) {
+        double bound = 0.0;
+        for(int l = 0; l < landmarks.length; l++){
+            float[] fromL = from[l];
+            float[] toL = to[l];
+            double forward = (double) fromL[b] - fromL[a];
+            double backward = (double) toL[a] - toL[b];
+            //fields are infinite only for unreachable cells, where the difference says nothing
+            if(forward > bound && forward != Double.POSITIVE_INFINITY){
+                bound = forward;
+            }
+            if(backward > bound && backward != Double.POSITIVE_INFINITY){
+                bound = backward;
+            }
+        }
+        return Math.max(lab1.calculateHn(grid, a, b), bound - slack);
+    }
+
+    /**
+     * Writes the landmarks to a file
+     * @param fileName: file to write
+     * @throws IOException if the file can't be written
+     */
+    public void save(String fileName) throws IOException {
+        int size = grid.size();
+        int count = landmarks.length;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + count * 4 + 2 * count * size * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(grid.getCols()).putInt(grid.getRows()).putInt(count);
+        buffer.put(grid.contentHash().getBytes(StandardCharsets.US_ASCII));
+        for(int landmark: landmarks){
+            buffer.putInt(landmark);
+        }
+        for(float[][] fields: new float[][][]{from, to}){
+            for(float[] field: fields){
+                buffer.asFloatBuffer().put(field);
+                buffer.position(buffer.position() + size * 4);
+            }
+        }
+        Path path = Paths.get(fileName);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temp, buffer.array());
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads landmarks written by save
+     * @param fileName: file to read
+     * @param grid: the grid the landmarks are for
+     * @return the landmarks
+     * @throws IOException if the file can't be read or was computed for a different grid
+     */
+    public static Landmarks load(String fileName, TerrainGrid grid) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if(buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC){
+            throw new IOException(fileName + " is not a landmark file");
+        }
+        if(buffer.getInt(4) != VERSION){
+            throw new IOException(fileName + " is landmark version " + buffer.getInt(4) + ", expected " + VERSION);
+        }
+        int count = buffer.getInt(16);
+        byte[] hash = new byte[64];
+        buffer.position(20);
+        buffer.get(hash);
+        if(buffer.getInt(8) != grid.getCols() || buffer.getInt(12) != grid.getRows()
+                || !new String(hash, StandardCharsets.US_ASCII).equals(grid.contentHash())){
+            throw new IOException(fileName + " was computed for a different map or season");
+        }
+        int size = grid.size();
+        if(buffer.capacity() != HEADER_BYTES + count * 4L + 2L * count * size * 4){
+            throw new IOException(fileName + " is truncated");
+        }
+        int[] landmarks = new int[count];
+        buffer.asIntBuffer().get(landmarks);
+        buffer.position(buffer.position() + count * 4);
+        float[][] from = new float[count][size];
+        float[][] to = new float[count][size];
+        for(float[][] fields: new float[][][]{from, to}){
+            for(float[] field: fields){
+                buffer.asFloatBuffer().get(field);
+                buffer.position(buffer.position() + size * 4);
+            }
+        }
+        return new Landmarks(grid, landmarks, from, to);
+    }
+
+    /**
+     * Loads landmarks from a file if it was made for this grid, otherwise computes them and writes the file
+     * @param fileName: landmark file, may not exist yet
+     * @param grid: the terrain grid of one season
+     * @param count: number of landmarks to compute when the file can't be used
+     * @return the landmarks
+     * @throws IOException if a new file can't be written
+     */
+    public static Landmarks loadOrCompute(String fileName, TerrainGrid grid, int count) throws IOException {
+        if(Files.isRegularFile(Paths.get(fileName))){
+            try {
+                return load(fileName, grid);
+            } catch (IOException e) {
+                System.out.println("Recomputing landmarks: " + e.getMessage());
+            }
+        }
+        Landmarks landmarks = compute(grid, count);
+        landmarks.save(fileName);
+        return landmarks;
+    }
+}
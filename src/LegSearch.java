@@ -0,0 +1,14 @@
+public interface LegSearch {
+    /**
+     * A way of finding the route of one leg on a fixed map. Implementations keep their per-search
+     * state in workspaces of their own, so one instance can be called from several threads at once.
+     */
+
+    /**
+     * Finds the route of one leg
+     * @param start: index of the start cell
+     * @param goal: index of the destination cell
+     * @return the route, empty if the goal can't be reached
+     */
+    Route search(int start, int goal);
+}
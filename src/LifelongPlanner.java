@@ -0,0 +1,365 @@
+import java.util.Arrays;
+
+public class LifelongPlanner {
+    /**
+     * Lifelong Planning A* (LPA*) for one leg whose start and goal stay put while the terrain changes.
+     * Besides g, every cell keeps rhs, the cheapest g any of its neighbors offers it. A cell is
+     * consistent when the two agree; the open list holds the inconsistent ones, ordered by
+     * [min(g, rhs) + h, min(g, rhs)]. Planning fixes inconsistent cells in key order until the goal is
+     * consistent and nothing left in the open list could lead to a cheaper route, which the first time
+     * is the same work A* does.
+     *
+     * Relabeling a cell only changes the cost of the steps into it, so after a batch of changes only
+     * the relabeled cells get their rhs recomputed, and the next plan spreads the difference from
+     * there: only the part of the search that the changes actually affect is redone.
+     *
+     * The heuristic has to stay consistent whatever the cells are relabeled to. lab1.lowerBound does, as
+     * no terrain is faster than a footpath and slopes only add cost; calculateHn doesn't, since the
+     * elevation it adds can change by more than a step costs. A cell relabeled CLOSED can't be entered
+     * at all, like a cell off the map. The state takes about 40 bytes per cell of the grid (8MB on
+     * the bundled map), so a planner is meant for the legs of a course being run rather than for one-off
+     * queries.
+     */
+
+    private final TerrainGrid grid;
+
+    private final Heuristic heuristic;
+
+    private final int start;
+
+    private final int goal;
+
+    private final double[] g;
+
+    private final double[] rhs;
+
+    private final KeyHeap open;
+
+    /**
+     * @param grid: the terrain grid, relabeled only between plans
+     * @param heuristic: H(n), consistent under any relabeling
+     * @param start: index of the start cell
+     * @param goal: index of the destination cell
+     */
+    public LifelongPlanner(TerrainGrid grid, Heuristic heuristic, int start, int goal){
+        this.grid = grid;
+        this.heuristic = heuristic;
+        this.start = start;
+        this.goal = goal;
+        int size = grid.size();
+        g = new double[size];
+        rhs = new double[size];
+        Arrays.fill(g, Double.POSITIVE_INFINITY);
+        Arrays.fill(rhs, Double.POSITIVE_INFINITY);
+        open = new KeyHeap(size);
+        rhs[start] = 0.0;
+        open.insert(start, heuristic.estimate(start, goal), 0.0);
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getGoal() {
+        return goal;
+    }
+
+    /**
+     * Takes note of relabeled cells. The grid must already hold their new terrain.
+     * @param cells: indices of the relabeled cells
+     */
+    public void cellsChanged(int[] cells){
+        EdgeCosts costs = grid.edgeCosts();
+        for(int cell: cells){
+            updateVertex(costs, cell);
+        }
+    }
+
+    /**
+     * Brings the route up to date with every change so far. The first call plans from scratch.
+     * @return the cheapest route, empty if the goal can't be reached
+     */
+    public Route plan(){
+        long startTime = System.nanoTime();
+        open.resetCounters();
+        EdgeCosts costs = grid.edgeCosts();
+        int expanded = 0;
+        while(!open.isEmpty() && (open.topBefore(key1(goal), key2(goal)) || rhs[goal] != g[goal])){
+            int node = open.poll();
+            expanded++;
+            if(g[node] > rhs[node]){
+                //cheaper than before: settle it and offer the new g to the cells it leads to
+                g[node] = rhs[node];
+                for(int d = 0; d < EdgeCosts.DIRECTIONS; d++){
+                    double step = costs.get(node, d);
+                    if(step == Double.POSITIVE_INFINITY){
+                        continue; //off the map or closed
+                    }
+                    int next = costs.neighbor(node, d);
+                    if(next != start && g[node] + step < rhs[next]){
+                        rhs[next] = g[node] + step;
+                        requeue(next);
+                    }
+                }
+            }
+            else{
+                //dearer than before: forget its g and recompute whatever relied on it
+                double old = g[node];
+                g[node] = Double.POSITIVE_INFINITY;
+                updateVertex(costs, node);
+                for(int d = 0; d < EdgeCosts.DIRECTIONS; d++){
+                    double step = costs.get(node, d);
+                    if(step == Double.POSITIVE_INFINITY){
+                        continue;
+                    }
+                    int next = costs.neighbor(node, d);
+                    if(rhs[next] == old + step){
+                        updateVertex(costs, next);
+                    }
+                }
+            }
+        }
+        SearchStats stats = new SearchStats(open.pushes, open.pops, open.decreaseKeys, open.peakSize, System.nanoTime() - startTime);
+        if(g[goal] == Double.POSITIVE_INFINITY){
+            return Route.none(expanded, stats);
+        }
+        return new Route(extractPath(costs), g[goal], expanded, stats);
+    }
+
+    /**
+     * Walks back from the goal, each time to the neighbor whose g plus the step equals the cell's g
+     */
+    private int[] extractPath(EdgeCosts costs){
+        int length = 1;
+        int[] reversed = new int[16];
+        reversed[0] = goal;
+        int node = goal;
+        while(node != start){
+            int best = -1;
+            double bestG = Double.POSITIVE_INFINITY;
+            for(int d = 0; d < EdgeCosts.DIRECTIONS; d++){
+                if(!onMap(node, d)){
+                    continue;
+                }
+                int previous = costs.neighbor(node, d);
+                double through = g[previous] + costs.getInto(node, d);
+                if(through < bestG){
+                    bestG = through;
+                    best = previous;
+                }
+            }
+            if(best == -1 || length == grid.size()){
+                throw new IllegalStateException("Route of the leg doesn't lead back to its start");
+            }
+            if(length == reversed.length){
+                reversed = Arrays.copyOf(reversed, length * 2);
+            }
+            reversed[length++] = best;
+            node = best;
+        }
+        int[] path = new int[length];
+        for(int i = 0; i < length; i++){
+            path[i] = reversed[length - 1 - i];
+        }
+        return path;
+    }
+
+    /**
+     * Recomputes the rhs of a cell from its neighbors and queues it if it is inconsistent
+     */
+    private void updateVertex(EdgeCosts costs, int cell){
+        if(cell != start){
+            double best = Double.POSITIVE_INFINITY;
+            for(int d = 0; d < EdgeCosts.DIRECTIONS; d++){
+                if(!onMap(cell, d)){
+                    continue;
+                }
+                double through = g[costs.neighbor(cell, d)] + costs.getInto(cell, d);
+                if(through < best){
+                    best = through;
+                }
+            }
+            rhs[cell] = best;
+        }
+        requeue(cell);
+    }
+
+    /**
+     * Whether a step leads to a cell of the grid. The step's own cost can't tell: it is also infinite
+     * into a closed cell, while the step back out of that cell isn't.
+     */
+    private boolean onMap(int cell, int d){
+        return grid.inBounds(grid.getX(cell) + EdgeCosts.dx(d), grid.getY(cell) + EdgeCosts.dy(d));
+    }
+
+    /**
+     * Puts a cell in the open list with its current key if it is inconsistent, takes it out otherwise
+     */
+    private void requeue(int cell){
+        if(g[cell] != rhs[cell]){
+            open.insertOrUpdate(cell, key1(cell), key2(cell));
+        }
+        else if(open.contains(cell)){
+            open.remove(cell);
+        }
+    }
+
+    private double key2(int cell){
+        return Math.min(g[cell], rhs[cell]);
+    }
+
+    private double key1(int cell){
+        double best = key2(cell);
+        return best == Double.POSITIVE_INFINITY ? best : best + heuristic.estimate(cell, goal);
+    }
+
+    private static class KeyHeap {
+        /**
+         * Binary heap over cell ids ordered by two keys, the second breaking ties of the first, with
+         * removal and key updates in either direction.
+         */
+
+        private final int[] heap;
+
+        private final int[] position; //slot of each id, -1 when the id is not queued
+
+        private final double[] first;
+
+        private final double[] second;
+
+        private int size;
+
+        private int pushes;
+
+        private int pops;
+
+        private int decreaseKeys;
+
+        private int peakSize;
+
+        KeyHeap(int capacity){
+            heap = new int[capacity];
+            position = new int[capacity];
+            first = new double[capacity];
+            second = new double[capacity];
+            Arrays.fill(position, -1);
+        }
+
+        boolean isEmpty(){
+            return size == 0;
+        }
+
+        boolean contains(int id){
+            return position[id] != -1;
+        }
+
+        /**
+         * @return whether the top key comes before the given key
+         */
+        boolean topBefore(double key1, double key2){
+            int top = heap[0];
+            return first[top] < key1 || (first[top] == key1 && second[top] < key2);
+        }
+
+        void insert(int id, double key1, double key2){
+            first[id] = key1;
+            second[id] = key2;
+            heap[size] = id;
+            position[id] = size;
+            size++;
+            pushes++;
+            peakSize = Math.max(peakSize, size);
+            siftUp(size - 1);
+        }
+
+        void insertOrUpdate(int id, double key1, double key2){
+            if(position[id] == -1){
+                insert(id, key1, key2);
+                return;
+            }
+            boolean lower = before(key1, key2, first[id], second[id]);
+            first[id] = key1;
+            second[id] = key2;
+            if(lower){
+                decreaseKeys++;
+                siftUp(position[id]);
+            }
+            else{
+                siftDown(position[id]);
+            }
+        }
+
+        int poll(){
+            int top = heap[0];
+            remove(top);
+            pops++;
+            return top;
+        }
+
+        void remove(int id){
+            int slot = position[id];
+            position[id] = -1;
+            size--;
+            if(slot == size){
+                return;
+            }
+            int last = heap[size];
+            heap[slot] = last;
+            position[last] = slot;
+            siftUp(slot);
+            siftDown(position[last]);
+        }
+
+        void resetCounters(){
+            pushes = 0;
+            pops = 0;
+            decreaseKeys = 0;
+            peakSize = size;
+        }
+
+        private static boolean before(double a1, double a2, double b1, double b2){
+            return a1 < b1 || (a1 == b1 && a2 < b2);
+        }
+
+        private boolean less(int slotA, int slotB){
+            int a = heap[slotA];
+            int b = heap[slotB];
+            return before(first[a], second[a], first[b], second[b]);
+        }
+
+        private void siftUp(int slot){
+            while(slot > 0){
+                int parent = (slot - 1) / 2;
+                if(!less(slot, parent)){
+                    return;
+                }
+                swap(slot, parent);
+                slot = parent;
+            }
+        }
+
+        private void siftDown(int slot){
+            while(true){
+                int left = 2 * slot + 1;
+                if(left >= size){
+                    return;
+                }
+                int smallest = left + 1 < size && less(left + 1, left) ? left + 1 : left;
+                if(!less(smallest, slot)){
+                    return;
+                }
+                swap(slot, smallest);
+                slot = smallest;
+            }
+        }
+
+        private void swap(int a, int b){
+            int idA = heap[a];
+            int idB = heap[b];
+            heap[a] = idB;
+            heap[b] = idA;
+            position[idB] = a;
+            position[idA] = b;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+public class MapBundle {
+    /**
+     * Precompiled map: classified terrain, elevations and the overlay of every season in one binary
+     * file, so repeated runs on the same map skip the PNG decode, the elevation parse and the season passes.
+     *
+     * Layout (little-endian):
+     *   header   magic, version, Season.OVERLAY_VERSION, cols, rows, section count, CRC32 of
+     *            everything after the header
+     *   table    one (id, offset, length) entry per section
+     *   sections terrain bytes, elevation floats, one bitset (as longs) per season overlay
+     *
+     * A bundle whose overlays were computed by other season rules is refused rather than served stale,
+     * and has to be compiled again. Opening a bundle maps the file read-only and checks the header,
+     * section table and checksum; sections are only copied out of the mapping when a season's grid is
+     * first asked for. Grids handed out by a bundle are shared between callers and must be treated as
+     * read-only.
+     */
+
+    public static final int MAGIC = 0x424D504F; //"OPMB"
+
+    public static final int VERSION = 2;
+
+    private static final int HEADER_BYTES = 4 * 6 + 8;
+
+    private static final int ENTRY_BYTES = 4 + 8 + 8;
+
+    private static final int SECTION_TERRAIN = 0;
+
+    private static final int SECTION_ELEVATION = 1;
+
+    private static final int SECTION_OVERLAY = 2; //overlay of season s is section SECTION_OVERLAY + s.ordinal()
+
+    private static final int SECTIONS = SECTION_OVERLAY + Season.values().length;
+
+    private final int cols;
+
+    private final int rows;
+
+    private final MappedByteBuffer buffer;
+
+    private final long[] offsets;
+
+    private final long[] lengths;
+
+    private final Map<Season, TerrainGrid> grids = new EnumMap<>(Season.class);
+
+    private final Map<Season, BitSet> overlays = new EnumMap<>(Season.class);
+
+    private TerrainGrid base;
+
+    private MapBundle(int cols, int rows, MappedByteBuffer buffer, long[] offsets, long[] lengths){
+        this.cols = cols;
+        this.rows = rows;
+        this.buffer = buffer;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Writes a bundle for a map, computing the overlay of every season
+     * @param grid: the summer terrain grid
+     * @param bundleFileName: file to write
+     * @throws IOException if the file can't be written
+     */
+    public static void compile(TerrainGrid grid, String bundleFileName) throws IOException {
+        int size = grid.size();
+        ByteBuffer[] sections = new ByteBuffer[SECTIONS];
+
+        ByteBuffer terrain = ByteBuffer.allocate(size);
+        for(int i = 0; i < size; i++){
+            terrain.put(grid.getTerrain(i));
+        }
+        sections[SECTION_TERRAIN] = terrain;
+
+        ByteBuffer elevation = ByteBuffer.allocate(size * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for(int i = 0; i < size; i++){
+            elevation.putFloat((float) grid.getElevation(i));
+        }
+        sections[SECTION_ELEVATION] = elevation;
+
+        int words = (size + 63) / 64;
+        for(Season season: Season.values()){
+            long[] bits = season.computeOverlay(grid).toLongArray();
+            ByteBuffer overlay = ByteBuffer.allocate(words * 8).order(ByteOrder.LITTLE_ENDIAN);
+            for(long word: bits){
+                overlay.putLong(word);
+            }
+            sections[SECTION_OVERLAY + season.ordinal()] = overlay;
+        }
+
+        ByteBuffer table = ByteBuffer.allocate(SECTIONS * ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32 crc = new CRC32();
+        long offset = HEADER_BYTES + table.capacity();
+        for(int id = 0; id < SECTIONS; id++){
+            table.putInt(id).putLong(offset).putLong(sections[id].capacity());
+            offset += sections[id].capacity();
+        }
+        table.flip();
+        crc.update(table.duplicate());
+        for(ByteBuffer section: sections){
+            section.clear();
+            crc.update(section);
+            section.clear();
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(Season.OVERLAY_VERSION).putInt(grid.getCols()).putInt(grid.getRows()).putInt(SECTIONS).putLong(crc.getValue());
+        header.flip();
+
+        Path path = Paths.get(bundleFileName);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header);
+            writeFully(channel, table);
+            for(ByteBuffer section: sections){
+                writeFully(channel, section);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Checks whether a file starts with the bundle magic number
+     * @param fileName: file to check
+     * @return true if the file looks like a map bundle
+     */
+    public static boolean isBundle(String fileName){
+        Path path = Paths.get(fileName);
+        if(!Files.isRegularFile(path)){
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(magic, 0);
+            return magic.position() == 4 && magic.getInt(0) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Maps a bundle into memory and validates it
+     * @param bundleFileName: bundle written by compile
+     * @return the opened bundle
+     * @throws IOException if the file can't be read, has the wrong version or overlay version, has a
+     *             corrupt section table or fails its checksum
+     */
+    public static MapBundle open(String bundleFileName) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(Paths.get(bundleFileName), StandardOpenOption.READ)) {
+            if(channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE){
+                throw new IOException(bundleFileName + " is not a map bundle");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if(buffer.getInt(0) != MAGIC){
+            throw new IOException(bundleFileName + " is not a map bundle");
+        }
+        int version = buffer.getInt(4);
+        if(version != VERSION){
+            throw new IOException(bundleFileName + " is bundle version " + version + ", expected " + VERSION + "; compile it again");
+        }
+        int overlayVersion = buffer.getInt(8);
+        if(overlayVersion != Season.OVERLAY_VERSION){
+            throw new IOException(bundleFileName + " holds version " + overlayVersion + " season overlays, expected "
+                    + Season.OVERLAY_VERSION + "; compile it again");
+        }
+        int cols = buffer.getInt(12);
+        int rows = buffer.getInt(16);
+        int count = buffer.getInt(20);
+        long checksum = buffer.getLong(24);
+        if(cols <= 0 || rows <= 0 || count != SECTIONS || HEADER_BYTES + (long) count * ENTRY_BYTES > buffer.capacity()){
+            throw new IOException(bundleFileName + " has a corrupt section table");
+        }
+
+        CRC32 crc = new CRC32();
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(HEADER_BYTES);
+        crc.update(payload);
+        if(crc.getValue() != checksum){
+            throw new IOException(bundleFileName + " failed its checksum");
+        }
+
+        long[] offsets = new long[count];
+        long[] lengths = new long[count];
+        Arrays.fill(offsets, -1);
+        long tableEnd = HEADER_BYTES + (long) count * ENTRY_BYTES;
+        for(int i = 0; i < count; i++){
+            int entry = HEADER_BYTES + i * ENTRY_BYTES;
+            int id = buffer.getInt(entry);
+            if(id < 0 || id >= count || offsets[id] != -1){
+                throw new IOException(bundleFileName + " has a corrupt section table");
+            }
+            offsets[id] = buffer.getLong(entry + 4);
+            lengths[id] = buffer.getLong(entry + 12);
+            if(offsets[id] < tableEnd || lengths[id] < 0 || offsets[id] + lengths[id] > buffer.capacity()){
+                throw new IOException(bundleFileName + " has a section outside the file");
+            }
+        }
+        long size = (long) cols * rows;
+        boolean overlaysFit = true;
+        for(Season season: Season.values()){
+            overlaysFit &= lengths[SECTION_OVERLAY + season.ordinal()] == (size + 63) / 64 * 8;
+        }
+        if(lengths[SECTION_TERRAIN] != size || lengths[SECTION_ELEVATION] != size * 4 || !overlaysFit){
+            throw new IOException(bundleFileName + " sections don't match its " + cols + "x" + rows + " size");
+        }
+        return new MapBundle(cols, rows, buffer, offsets, lengths);
+    }
+
+    private ByteBuffer section(int id){
+        ByteBuffer slice = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        slice.position((int) offsets[id]);
+        slice.limit((int) (offsets[id] + lengths[id]));
+        return slice.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Reads the overlay of a season out of the bundle
+     * @param season: the season
+     * @return the cells the season relabels (a fresh copy the caller may modify)
+     */
+    public synchronized BitSet getOverlay(Season season){
+        BitSet overlay = overlays.get(season);
+        if(overlay == null){
+            overlay = BitSet.valueOf(section(SECTION_OVERLAY + season.ordinal()).asLongBuffer());
+            overlays.put(season, overlay);
+        }
+        return (BitSet) overlay.clone();
+    }
+
+    /**
+     * Gets the terrain grid of a season, building it from the mapped file the first time it's asked for
+     * @param season: the season
+     * @return the grid with the season's overlay applied, shared and read-only
+     */
+    public synchronized TerrainGrid getGrid(Season season){
+        TerrainGrid grid = grids.get(season);
+        if(grid == null){
+            if(base == null){
+                byte[] terrain = new byte[cols * rows];
+                section(SECTION_TERRAIN).get(terrain);
+                float[] elevation = new float[cols * rows];
+                section(SECTION_ELEVATION).asFloatBuffer().get(elevation);
+                base = new TerrainGrid(cols, rows, terrain, elevation);
+            }
+            grid = base;
+            if(season.getType() != null){
+                grid = base.copy();
+                lab1.applyOverlay(grid, getOverlay(season), season.getType());
+            }
+            grids.put(season, grid);
+        }
+        return grid;
+    }
+}
@@ -0,0 +1,304 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class Metrics {
+    /**
+     * Registry of counters, max gauges and timers, dumped as Prometheus text or JSON. Updates are
+     * LongAdder / atomic operations made once per leg or per phase (never per node), so the registry
+     * stays on in every run. Metrics are looked up by name and labels, and the same name with the
+     * same labels always gives back the same metric.
+     */
+
+    private static final Metrics SHARED = new Metrics();
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * @return the registry the command line, batch mode and route server record into
+     */
+    public static Metrics shared(){
+        return SHARED;
+    }
+
+    private static class Family {
+        /**
+         * Every labelled series of one metric name.
+         */
+
+        final String name;
+
+        final String help;
+
+        final String type;
+
+        final Map<String, Metric> series = new LinkedHashMap<>(); //by Prometheus label string
+
+        final Map<String, String[]> labels = new LinkedHashMap<>();
+
+        Family(String name, String help, String type){
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private interface Metric {
+        /**
+         * Appends the Prometheus sample lines of the metric
+         */
+        void prometheus(StringBuilder out, String name, String labels);
+
+        /**
+         * Appends the metric's fields as JSON
+         */
+        void json(StringBuilder out);
+    }
+
+    public static class Counter implements Metric {
+        /**
+         * A count that only goes up.
+         */
+
+        private final LongAdder count = new LongAdder();
+
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        public void increment() {
+            count.increment();
+        }
+
+        public long get() {
+            return count.sum();
+        }
+
+        @Override
+        public void prometheus(StringBuilder out, String name, String labels) {
+            out.append(name).append(labels).append(' ').append(get()).append('\n');
+        }
+
+        @Override
+        public void json(StringBuilder out) {
+            out.append("\"value\":").append(get());
+        }
+    }
+
+    public static class MaxGauge implements Metric {
+        /**
+         * The largest value seen.
+         */
+
+        private final AtomicLong max = new AtomicLong();
+
+        public void update(long value) {
+            if(value > max.get()){
+                max.accumulateAndGet(value, Math::max);
+            }
+        }
+
+        public long get() {
+            return max.get();
+        }
+
+        @Override
+        public void prometheus(StringBuilder out, String name, String labels) {
+            out.append(name).append(labels).append(' ').append(get()).append('\n');
+        }
+
+        @Override
+        public void json(StringBuilder out) {
+            out.append("\"value\":").append(get());
+        }
+    }
+
+    public static class Timer implements Metric {
+        /**
+         * Number, total and longest of some timed events, exported in seconds.
+         */
+
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder nanos = new LongAdder();
+
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        public void record(long elapsedNanos) {
+            count.increment();
+            nanos.add(elapsedNanos);
+            if(elapsedNanos > maxNanos.get()){
+                maxNanos.accumulateAndGet(elapsedNanos, Math::max);
+            }
+        }
+
+        /**
+         * Records the time since a System.nanoTime reading
+         * @param startNanos: the reading at the start of the event
+         */
+        public void stop(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getSeconds() {
+            return nanos.sum() / 1e9;
+        }
+
+        public double getMaxSeconds() {
+            return maxNanos.get() / 1e9;
+        }
+
+        @Override
+        public void prometheus(StringBuilder out, String name, String labels) {
+            //the longest event is the summary's 1-quantile
+            String quantile = labels.isEmpty() ? "{quantile=\"1\"}" : labels.substring(0, labels.length() - 1) + ",quantile=\"1\"}";
+            out.append(name).append(quantile).append(' ').append(getMaxSeconds()).append('\n');
+            out.append(name).append("_sum").append(labels).append(' ').append(getSeconds()).append('\n');
+            out.append(name).append("_count").append(labels).append(' ').append(getCount()).append('\n');
+        }
+
+        @Override
+        public void json(StringBuilder out) {
+            out.append("\"count\":").append(getCount()).append(",\"seconds\":").append(getSeconds())
+                    .append(",\"maxSeconds\":").append(getMaxSeconds());
+        }
+    }
+
+    private interface Factory {
+        Metric create();
+    }
+
+    /**
+     * Gets or registers a counter
+     * @param name: Prometheus metric name
+     * @param help: what the metric counts
+     * @param labels: label names and values, alternating
+     * @return the counter
+     */
+    public Counter counter(String name, String help, String... labels){
+        return (Counter) get(name, help, "counter", labels, Counter::new);
+    }
+
+    /**
+     * Gets or registers a gauge holding the largest value it was given
+     * @param name: Prometheus metric name
+     * @param help: what the metric measures
+     * @param labels: label names and values, alternating
+     * @return the gauge
+     */
+    public MaxGauge maxGauge(String name, String help, String... labels){
+        return (MaxGauge) get(name, help, "gauge", labels, MaxGauge::new);
+    }
+
+    /**
+     * Gets or registers a timer
+     * @param name: Prometheus metric name, without the unit (_seconds is part of the name given)
+     * @param help: what is timed
+     * @param labels: label names and values, alternating
+     * @return the timer
+     */
+    public Timer timer(String name, String help, String... labels){
+        return (Timer) get(name, help, "summary", labels, Timer::new);
+    }
+
+    private synchronized Metric get(String name, String help, String type, String[] labels, Factory factory){
+        Family family = families.get(name);
+        if(family == null){
+            family = new Family(name, help, type);
+            families.put(name, family);
+        }
+        else if(!family.type.equals(type)){
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        }
+        String key = labelString(labels);
+        Metric metric = family.series.get(key);
+        if(metric == null){
+            metric = factory.create();
+            family.series.put(key, metric);
+            family.labels.put(key, labels.clone());
+        }
+        return metric;
+    }
+
+    private static String labelString(String[] labels){
+        if(labels.length % 2 != 0){
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        if(labels.length == 0){
+            return "";
+        }
+        StringBuilder out = new StringBuilder("{");
+        for(int i = 0; i < labels.length; i += 2){
+            out.append(i == 0 ? "" : ",").append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+        }
+        return out.append('}').toString();
+    }
+
+    /**
+     * Records what one leg search did
+     * @param route: the leg's route
+     */
+    public void recordLeg(Route route){
+        SearchStats stats = route.getStats();
+        counter("orienteering_legs_total", "Leg searches run").increment();
+        counter("orienteering_nodes_expanded_total", "Nodes expanded by leg searches").add(route.getExpanded());
+        counter("orienteering_heap_pushes_total", "Open list inserts").add(stats.getPushes());
+        counter("orienteering_heap_pops_total", "Open list polls").add(stats.getPops());
+        counter("orienteering_heap_decrease_keys_total", "Open list decrease-keys").add(stats.getDecreaseKeys());
+        maxGauge("orienteering_open_list_peak", "Largest open list of any leg search").update(stats.getPeakOpen());
+        timer("orienteering_leg_search_seconds", "Time spent in single leg searches").record(stats.getNanos());
+    }
+
+    /**
+     * Timer of one phase of a run
+     * @param phase: load, season, search or render
+     * @return the phase's timer
+     */
+    public Timer phase(String phase){
+        return timer("orienteering_phase_seconds", "Time spent in each phase of a run", "phase", phase);
+    }
+
+    /**
+     * @return every metric in the Prometheus text exposition format
+     */
+    public synchronized String toPrometheus(){
+        StringBuilder out = new StringBuilder();
+        for(Family family: families.values()){
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for(Map.Entry<String, Metric> series: family.series.entrySet()){
+                series.getValue().prometheus(out, family.name, series.getKey());
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * @return every metric as a JSON array of {name, type, labels, values} objects
+     */
+    public synchronized String toJson(){
+        List<String> entries = new ArrayList<>();
+        for(Family family: families.values()){
+            for(Map.Entry<String, Metric> series: family.series.entrySet()){
+                StringBuilder out = new StringBuilder("{\"name\":").append(Json.quote(family.name))
+                        .append(",\"type\":").append(Json.quote(family.type)).append(",\"labels\":{");
+                String[] labels = family.labels.get(series.getKey());
+                for(int i = 0; i < labels.length; i += 2){
+                    out.append(i == 0 ? "" : ",").append(Json.quote(labels[i])).append(':').append(Json.quote(labels[i + 1]));
+                }
+                out.append("},");
+                series.getValue().json(out);
+                entries.add(out.append('}').toString());
+            }
+        }
+        return "[" + String.join(",", entries) + "]";
+    }
+}
@@ -0,0 +1,72 @@
+public interface OpenList {
+    /**
+     * Priority queue over integer ids (grid cell indices) ordered by a double key, with decrease-key,
+     * as used by the searches' open lists. Implementations count their pushes, pops and
+     * decrease-keys and their largest size since resetCounters.
+     */
+
+    int size();
+
+    boolean isEmpty();
+
+    boolean contains(int id);
+
+    double getKey(int id);
+
+    /**
+     * Smallest key currently in the queue
+     * @return the key of the top element
+     */
+    double peekKey();
+
+    /**
+     * Id with the smallest key, without removing it
+     * @return the id of the top element
+     */
+    int peek();
+
+    /**
+     * Adds an id to the queue
+     * @param id: id to add, must not already be in the queue
+     * @param key: its priority, not negative
+     */
+    void insert(int id, double key);
+
+    /**
+     * Lowers the key of an id already in the queue
+     * @param id: id to update
+     * @param key: new priority, must not be larger than the old one
+     */
+    void decreaseKey(int id, double key);
+
+    /**
+     * Inserts the id, or lowers its key when it is already queued
+     * @param id: id to add or update
+     * @param key: its priority
+     */
+    void insertOrDecrease(int id, double key);
+
+    /**
+     * Removes the id with the smallest key
+     * @return the removed id
+     */
+    int poll();
+
+    int getPushes();
+
+    int getPops();
+
+    int getDecreaseKeys();
+
+    int getPeakSize();
+
+    /**
+     * Starts counting pushes, pops, decrease-keys and the peak size from zero
+     */
+    void resetCounters();
+
+    /**
+     * Empties the queue
+     */
+    void clear();
+}
@@ -0,0 +1,52 @@
+import java.util.Map;
+
+public enum OpenListKind {
+    /**
+     * The open list implementations a search can run on, selected on the command line with
+     * --open-list=name. --quantum=q makes the radix heap order by fixed-point keys of q cost units.
+     */
+
+    HEAP,
+    RADIX;
+
+    /**
+     * Creates an open list of this kind
+     * @param capacity: number of ids
+     * @param quantum: key resolution of the radix heap, 0 for exact keys (ignored by the binary heap)
+     * @return an empty open list
+     */
+    public OpenList create(int capacity, double quantum){
+        if(this == RADIX){
+            return new RadixHeap(capacity, quantum);
+        }
+        return new IndexedMinHeap(capacity);
+    }
+
+    /**
+     * Creates the workspaces of searches run with the given command line options
+     * @param size: number of cells of the grid
+     * @param options: command line options, --open-list and --quantum
+     * @return a workspace whose open list is the one selected
+     * @throws IllegalArgumentException for an unknown open list or a bad quantum
+     */
+    public static SearchWorkspace workspace(int size, Map<String, String> options){
+        OpenListKind kind = fromName(options.getOrDefault("open-list", "heap"));
+        double quantum = Double.parseDouble(options.getOrDefault("quantum", "0"));
+        return new SearchWorkspace(size, kind.create(size, quantum));
+    }
+
+    /**
+     * Looks up an open list by its command line name
+     * @param name: heap or radix
+     * @return the kind
+     * @throws IllegalArgumentException for an unknown name
+     */
+    public static OpenListKind fromName(String name){
+        for(OpenListKind kind: values()){
+            if(kind.name().equalsIgnoreCase(name)){
+                return kind;
+            }
+        }
+        throw new IllegalArgumentException("Unknown open list: " + name);
+    }
+}
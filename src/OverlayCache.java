@@ -0,0 +1,193 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+public class OverlayCache {
+    /**
+     * Cache for season overlays. An overlay only depends on the map, so it's keyed by a hash of the
+     * grid's terrain and elevations (not the slope penalties), the season and Season.OVERLAY_VERSION,
+     * which is also written in each file's header along with a CRC-32 of the overlay. Overlays are kept in memory (least recently used
+     * evicted first once the memory limit is reached) and written to a directory so later runs on the
+     * same map can skip the season pass too; the directory is trimmed the same way once it grows past
+     * its limit.
+     */
+
+    private static final int FILE_MAGIC = 0x4C564F53; //"SOVL"
+
+    private static final int HEADER_BYTES = 16; //magic, overlay version, cell count, CRC-32 of the bits
+
+    private static final String SUFFIX = ".overlay";
+
+    private static OverlayCache shared;
+
+    private final Path directory;
+
+    private final long maxMemoryBytes;
+
+    private final long maxDiskBytes;
+
+    private final LinkedHashMap<String, BitSet> memory = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long memoryBytes;
+
+    /**
+     * @param directory: where overlays are persisted, null to only cache in memory
+     * @param maxMemoryBytes: limit on the overlays held in memory
+     * @param maxDiskBytes: limit on the size of the directory
+     */
+    public OverlayCache(Path directory, long maxMemoryBytes, long maxDiskBytes){
+        this.directory = directory;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    /**
+     * The cache used by the command line tools. Its directory can be set with -Doverlay.cache.dir
+     * and defaults to a folder in the system temp directory.
+     * @return the process-wide cache
+     */
+    public static synchronized OverlayCache shared(){
+        if(shared == null){
+            String dir = System.getProperty("overlay.cache.dir",
+                    Paths.get(System.getProperty("java.io.tmpdir"), "orienteering-overlays").toString());
+            shared = new OverlayCache(Paths.get(dir), 64L << 20, 256L << 20);
+        }
+        return shared;
+    }
+
+    /**
+     * Gets the overlay of a season, computing it only when neither memory nor disk has it
+     * @param grid: the summer terrain grid
+     * @param season: the season
+     * @return the cells the season relabels (a fresh copy the caller may modify)
+     */
+    public BitSet getOverlay(TerrainGrid grid, Season season){
+        String key = grid.mapHash() + "-" + season.name().toLowerCase() + "-v" + Season.OVERLAY_VERSION;
+        synchronized (this) {
+            BitSet overlay = memory.get(key);
+            if(overlay != null){
+                return (BitSet) overlay.clone();
+            }
+        }
+        BitSet overlay = readFromDisk(key, grid.size());
+        if(overlay == null){
+            overlay = season.computeOverlay(grid);
+            writeToDisk(key, overlay, grid.size());
+        }
+        synchronized (this) {
+            BitSet previous = memory.put(key, overlay);
+            memoryBytes += overlay.size() / 8 - (previous == null ? 0 : previous.size() / 8);
+            Iterator<BitSet> eldest = memory.values().iterator();
+            while(memoryBytes > maxMemoryBytes && memory.size() > 1){
+                memoryBytes -= eldest.next().size() / 8;
+                eldest.remove();
+            }
+        }
+        return (BitSet) overlay.clone();
+    }
+
+    private static long bytes(int cells){
+        return ((cells + 63L) / 64) * 8;
+    }
+
+    private BitSet readFromDisk(String key, int cells){
+        if(directory == null){
+            return null;
+        }
+        Path file = directory.resolve(key + SUFFIX);
+        try {
+            if(!Files.isRegularFile(file)){
+                return null;
+            }
+            byte[] bytes = Files.readAllBytes(file);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            if(buffer.remaining() != HEADER_BYTES + bytes(cells) || buffer.getInt() != FILE_MAGIC
+                    || buffer.getInt() != Season.OVERLAY_VERSION || buffer.getInt() != cells
+                    || buffer.getInt() != crc(bytes)){
+                Files.deleteIfExists(file);
+                return null;
+            }
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return BitSet.valueOf(buffer.asLongBuffer());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, BitSet overlay, int cells){
+        if(directory == null){
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            ByteBuffer buffer = ByteBuffer.allocate((int) (HEADER_BYTES + bytes(cells))).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(FILE_MAGIC).putInt(Season.OVERLAY_VERSION).putInt(cells).putInt(0);
+            for(long word: overlay.toLongArray()){
+                buffer.putLong(word);
+            }
+            buffer.putInt(12, crc(buffer.array()));
+            Path file = directory.resolve(key + SUFFIX);
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            Files.write(temp, buffer.array());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            trimDisk();
+        } catch (IOException e) {
+            //the disk cache is only an optimisation, the overlay is still returned
+            System.out.println("Couldn't persist overlay " + key + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * CRC-32 of the overlay bits of a file, everything after the header
+     */
+    private static int crc(byte[] file){
+        CRC32 crc = new CRC32();
+        crc.update(file, HEADER_BYTES, file.length - HEADER_BYTES);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Deletes the least recently used overlay files until the directory fits its limit
+     */
+    private void trimDisk() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for(Path file: stream){
+                files.add(file);
+            }
+        }
+        long total = 0;
+        for(Path file: files){
+            total += Files.size(file);
+        }
+        if(total <= maxDiskBytes){
+            return;
+        }
+        files.sort((a, b) -> {
+            try {
+                return Files.getLastModifiedTime(a).compareTo(Files.getLastModifiedTime(b));
+            } catch (IOException e) {
+                return 0;
+            }
+        });
+        for(Path file: files){
+            if(total <= maxDiskBytes){
+                break;
+            }
+            total -= Files.size(file);
+            Files.deleteIfExists(file);
+        }
+    }
+}
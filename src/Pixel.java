@@ -1,6 +1,6 @@
-public class Pixel implements Comparable<Pixel>{
+public class Pixel {
     /**
-     * Pixel representation.
+     * Pixel representation. Only describes a point on the map; search state lives in a SearchWorkspace.
      */
 
     public enum TerrainType{
@@ -16,34 +16,23 @@ public class Pixel implements Comparable<Pixel>{
         LEAFY_FOOTPATH,
         ICE,
         MUDDY,
-        OUT_OF_BOUNDS
+        OUT_OF_BOUNDS,
+        CLOSED //closed off during an event, no step may enter it
     }
 
     private TerrainType type;
 
-    private Pixel parent;
-
-    private double h;
-
-    private double g;
-
-    private double f;
-
     private int x;
 
     private int y;
 
     private double z;
 
-    public Pixel(int x, int y, double z, TerrainType type, Pixel parent, double h, double g, double f){
+    public Pixel(int x, int y, double z, TerrainType type){
         this.x = x;
         this.y = y;
         this.z = z;
         this.type = type;
-        this.parent = parent;
-        this.h = h;
-        this.g = g;
-        this.f = f;
     }
 
     public int getX() {
@@ -78,45 +67,4 @@ public class Pixel implements Comparable<Pixel>{
         this.type = type;
     }
 
-    public Pixel getParent() {
-        return parent;
-    }
-
-    public void setParent(Pixel parent) {
-        this.parent = parent;
-    }
-
-    public double getF() {
-        return f;
-    }
-
-    public void setF(double f) {
-        this.f = f;
-    }
-
-    public double getG() {
-        return g;
-    }
-
-    public void setG(double g) {
-        this.g = g;
-    }
-
-    public double getH() {
-        return h;
-    }
-
-    public void setH(double h) {
-        this.h = h;
-    }
-
-    @Override
-    public int compareTo(Pixel p) {
-        return (int)this.f - (int)p.f;
-    }
-
-
-
-
-
 }
@@ -0,0 +1,215 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class PyramidSearch implements LegSearch {
+    /**
+     * Coarse-to-fine search over a pyramid of the grid. Every level shrinks the one below it by
+     * FACTOR in each direction (1/4, 1/16, ... of the width), and a coarse cell takes the fastest
+     * terrain of the cells it covers, so a coarse step never looks dearer than the cheapest way
+     * across that ground. Elevation is left out of the coarse levels, as slopes only add cost.
+     *
+     * A query runs A* on the coarsest level over the whole map, then at each finer level only inside
+     * the cells under the coarser route, widened by a margin, and last of all runs lab1.aStar at full
+     * resolution inside the corridor the finest coarse route leaves. The route is a real route of the
+     * grid with its true cost, but it can cost more than the cheapest one when the cheapest one
+     * leaves the corridor. If the corridor has no route at all, the leg is searched without one.
+     */
+
+    public static final int FACTOR = 4;
+
+    public static final int DEFAULT_LEVELS = 2;
+
+    public static final int DEFAULT_MARGIN = 8;
+
+    private static final Pixel.TerrainType[] TYPES = Pixel.TerrainType.values();
+
+    private final TerrainGrid grid;
+
+    private final Heuristic heuristic;
+
+    private final int margin;
+
+    private final Level[] levels; //levels[0] is the first coarse level, 1/FACTOR of the grid
+
+    private final ThreadLocal<SearchWorkspace[]> workspaces;
+
+    private static class Level {
+        /**
+         * One coarse level: the fastest terrain under every cell.
+         */
+
+        final int cols;
+
+        final int rows;
+
+        final int scale; //grid pixels per cell, in each direction
+
+        final byte[] fastest;
+
+        Level(int cols, int rows, int scale, byte[] fastest){
+            this.cols = cols;
+            this.rows = rows;
+            this.scale = scale;
+            this.fastest = fastest;
+        }
+
+        int size(){
+            return cols * rows;
+        }
+    }
+
+    /**
+     * Builds the pyramid of a grid
+     * @param grid: the terrain grid
+     * @param heuristic: H(n) of the full resolution search
+     * @param levelCount: number of coarse levels
+     * @param margin: cells of a finer level added around the coarser route on every side
+     */
+    public PyramidSearch(TerrainGrid grid, Heuristic heuristic, int levelCount, int margin){
+        if(levelCount < 1){
+            throw new IllegalArgumentException("A pyramid needs at least one coarse level, got " + levelCount);
+        }
+        if(margin < 0){
+            throw new IllegalArgumentException("The corridor margin can't be negative, got " + margin);
+        }
+        this.grid = grid;
+        this.heuristic = heuristic;
+        this.margin = margin;
+        this.levels = new Level[levelCount];
+        int cols = grid.getCols();
+        int rows = grid.getRows();
+        byte[] below = new byte[grid.size()];
+        for(int cell = 0; cell < below.length; cell++){
+            below[cell] = grid.getTerrain(cell);
+        }
+        for(int l = 0; l < levelCount; l++){
+            int coarseCols = (cols + FACTOR - 1) / FACTOR;
+            int coarseRows = (rows + FACTOR - 1) / FACTOR;
+            byte[] fastest = new byte[coarseCols * coarseRows];
+            double[] speeds = new double[fastest.length];
+            Arrays.fill(speeds, Double.POSITIVE_INFINITY);
+            for(int y = 0; y < rows; y++){
+                for(int x = 0; x < cols; x++){
+                    byte terrain = below[y * cols + x];
+                    int cell = (y / FACTOR) * coarseCols + x / FACTOR;
+                    double speed = lab1.getSpeedModifier(TYPES[terrain]);
+                    if(speed < speeds[cell]){
+                        speeds[cell] = speed;
+                        fastest[cell] = terrain;
+                    }
+                }
+            }
+            levels[l] = new Level(coarseCols, coarseRows, l == 0 ? FACTOR : levels[l - 1].scale * FACTOR, fastest);
+            below = fastest;
+            cols = coarseCols;
+            rows = coarseRows;
+        }
+        this.workspaces = ThreadLocal.withInitial(() -> {
+            SearchWorkspace[] perLevel = new SearchWorkspace[levels.length + 1];
+            perLevel[0] = new SearchWorkspace(grid.size());
+            for(int l = 0; l < levels.length; l++){
+                perLevel[l + 1] = new SearchWorkspace(levels[l].size());
+            }
+            return perLevel;
+        });
+    }
+
+    /**
+     * Finds a route from the coarsest level down
+     * @param start: index of the start cell
+     * @param goal: index of the destination cell
+     * @return the route, with the expanded nodes and open list counts of every level added up
+     */
+    @Override
+    public Route search(int start, int goal) {
+        long startTime = System.nanoTime();
+        SearchWorkspace[] perLevel = workspaces.get();
+        int expanded = 0;
+        SearchStats stats = SearchStats.NONE;
+        BitSet corridor = null;
+        for(int l = levels.length - 1; l >= 0; l--){
+            Level level = levels[l];
+            Route coarse = coarseSearch(level, perLevel[l + 1], coarseCell(level, start), coarseCell(level, goal), corridor);
+            expanded += coarse.getExpanded();
+            stats = stats.plus(coarse.getStats(), 0);
+            if(!coarse.isFound()){
+                corridor = null; //no coarse route inside the corridor: let the finer levels search freely
+                continue;
+            }
+            corridor = project(level, l == 0 ? null : levels[l - 1], coarse.getCells());
+        }
+        Route route = lab1.aStar(grid, start, goal, perLevel[0], heuristic, corridor);
+        if(!route.isFound() && corridor != null){
+            route = lab1.aStar(grid, start, goal, perLevel[0], heuristic);
+        }
+        return new Route(route.getCells(), route.getCost(), expanded + route.getExpanded(),
+                stats.plus(route.getStats(), System.nanoTime() - startTime));
+    }
+
+    private int coarseCell(Level level, int cell){
+        return (grid.getY(cell) / level.scale) * level.cols + grid.getX(cell) / level.scale;
+    }
+
+    /**
+     * Marks the cells of the next finer level (the grid itself when finer is null) under a coarse
+     * route, widened by the margin
+     */
+    private BitSet project(Level level, Level finer, int[] path){
+        int cols = finer == null ? grid.getCols() : finer.cols;
+        int rows = finer == null ? grid.getRows() : finer.rows;
+        BitSet corridor = new BitSet(cols * rows);
+        for(int cell: path){
+            int left = Math.max(0, (cell % level.cols) * FACTOR - margin);
+            int top = Math.max(0, (cell / level.cols) * FACTOR - margin);
+            int right = Math.min(cols, (cell % level.cols + 1) * FACTOR + margin);
+            int bottom = Math.min(rows, (cell / level.cols + 1) * FACTOR + margin);
+            for(int y = top; y < bottom; y++){
+                corridor.set(y * cols + left, y * cols + right);
+            }
+        }
+        return corridor;
+    }
+
+    /**
+     * A* over one coarse level
+     * @return the coarse route, empty if there is none inside the corridor
+     */
+    private Route coarseSearch(Level level, SearchWorkspace workspace, int start, int goal, BitSet corridor){
+        workspace.reset();
+        OpenList openList = workspace.getOpenList();
+        workspace.setG(start, 0.0, -1);
+        openList.insert(start, estimate(level, start, goal));
+        int expanded = 0;
+        while(!openList.isEmpty()){
+            int node = openList.poll();
+            expanded++;
+            if(node == goal){
+                return new Route(lab1.constructPath(workspace.getParents(), goal), workspace.getG(goal), expanded, SearchStats.of(openList, 0));
+            }
+            double nodeG = workspace.getG(node);
+            int x = node % level.cols;
+            int y = node / level.cols;
+            for(int d = 0; d < EdgeCosts.DIRECTIONS; d++){
+                int nextX = x + EdgeCosts.dx(d);
+                int nextY = y + EdgeCosts.dy(d);
+                if(nextX < 0 || nextY < 0 || nextX >= level.cols || nextY >= level.rows){
+                    continue;
+                }
+                int next = nextY * level.cols + nextX;
+                if(corridor != null && !corridor.get(next)){
+                    continue;
+                }
+                double tempG = nodeG + EdgeCosts.stepCost(d, level.fastest[next], 0.0, 0.0, 0.0) * level.scale;
+                if(tempG < workspace.getG(next)){
+                    workspace.setG(next, tempG, node);
+                    openList.insertOrDecrease(next, tempG + estimate(level, next, goal));
+                }
+            }
+        }
+        return Route.none(expanded, SearchStats.of(openList, 0));
+    }
+
+    private static double estimate(Level level, int from, int to){
+        return EdgeCosts.lowerBound((from % level.cols - to % level.cols) * level.scale, (from / level.cols - to / level.cols) * level.scale);
+    }
+}
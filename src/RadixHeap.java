@@ -0,0 +1,273 @@
+import java.util.Arrays;
+
+public class RadixHeap implements OpenList {
+    /**
+     * Monotone radix heap over integer ids ordered by a non-negative double key. Keys are turned into
+     * longs that order the same way: the double's own bits, or with a quantum a fixed-point count of
+     * quanta. Bucket 0 holds the keys equal to the last key polled and bucket i the keys whose highest
+     * bit differing from it is bit i - 1. Polling empties the lowest non-empty bucket into lower ones,
+     * so each id moves down at most 64 buckets over its whole stay, and an insert or decrease-key is a
+     * constant-time append instead of a sift.
+     *
+     * This works because A* keys never drop below the last key polled when the heuristic is consistent
+     * (and Dijkstra's never do). Should one do, every queued id is refiled against the smaller key, which
+     * costs one pass over the queue but keeps the order exact.
+     *
+     * Ids with the same key come out last in, first out. With a quantum, keys within the same quantum
+     * count as equal, so a route can cost up to a quantum more than the cheapest one per leg.
+     */
+
+    private static final int BUCKETS = 65;
+
+    private final double quantum;
+
+    private final double[] keys;
+
+    private final long[] codes;
+
+    private final int[] bucketOf; //bucket of each id, -1 when the id is not queued
+
+    private final int[] slot; //position of each id in its bucket
+
+    private final int[][] buckets = new int[BUCKETS][];
+
+    private final int[] bucketSize = new int[BUCKETS];
+
+    private int[] refiled = new int[16]; //kept between refiles so they don't allocate
+
+    private long last;
+
+    private int size;
+
+    private int pushes;
+
+    private int pops;
+
+    private int decreaseKeys;
+
+    private int peakSize;
+
+    /**
+     * @param capacity: number of ids
+     * @param quantum: key resolution of the fixed-point keys, 0 to order by the exact keys
+     */
+    public RadixHeap(int capacity, double quantum){
+        if(quantum < 0.0 || Double.isNaN(quantum)){
+            throw new IllegalArgumentException("Quantum must be 0 or positive, got " + quantum);
+        }
+        this.quantum = quantum;
+        this.keys = new double[capacity];
+        this.codes = new long[capacity];
+        this.bucketOf = new int[capacity];
+        this.slot = new int[capacity];
+        Arrays.fill(bucketOf, -1);
+        for(int i = 0; i < BUCKETS; i++){
+            buckets[i] = new int[16];
+        }
+    }
+
+    public RadixHeap(int capacity){
+        this(capacity, 0.0);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(int id) {
+        return bucketOf[id] != -1;
+    }
+
+    @Override
+    public double getKey(int id) {
+        return keys[id];
+    }
+
+    @Override
+    public double peekKey() {
+        return keys[peek()];
+    }
+
+    @Override
+    public int peek() {
+        settle();
+        return buckets[0][bucketSize[0] - 1];
+    }
+
+    @Override
+    public void insert(int id, double key) {
+        keys[id] = key;
+        file(id, code(key));
+        size++;
+        pushes++;
+        if(size > peakSize){
+            peakSize = size;
+        }
+    }
+
+    @Override
+    public void decreaseKey(int id, double key) {
+        keys[id] = key;
+        decreaseKeys++;
+        long code = code(key);
+        if(code != codes[id]){
+            unfile(id);
+            file(id, code);
+        }
+    }
+
+    @Override
+    public void insertOrDecrease(int id, double key) {
+        if(bucketOf[id] == -1){
+            insert(id, key);
+        }
+        else if(key < keys[id]){
+            decreaseKey(id, key);
+        }
+    }
+
+    @Override
+    public int poll() {
+        settle();
+        int top = buckets[0][--bucketSize[0]];
+        bucketOf[top] = -1;
+        size--;
+        pops++;
+        return top;
+    }
+
+    @Override
+    public int getPushes() {
+        return pushes;
+    }
+
+    @Override
+    public int getPops() {
+        return pops;
+    }
+
+    @Override
+    public int getDecreaseKeys() {
+        return decreaseKeys;
+    }
+
+    @Override
+    public int getPeakSize() {
+        return peakSize;
+    }
+
+    @Override
+    public void resetCounters() {
+        pushes = 0;
+        pops = 0;
+        decreaseKeys = 0;
+        peakSize = size;
+    }
+
+    /**
+     * Empties the heap. Only the ids that are queued get touched.
+     */
+    @Override
+    public void clear() {
+        for(int b = 0; b < BUCKETS; b++){
+            for(int i = 0; i < bucketSize[b]; i++){
+                bucketOf[buckets[b][i]] = -1;
+            }
+            bucketSize[b] = 0;
+        }
+        size = 0;
+        last = 0;
+    }
+
+    /**
+     * Maps a key to a long that sorts the same way
+     */
+    private long code(double key){
+        if(quantum > 0.0){
+            return (long) Math.floor(key / quantum);
+        }
+        //adding 0.0 turns -0.0, whose sign bit would make it the largest code, into 0.0
+        return Double.doubleToRawLongBits(key + 0.0);
+    }
+
+    private int bucketIndex(long code){
+        return code == last ? 0 : 64 - Long.numberOfLeadingZeros(code ^ last);
+    }
+
+    private void file(int id, long code){
+        if(code < last){
+            refile(code);
+        }
+        codes[id] = code;
+        int b = bucketIndex(code);
+        if(bucketSize[b] == buckets[b].length){
+            buckets[b] = Arrays.copyOf(buckets[b], bucketSize[b] * 2);
+        }
+        slot[id] = bucketSize[b];
+        buckets[b][bucketSize[b]++] = id;
+        bucketOf[id] = b;
+    }
+
+    private void unfile(int id){
+        int b = bucketOf[id];
+        int moved = buckets[b][--bucketSize[b]];
+        buckets[b][slot[id]] = moved;
+        slot[moved] = slot[id];
+        bucketOf[id] = -1;
+    }
+
+    /**
+     * Makes bucket 0 hold the smallest key, by emptying the lowest non-empty bucket into lower ones
+     * around its smallest key
+     */
+    private void settle() {
+        if(bucketSize[0] > 0){
+            return;
+        }
+        int b = 1;
+        while(bucketSize[b] == 0){
+            b++;
+        }
+        int[] bucket = buckets[b];
+        int count = bucketSize[b];
+        long min = codes[bucket[0]];
+        for(int i = 1; i < count; i++){
+            min = Math.min(min, codes[bucket[i]]);
+        }
+        last = min;
+        bucketSize[b] = 0;
+        //every key of bucket b now differs from last below bit b - 1, so they all land in lower buckets
+        for(int i = 0; i < count; i++){
+            int id = bucket[i];
+            file(id, codes[id]);
+        }
+    }
+
+    /**
+     * Lowers the last key polled for a key below it and files every queued id again
+     */
+    private void refile(long code){
+        if(refiled.length < size){
+            refiled = new int[Math.max(size, refiled.length * 2)];
+        }
+        int[] queued = refiled;
+        int count = 0;
+        for(int b = 0; b < BUCKETS; b++){
+            for(int i = 0; i < bucketSize[b]; i++){
+                queued[count++] = buckets[b][i];
+            }
+            bucketSize[b] = 0;
+        }
+        last = code;
+        for(int i = 0; i < count; i++){
+            file(queued[i], codes[queued[i]]);
+        }
+    }
+}
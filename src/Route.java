@@ -0,0 +1,58 @@
+public class Route {
+    /**
+     * Result of one leg search: the cells of the route from start to goal, its G(n) cost,
+     * how many nodes the search expanded to find it and the search's other counters.
+     */
+
+    private final int[] cells;
+
+    private final double cost;
+
+    private final int expanded;
+
+    private final SearchStats stats;
+
+    public Route(int[] cells, double cost, int expanded, SearchStats stats){
+        this.cells = cells;
+        this.cost = cost;
+        this.expanded = expanded;
+        this.stats = stats;
+    }
+
+    public Route(int[] cells, double cost, int expanded){
+        this(cells, cost, expanded, SearchStats.NONE);
+    }
+
+    /**
+     * @param expanded: nodes expanded before the search gave up
+     * @param stats: counters of the search
+     * @return a route for a goal that can't be reached
+     */
+    public static Route none(int expanded, SearchStats stats){
+        return new Route(new int[0], Double.POSITIVE_INFINITY, expanded, stats);
+    }
+
+    public static Route none(int expanded){
+        return none(expanded, SearchStats.NONE);
+    }
+
+    public int[] getCells() {
+        return cells;
+    }
+
+    public double getCost() {
+        return cost;
+    }
+
+    public int getExpanded() {
+        return expanded;
+    }
+
+    public SearchStats getStats() {
+        return stats;
+    }
+
+    public boolean isFound() {
+        return cells.length > 0;
+    }
+}
@@ -0,0 +1,339 @@
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+public class RouteCache {
+    /**
+     * Cache of leg routes shared by every course solved in a run. Routes are keyed by the map (the
+     * content hash of its summer grid, which covers the slope penalties too), the version of the
+     * season's overlay (the content hash of the season's grid, "summer" for summer), and the start and
+     * goal of the leg, so a route is only found again for exactly the terrain it was searched on.
+     *
+     * A leg that isn't cached for a season can still be answered by its summer route when the season
+     * can't have changed it: the route doesn't enter a cell the overlay relabels, and every relabeled
+     * cell that got faster is too far off for a route through it to beat the summer cost, going by
+     * EdgeCosts.lowerBound. Cells that got slower only make other routes dearer.
+     *
+     * With symmetric reuse on, a leg whose reverse is cached gets the reverse route walked the other way,
+     * recosted for that direction. A step costs what the cell it enters costs, so that route is a real
+     * route with its true cost but not always the cheapest one; it is off by default.
+     *
+     * The cache holds at most a fixed number of routes and evicts the least recently used one, or with
+     * LFU the least often used (least recently used among those), found by a scan of the cache.
+     */
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    public enum Policy {
+        LRU,
+        LFU;
+
+        /**
+         * @param name: lru or lfu
+         * @return the policy
+         * @throws IllegalArgumentException for an unknown name
+         */
+        public static Policy fromName(String name){
+            for(Policy policy: values()){
+                if(policy.name().equalsIgnoreCase(name)){
+                    return policy;
+                }
+            }
+            throw new IllegalArgumentException("Unknown route cache policy: " + name);
+        }
+    }
+
+    private final int capacity;
+
+    private final Policy policy;
+
+    private final boolean symmetric;
+
+    private final LinkedHashMap<Key, Entry> entries;
+
+    //cells of each season grid whose step costs went down, keyed by the season grid's content hash
+    private final Map<String, int[]> faster = new HashMap<>();
+
+    private long lookups;
+
+    private long hits;
+
+    private long symmetricHits;
+
+    private long seasonHits;
+
+    private long evictions;
+
+    private long savedNanos;
+
+    /**
+     * @param capacity: most routes kept
+     * @param policy: which route is evicted when the cache is full
+     * @param symmetric: whether a cached reverse leg answers a leg
+     */
+    public RouteCache(int capacity, Policy policy, boolean symmetric){
+        if(capacity < 1){
+            throw new IllegalArgumentException("The route cache needs room for at least one route, got " + capacity);
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+        this.symmetric = symmetric;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Creates the cache selected with --route-cache=n (routes kept, 0 for no cache),
+     * --route-cache-policy=lru|lfu and --route-cache-symmetric
+     * @param options: command line options
+     * @return the cache, null when it is turned off
+     */
+    public static RouteCache fromOptions(Map<String, String> options){
+        int capacity = Integer.parseInt(options.getOrDefault("route-cache", String.valueOf(DEFAULT_CAPACITY)));
+        if(capacity == 0){
+            return null;
+        }
+        return new RouteCache(capacity, Policy.fromName(options.getOrDefault("route-cache-policy", "lru")),
+                options.containsKey("route-cache-symmetric"));
+    }
+
+    private static class Key {
+        /**
+         * What a cached route was searched on.
+         */
+
+        final String map;
+
+        final String overlay;
+
+        final int start;
+
+        final int goal;
+
+        Key(String map, String overlay, int start, int goal){
+            this.map = map;
+            this.overlay = overlay;
+            this.start = start;
+            this.goal = goal;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)){
+                return false;
+            }
+            Key other = (Key) o;
+            return start == other.start && goal == other.goal && map.equals(other.map) && overlay.equals(other.overlay);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(map, overlay, start, goal);
+        }
+    }
+
+    private static class Entry {
+        /**
+         * A cached route and how often it was asked for.
+         */
+
+        final Route route;
+
+        long uses;
+
+        Entry(Route route){
+            this.route = route;
+        }
+    }
+
+    /**
+     * Finds the route of a leg, searching only when the cache can't answer it. Routes answered from
+     * the cache report no expanded nodes and no search stats.
+     * @param map: the map
+     * @param season: the season
+     * @param start: index of the start cell
+     * @param goal: index of the destination cell
+     * @param search: search over the season's grid, run on a miss
+     * @return the route
+     */
+    public Route route(SeasonalMap map, Season season, int start, int goal, LegSearch search){
+        TerrainGrid summer = map.getGrid(Season.SUMMER);
+        TerrainGrid grid = map.getGrid(season);
+        String mapVersion = summer.contentHash();
+        String overlayVersion = season.getType() == null ? "summer" : grid.contentHash();
+        Key key = new Key(mapVersion, overlayVersion, start, goal);
+
+        synchronized (this) {
+            lookups++;
+            Entry entry = entries.get(key);
+            if(entry != null){
+                entry.uses++;
+                hits++;
+                return served(entry.route, "exact");
+            }
+            if(season.getType() != null){
+                Entry base = entries.get(new Key(mapVersion, "summer", start, goal));
+                if(base != null && unaffected(base.route, summer, grid, start, goal)){
+                    base.uses++;
+                    seasonHits++;
+                    put(key, base.route);
+                    return served(base.route, "season");
+                }
+            }
+            if(symmetric){
+                Entry reverse = entries.get(new Key(mapVersion, overlayVersion, goal, start));
+                if(reverse != null && reverse.route.isFound()){
+                    reverse.uses++;
+                    symmetricHits++;
+                    Route reversed = reverse(reverse.route, grid);
+                    put(key, reversed);
+                    return served(reversed, "symmetric");
+                }
+            }
+        }
+        Route route = search.search(start, goal);
+        synchronized (this) {
+            put(key, route);
+        }
+        Metrics.shared().counter("orienteering_route_cache_misses_total", "Legs the route cache had to search").increment();
+        return route;
+    }
+
+    /**
+     * Counts a route answered from the cache and strips its search counts
+     */
+    private Route served(Route route, String kind){
+        savedNanos += route.getStats().getNanos();
+        Metrics.shared().counter("orienteering_route_cache_hits_total", "Legs answered by the route cache", "kind", kind).increment();
+        Metrics.shared().timer("orienteering_route_cache_saved_seconds", "Search time of the legs the route cache answered").record(route.getStats().getNanos());
+        return new Route(route.getCells(), route.getCost(), 0, SearchStats.NONE);
+    }
+
+    private void put(Key key, Route route){
+        if(entries.containsKey(key)){
+            return;
+        }
+        if(entries.size() == capacity){
+            evict();
+        }
+        Entry entry = new Entry(route);
+        entry.uses = 1;
+        entries.put(key, entry);
+    }
+
+    private void evict(){
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        Key victim = it.next().getKey();
+        if(policy == Policy.LFU){
+            //iteration runs from least to most recently used, so ties go to the least recently used
+            long fewest = Long.MAX_VALUE;
+            for(Map.Entry<Key, Entry> entry: entries.entrySet()){
+                if(entry.getValue().uses < fewest){
+                    fewest = entry.getValue().uses;
+                    victim = entry.getKey();
+                }
+            }
+        }
+        entries.remove(victim);
+        evictions++;
+        Metrics.shared().counter("orienteering_route_cache_evictions_total", "Routes evicted from the route cache").increment();
+    }
+
+    /**
+     * Whether a summer route is still the cheapest in a season: it must not enter a relabeled cell,
+     * and no route through a cell that got faster may be able to cost less
+     */
+    private boolean unaffected(Route route, TerrainGrid summer, TerrainGrid grid, int start, int goal){
+        if(!route.isFound()){
+            return false;
+        }
+        int[] cells = route.getCells();
+        for(int i = 1; i < cells.length; i++){
+            if(summer.getTerrain(cells[i]) != grid.getTerrain(cells[i])){
+                return false;
+            }
+        }
+        for(int cell: faster(summer, grid)){
+            double bound = EdgeCosts.lowerBound(grid.getX(cell) - grid.getX(start), grid.getY(cell) - grid.getY(start))
+                    + EdgeCosts.lowerBound(grid.getX(goal) - grid.getX(cell), grid.getY(goal) - grid.getY(cell));
+            if(bound < route.getCost()){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cells a season relabeled to a faster terrain
+     */
+    private int[] faster(TerrainGrid summer, TerrainGrid grid){
+        return faster.computeIfAbsent(grid.contentHash(), hash -> {
+            BitSet cells = new BitSet(grid.size());
+            for(int cell = 0; cell < grid.size(); cell++){
+                if(lab1.getSpeedModifier(grid.getType(cell)) < lab1.getSpeedModifier(summer.getType(cell))){
+                    cells.set(cell);
+                }
+            }
+            return cells.stream().toArray();
+        });
+    }
+
+    /**
+     * Walks a route the other way, costing every step in that direction
+     */
+    private static Route reverse(Route route, TerrainGrid grid){
+        int[] cells = route.getCells();
+        int[] reversed = new int[cells.length];
+        for(int i = 0; i < cells.length; i++){
+            reversed[i] = cells[cells.length - 1 - i];
+        }
+        EdgeCosts costs = grid.edgeCosts();
+        double cost = 0.0;
+        for(int i = 1; i < reversed.length; i++){
+            cost += costs.cost(reversed[i - 1], reversed[i]);
+        }
+        return new Route(reversed, cost, 0, route.getStats());
+    }
+
+    public synchronized long getLookups() {
+        return lookups;
+    }
+
+    /**
+     * @return legs answered from the cache, whichever way
+     */
+    public synchronized long getHits() {
+        return hits + seasonHits + symmetricHits;
+    }
+
+    public synchronized long getSeasonHits() {
+        return seasonHits;
+    }
+
+    public synchronized long getSymmetricHits() {
+        return symmetricHits;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return search time the legs answered from the cache took when they were searched
+     */
+    public synchronized long getSavedNanos() {
+        return savedNanos;
+    }
+
+    /**
+     * @return one line with the lookups, hit ratio, evictions and time saved
+     */
+    public synchronized String summary(){
+        long answered = hits + seasonHits + symmetricHits;
+        return String.format("Route cache (%s, %d routes): %d lookups, %d hits (%.1f%%: %d exact, %d unaffected by the season, %d reversed), %d evictions, %.1f ms of search saved",
+                policy.name().toLowerCase(), capacity, lookups, answered, lookups == 0 ? 0.0 : 100.0 * answered / lookups,
+                hits, seasonHits, symmetricHits, evictions, savedNanos / 1e6);
+    }
+}
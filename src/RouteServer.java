@@ -0,0 +1,378 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+public class RouteServer {
+    /**
+     * HTTP server that keeps maps loaded between queries, so a route costs one search instead of a JVM
+     * start, a PNG decode and an elevation parse. Each named map stays resident with the season grids
+     * it has been asked for. Endpoints (JSON in and out):
+     *
+     *     GET  /maps    names of the loaded maps
+     *     POST /leg     {"map": "terrain", "season": "winter", "from": [x, y], "to": [x, y]}
+     *     POST /course  {"map": "terrain", "season": "winter", "controls": [[x, y], ...]}
+     *     GET  /metrics search and request metrics, Prometheus text (JSON with ?format=json)
+     *
+     * Requests run on virtual threads when the JVM has them (Java 21+), otherwise on a cached thread
+     * pool. Every request borrows a search workspace from its map's pool and hands it back when done.
+     * At most maxInFlight requests are searched at once; any request beyond that is answered straight
+     * away with 503 and an error message rather than queueing behind the others. Legs go through a
+     * RouteCache when one is given, so repeated legs are answered without a search.
+     */
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+    public static final int MAX_BODY_BYTES = 1 << 20;
+
+    private final Map<String, SeasonalMap> maps;
+
+    private final Map<String, Queue<SearchWorkspace>> workspaces = new LinkedHashMap<>();
+
+    private final int maxInFlight;
+
+    private final Semaphore inFlight;
+
+    private final RouteCache routeCache;
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    /**
+     * @param maps: loaded maps by name
+     * @param maxInFlight: most requests searched at the same time
+     */
+    public RouteServer(Map<String, SeasonalMap> maps, int maxInFlight){
+        this(maps, maxInFlight, null);
+    }
+
+    /**
+     * @param maps: loaded maps by name
+     * @param maxInFlight: most requests searched at the same time
+     * @param routeCache: cache shared by all requests, null to search every leg
+     */
+    public RouteServer(Map<String, SeasonalMap> maps, int maxInFlight, RouteCache routeCache){
+        this.maps = new LinkedHashMap<>(maps);
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.routeCache = routeCache;
+        for(String name: maps.keySet()){
+            workspaces.put(name, new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * Starts listening
+     * @param port: port to listen on, 0 for any free port
+     * @return the port the server listens on
+     * @throws IOException if the port can't be bound
+     */
+    public int start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        executor = requestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/maps", exchange -> handle(exchange, "GET", body -> mapList()));
+        server.createContext("/leg", exchange -> handle(exchange, "POST", this::leg));
+        server.createContext("/course", exchange -> handle(exchange, "POST", this::course));
+        server.createContext("/metrics", this::metrics);
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server, letting requests that are being answered finish for up to a second
+     */
+    public void stop(){
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * Virtual threads need Java 21, so they are looked up by reflection and the server falls back to
+     * platform threads on older runtimes
+     */
+    private static ExecutorService requestExecutor(){
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * @return whether requests are handled on virtual threads
+     */
+    public static boolean hasVirtualThreads(){
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private interface Endpoint {
+        String answer(Map<String, Object> request);
+    }
+
+    private static class RequestException extends RuntimeException {
+        /**
+         * A request the server refuses, with the HTTP status to answer it with.
+         */
+
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        RequestException(int status, String message){
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Reads a request body of at most MAX_BODY_BYTES, refusing a larger one with 413 before or while
+     * reading it, so a client can't make the server buffer an unbounded body.
+     * @param exchange: the request
+     * @return the body as text
+     */
+    private static String readBody(HttpExchange exchange) throws IOException {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if(length != null){
+            long declared;
+            try {
+                declared = Long.parseLong(length.trim());
+            } catch (NumberFormatException e) {
+                throw new RequestException(400, "bad Content-Length: " + length);
+            }
+            if(declared > MAX_BODY_BYTES){
+                throw new RequestException(413, "request body is " + declared + " bytes, at most " + MAX_BODY_BYTES + " allowed");
+            }
+        }
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+            if(body.length > MAX_BODY_BYTES){
+                throw new RequestException(413, "request body is over " + MAX_BODY_BYTES + " bytes");
+            }
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    private void handle(HttpExchange exchange, String method, Endpoint endpoint) throws IOException {
+        String path = exchange.getHttpContext().getPath();
+        long start = System.nanoTime();
+        try (exchange) {
+            if(!exchange.getRequestMethod().equals(method)){
+                respond(exchange, 405, error("use " + method + " for " + path));
+                return;
+            }
+            if(!inFlight.tryAcquire()){
+                respond(exchange, 503, error("server busy: " + maxInFlight + " requests already in flight, retry later"));
+                return;
+            }
+            try {
+                Map<String, Object> request = new LinkedHashMap<>();
+                if(method.equals("POST")){
+                    Object parsed = Json.parse(readBody(exchange));
+                    if(!(parsed instanceof Map)){
+                        throw new RequestException(400, "request body must be a JSON object");
+                    }
+                    for(Map.Entry<?, ?> field: ((Map<?, ?>) parsed).entrySet()){
+                        request.put((String) field.getKey(), field.getValue());
+                    }
+                }
+                respond(exchange, 200, endpoint.answer(request));
+            } catch (RequestException e) {
+                respond(exchange, e.status, error(e.getMessage()));
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, error(e.getMessage()));
+            } catch (RuntimeException e) {
+                respond(exchange, 500, error("internal error: " + e));
+            } finally {
+                inFlight.release();
+            }
+        } finally {
+            Metrics metrics = Metrics.shared();
+            metrics.counter("orienteering_http_requests_total", "Requests answered by the route server",
+                    "path", path, "status", String.valueOf(exchange.getResponseCode())).increment();
+            metrics.timer("orienteering_http_request_seconds", "Time spent answering requests", "path", path).stop(start);
+        }
+    }
+
+    /**
+     * Answers GET /metrics outside the in-flight limit, so a busy server can still be scraped
+     */
+    private void metrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if(!exchange.getRequestMethod().equals("GET")){
+                respond(exchange, 405, error("use GET for /metrics"));
+                return;
+            }
+            String query = exchange.getRequestURI().getQuery();
+            if(query != null && query.equals("format=json")){
+                respond(exchange, 200, Metrics.shared().toJson());
+                return;
+            }
+            byte[] bytes = Metrics.shared().toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static String error(String message){
+        return "{\"error\":" + Json.quote(message) + "}";
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private String mapList(){
+        StringBuilder json = new StringBuilder("{\"maps\":[");
+        int i = 0;
+        for(Map.Entry<String, SeasonalMap> map: maps.entrySet()){
+            TerrainGrid grid = map.getValue().getGrid(Season.SUMMER);
+            json.append(i++ == 0 ? "" : ",").append("{\"name\":").append(Json.quote(map.getKey()))
+                    .append(",\"width\":").append(grid.getCols()).append(",\"height\":").append(grid.getRows()).append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private String leg(Map<String, Object> request){
+        List<Object> controls = new ArrayList<>();
+        controls.add(required(request, "from"));
+        controls.add(required(request, "to"));
+        return route(request, controls, false);
+    }
+
+    private String course(Map<String, Object> request){
+        Object controls = required(request, "controls");
+        if(!(controls instanceof List) || ((List<?>) controls).size() < 2){
+            throw new IllegalArgumentException("controls must be a list of at least two [x, y] points");
+        }
+        return route(request, new ArrayList<>((List<?>) controls), true);
+    }
+
+    private static Object required(Map<String, Object> request, String field){
+        Object value = request.get(field);
+        if(value == null){
+            throw new IllegalArgumentException("missing field \"" + field + "\"");
+        }
+        return value;
+    }
+
+    /**
+     * Solves the legs between consecutive controls with a workspace borrowed for this request
+     */
+    private String route(Map<String, Object> request, List<Object> points, boolean course){
+        String mapName = String.valueOf(required(request, "map"));
+        SeasonalMap map = maps.get(mapName);
+        if(map == null){
+            throw new RequestException(404, "unknown map \"" + mapName + "\"");
+        }
+        Season season = season(request.getOrDefault("season", "summer"));
+        TerrainGrid grid = map.getGrid(season);
+        int[] controls = new int[points.size()];
+        for(int i = 0; i < controls.length; i++){
+            controls[i] = cell(grid, points.get(i));
+        }
+
+        Queue<SearchWorkspace> pool = workspaces.get(mapName);
+        SearchWorkspace pooled = pool.poll();
+        SearchWorkspace workspace = pooled == null ? new SearchWorkspace(grid.size()) : pooled;
+        //only legs that are actually searched count as searches; the route cache counts its own hits
+        LegSearch search = (start, goal) -> {
+            Route route = lab1.aStar(grid, start, goal, workspace);
+            Metrics.shared().recordLeg(route);
+            return route;
+        };
+        List<Route> legs = new ArrayList<>();
+        try {
+            for(int i = 0; i + 1 < controls.length; i++){
+                Route leg = routeCache == null ? search.search(controls[i], controls[i + 1])
+                        : routeCache.route(map, season, controls[i], controls[i + 1], search);
+                legs.add(leg);
+            }
+        } finally {
+            pool.offer(workspace);
+        }
+
+        StringBuilder json = new StringBuilder("{\"map\":").append(Json.quote(mapName))
+                .append(",\"season\":").append(Json.quote(season.name().toLowerCase()));
+        if(!course){
+            appendLeg(json.append(','), grid, legs.get(0));
+            return json.append('}').toString();
+        }
+        double total = 0.0;
+        boolean found = true;
+        for(Route leg: legs){
+            total += leg.getCost();
+            found &= leg.isFound();
+        }
+        json.append(",\"found\":").append(found).append(",\"cost\":").append(found ? Double.toString(total) : "null").append(",\"legs\":[");
+        for(int i = 0; i < legs.size(); i++){
+            json.append(i == 0 ? "{" : ",{");
+            appendLeg(json, grid, legs.get(i));
+            json.append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private static void appendLeg(StringBuilder json, TerrainGrid grid, Route leg){
+        json.append("\"found\":").append(leg.isFound())
+                .append(",\"cost\":").append(leg.isFound() ? Double.toString(leg.getCost()) : "null")
+                .append(",\"expanded\":").append(leg.getExpanded())
+                .append(",\"pixels\":[");
+        int[] cells = leg.getCells();
+        for(int i = 0; i < cells.length; i++){
+            json.append(i == 0 ? "[" : ",[").append(grid.getX(cells[i])).append(',').append(grid.getY(cells[i])).append(']');
+        }
+        json.append(']');
+    }
+
+    private static Season season(Object name){
+        for(Season season: Season.values()){
+            if(season.name().equalsIgnoreCase(String.valueOf(name))){
+                return season;
+            }
+        }
+        throw new IllegalArgumentException("unknown season \"" + name + "\"");
+    }
+
+    private static int cell(TerrainGrid grid, Object point){
+        if(point instanceof List && ((List<?>) point).size() == 2
+                && ((List<?>) point).get(0) instanceof Double && ((List<?>) point).get(1) instanceof Double){
+            double x = (Double) ((List<?>) point).get(0);
+            double y = (Double) ((List<?>) point).get(1);
+            if(x == Math.rint(x) && y == Math.rint(y) && grid.inBounds((int) x, (int) y)){
+                return grid.index((int) x, (int) y);
+            }
+            throw new IllegalArgumentException("point " + point + " is outside the " + grid.getCols() + "x" + grid.getRows() + " map");
+        }
+        throw new IllegalArgumentException("points must be [x, y] pixel coordinates, got " + point);
+    }
+}
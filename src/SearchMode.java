@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Map;
+
+public enum SearchMode {
+    /**
+     * The search algorithms a course can be solved with, selected on the command line with --search=name.
+     */
+
+    ASTAR,
+    BIDIRECTIONAL,
+    HIERARCHICAL,
+    CONTRACTION,
+    PYRAMID,
+    ANYTIME;
+
+    /**
+     * Creates a search of this kind over a map
+     * @param grid: the terrain grid, already including the season's overlay
+     * @param heuristic: H(n) the search estimates remaining cost with; the anytime search uses lab1.lowerBound instead
+     * @param options: command line options, --cluster-size sets the cluster width of the hierarchical search,
+     *               --hierarchy names a precomputed contraction hierarchy file and --open-list / --quantum
+     *               pick the open list of A*, --pyramid-levels and --pyramid-margin shape the coarse-to-fine search,
+     *               --budget (milliseconds per leg) and --epsilons set the anytime search's deadline and schedule and
+     *               --improvements prints every route it improves on
+     * @return a search that can be shared between threads
+     * @throws IOException if the contraction hierarchy file can't be read or belongs to another map or season
+     */
+    public LegSearch create(TerrainGrid grid, Heuristic heuristic, Map<String, String> options) throws IOException {
+        switch (this) {
+            case BIDIRECTIONAL:
+                return new BidirectionalSearch(grid, heuristic);
+            case HIERARCHICAL: {
+                int clusterSize = Integer.parseInt(options.getOrDefault("cluster-size", String.valueOf(HierarchicalSearch.DEFAULT_CLUSTER_SIZE)));
+                return HierarchicalSearch.build(grid, heuristic, clusterSize);
+            }
+            case PYRAMID: {
+                int levels = Integer.parseInt(options.getOrDefault("pyramid-levels", String.valueOf(PyramidSearch.DEFAULT_LEVELS)));
+                int margin = Integer.parseInt(options.getOrDefault("pyramid-margin", String.valueOf(PyramidSearch.DEFAULT_MARGIN)));
+                return new PyramidSearch(grid, heuristic, levels, margin);
+            }
+            case ANYTIME: {
+                double[] epsilons = options.containsKey("epsilons") ? AnytimeSearch.parseSchedule(options.get("epsilons")) : AnytimeSearch.DEFAULT_EPSILONS;
+                double budget = Double.parseDouble(options.getOrDefault("budget", String.valueOf(AnytimeSearch.DEFAULT_BUDGET_MILLIS)));
+                AnytimeSearch.Listener listener = null;
+                if(options.containsKey("improvements")){
+                    listener = (route, epsilon, bound) -> System.out.println(String.format(
+                            "Route of cost %.2f with epsilon %s, at most %.3f times the cheapest, after %d nodes expanded and %.2f ms",
+                            route.getCost(), epsilon, bound, route.getExpanded(), route.getStats().getNanos() / 1e6));
+                }
+                return new AnytimeSearch(grid, epsilons, (long) (budget * 1e6), listener);
+            }
+            case CONTRACTION: {
+                String fileName = options.get("hierarchy");
+                //without a precomputed file the whole map is contracted first, which takes minutes
+                return fileName == null ? ContractionHierarchy.build(grid) : ContractionHierarchy.load(fileName, grid);
+            }
+            default: {
+                //checked now rather than on the first search of every thread
+                OpenListKind.workspace(1, options);
+                ThreadLocal<SearchWorkspace> workspaces = ThreadLocal.withInitial(() -> OpenListKind.workspace(grid.size(), options));
+                return (start, goal) -> lab1.aStar(grid, start, goal, workspaces.get(), heuristic);
+            }
+        }
+    }
+
+    /**
+     * @return whether a season's search can be derived from the summer search of the same map,
+     * which costs less than building it when several seasons of the map are searched
+     */
+    public boolean derivesSeasons(){
+        return this == HIERARCHICAL;
+    }
+
+    /**
+     * Creates the search of a season from the summer search of the same map, reusing what the summer
+     * search precomputed wherever the season's overlay leaves the map alone
+     * @param summer: search this mode created for the summer grid
+     * @param grid: the terrain grid of the season
+     * @param overlay: the cells the season relabels
+     * @param heuristic: H(n) for the season's grid
+     * @return a search over the season's grid that can be shared between threads
+     * @throws UnsupportedOperationException if the mode doesn't derive seasons
+     */
+    public LegSearch deriveSeason(LegSearch summer, TerrainGrid grid, BitSet overlay, Heuristic heuristic){
+        if(!derivesSeasons()){
+            throw new UnsupportedOperationException(name().toLowerCase() + " searches are built per season");
+        }
+        return ((HierarchicalSearch) summer).rebuild(grid, overlay, heuristic);
+    }
+
+    /**
+     * Looks up a mode by its command line name
+     * @param name: astar, bidirectional, hierarchical, contraction, pyramid or anytime
+     * @return the mode
+     * @throws IllegalArgumentException for an unknown name
+     */
+    public static SearchMode fromName(String name){
+        for(SearchMode mode: values()){
+            if(mode.name().equalsIgnoreCase(name)){
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown search mode: " + name);
+    }
+}
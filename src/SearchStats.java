@@ -0,0 +1,67 @@
+public class SearchStats {
+    /**
+     * What a search did besides find its route: open-list operations, the largest the open list got
+     * and how long the search took. Searches running more than one open list report their sum
+     * (and the sum of their peaks).
+     */
+
+    public static final SearchStats NONE = new SearchStats(0, 0, 0, 0, 0);
+
+    private final long pushes;
+
+    private final long pops;
+
+    private final long decreaseKeys;
+
+    private final long peakOpen;
+
+    private final long nanos;
+
+    public SearchStats(long pushes, long pops, long decreaseKeys, long peakOpen, long nanos){
+        this.pushes = pushes;
+        this.pops = pops;
+        this.decreaseKeys = decreaseKeys;
+        this.peakOpen = peakOpen;
+        this.nanos = nanos;
+    }
+
+    /**
+     * Reads the counters of an open list
+     * @param openList: the open list of the search
+     * @param nanos: time the search took
+     * @return the open list's counts since its counters were last reset
+     */
+    public static SearchStats of(OpenList openList, long nanos){
+        return new SearchStats(openList.getPushes(), openList.getPops(), openList.getDecreaseKeys(), openList.getPeakSize(), nanos);
+    }
+
+    /**
+     * Adds the counts of two open lists of the same search
+     * @param other: counts of the other open list
+     * @param nanos: time the whole search took
+     * @return the summed counts
+     */
+    public SearchStats plus(SearchStats other, long nanos){
+        return new SearchStats(pushes + other.pushes, pops + other.pops, decreaseKeys + other.decreaseKeys, peakOpen + other.peakOpen, nanos);
+    }
+
+    public long getPushes() {
+        return pushes;
+    }
+
+    public long getPops() {
+        return pops;
+    }
+
+    public long getDecreaseKeys() {
+        return decreaseKeys;
+    }
+
+    public long getPeakOpen() {
+        return peakOpen;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+}
@@ -0,0 +1,123 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class SearchWorkspace {
+    /**
+     * Everything a single search writes to: g values, parents, the closed set and the open list.
+     * The TerrainGrid itself is never written during a search, so any number of searches can share
+     * one grid as long as each of them has its own workspace. A workspace is not thread-safe and
+     * can be reused for one search after another.
+     *
+     * g values and parents are stamped with the generation of the search that wrote them, so a reset
+     * only bumps the generation instead of refilling arrays the size of the grid: a cell whose stamp
+     * is from an earlier search reads as unreached.
+     */
+
+    private final double[] g;
+
+    private final int[] parents;
+
+    private final int[] stamps;
+
+    private final BitSet closed;
+
+    private final OpenList openList;
+
+    private int generation;
+
+    public SearchWorkspace(int size){
+        this(size, new IndexedMinHeap(size));
+    }
+
+    /**
+     * @param size: number of cells of the grid
+     * @param openList: open list for the searches, with room for every cell
+     */
+    public SearchWorkspace(int size, OpenList openList){
+        this.g = new double[size];
+        this.parents = new int[size];
+        this.stamps = new int[size];
+        this.closed = new BitSet(size);
+        this.openList = openList;
+    }
+
+    /**
+     * Clears whatever the previous search left behind
+     */
+    public void reset() {
+        generation++;
+        if(generation == 0){
+            //the stamps wrapped around, so old ones could pass for the new generation
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
+        closed.clear();
+        openList.clear();
+        openList.resetCounters();
+    }
+
+    public int size() {
+        return g.length;
+    }
+
+    /**
+     * @param cell: index of the cell
+     * @return its g value in this search, infinity if the search hasn't reached it
+     */
+    public double getG(int cell) {
+        return stamps[cell] == generation ? g[cell] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Records a cheaper way to reach a cell
+     * @param cell: index of the cell
+     * @param value: its new g value
+     * @param parent: the cell it is reached from, -1 for the start
+     */
+    public void setG(int cell, double value, int parent) {
+        g[cell] = value;
+        parents[cell] = parent;
+        stamps[cell] = generation;
+    }
+
+    /**
+     * @param cell: index of a cell this search has reached
+     * @return the cell it is reached from, -1 for the start
+     */
+    public int getParent(int cell) {
+        return parents[cell];
+    }
+
+    /**
+     * Parents of every cell, only meaningful for the cells this search has reached
+     * @return the parent array, for constructPath
+     */
+    public int[] getParents() {
+        return parents;
+    }
+
+    /**
+     * g of every cell after a search, writing infinity into the cells it didn't reach
+     * @return the workspace's g array
+     */
+    public double[] getCosts() {
+        for(int cell = 0; cell < g.length; cell++){
+            if(stamps[cell] != generation){
+                g[cell] = Double.POSITIVE_INFINITY;
+                stamps[cell] = generation;
+            }
+        }
+        return g;
+    }
+
+    /**
+     * @return the cells this search has expanded
+     */
+    public BitSet getClosed() {
+        return closed;
+    }
+
+    public OpenList getOpenList() {
+        return openList;
+    }
+}
@@ -0,0 +1,72 @@
+import java.awt.Color;
+import java.util.BitSet;
+
+public enum Season {
+    /**
+     * The seasons a course can be run in. Every season except summer relabels part of the map;
+     * the relabeled cells form the season's overlay.
+     */
+
+    SUMMER(null, null),
+    FALL(Pixel.TerrainType.LEAFY_FOOTPATH, null), //leaf-covered paths aren't drawn on the output image
+    WINTER(Pixel.TerrainType.ICE, new Color(124, 252, 252)),
+    SPRING(Pixel.TerrainType.MUDDY, new Color(141, 76, 0));
+
+    //bump whenever fall, winter or spring change what they relabel, so persisted overlays aren't reused
+    public static final int OVERLAY_VERSION = 2;
+
+    private final Pixel.TerrainType type;
+
+    private final Color color;
+
+    Season(Pixel.TerrainType type, Color color){
+        this.type = type;
+        this.color = color;
+    }
+
+    /**
+     * @return the terrain type the overlay cells get, null for summer
+     */
+    public Pixel.TerrainType getType() {
+        return type;
+    }
+
+    /**
+     * @return the color overlay cells are drawn with on the output image, null if they aren't drawn
+     */
+    public Color getColor() {
+        return color;
+    }
+
+    /**
+     * Finds the cells this season relabels
+     * @param grid: the summer terrain grid
+     * @return the overlay, empty for summer
+     */
+    public BitSet computeOverlay(TerrainGrid grid){
+        switch (this) {
+            case FALL:
+                return lab1.fall(grid);
+            case WINTER:
+                return lab1.winter(grid);
+            case SPRING:
+                return lab1.spring(grid);
+            default:
+                return new BitSet(grid.size());
+        }
+    }
+
+    /**
+     * Looks up a season by the name used on the command line
+     * @param name: summer, fall, winter or spring
+     * @return the season, summer for anything unrecognised
+     */
+    public static Season fromName(String name){
+        for(Season season: values()){
+            if(season.name().equalsIgnoreCase(name)){
+                return season;
+            }
+        }
+        return SUMMER;
+    }
+}
@@ -0,0 +1,106 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.Map;
+
+public class SeasonalMap {
+    /**
+     * One map in every season. It is loaded either from a compiled MapBundle or from the elevation
+     * file (with overlays from the OverlayCache); each season's grid is built on first use and then
+     * shared read-only by everyone who asks for it.
+     */
+
+    private final MapBundle bundle;
+
+    private final TerrainGrid summer;
+
+    private final Map<Season, TerrainGrid> grids = new EnumMap<>(Season.class);
+
+    private final Map<Season, BitSet> overlays = new EnumMap<>(Season.class);
+
+    private double uphill;
+
+    private double downhill;
+
+    private SeasonalMap(MapBundle bundle, TerrainGrid summer){
+        this.bundle = bundle;
+        this.summer = summer;
+    }
+
+    /**
+     * Loads a map
+     * @param image: terrain map
+     * @param elevationFileName: elevation file, or a bundle compiled from the same map
+     * @return the map
+     * @throws IOException if the map can't be read or the bundle doesn't match the image
+     */
+    public static SeasonalMap load(BufferedImage image, String elevationFileName) throws IOException {
+        if(MapBundle.isBundle(elevationFileName)){
+            MapBundle bundle = MapBundle.open(elevationFileName);
+            if(bundle.getCols() != image.getWidth() || bundle.getRows() != image.getHeight()){
+                throw new IOException(elevationFileName + " wasn't compiled from a map of the same size as the terrain image");
+            }
+            return new SeasonalMap(bundle, null);
+        }
+        return new SeasonalMap(null, lab1.loadGrid(image, elevationFileName));
+    }
+
+    /**
+     * @param season: the season
+     * @return the cells the season relabels (a fresh copy the caller may modify)
+     */
+    public synchronized BitSet getOverlay(Season season){
+        if(bundle != null){
+            return bundle.getOverlay(season);
+        }
+        BitSet overlay = overlays.get(season);
+        if(overlay == null){
+            overlay = OverlayCache.shared().getOverlay(summer, season);
+            overlays.put(season, overlay);
+        }
+        return (BitSet) overlay.clone();
+    }
+
+    /**
+     * Sets the slope penalties of every season's step costs (see EdgeCosts). Must be called before
+     * the grids are searched.
+     * @param uphill: extra cost per unit of grade when climbing
+     * @param downhill: extra cost per unit of grade when descending
+     * @throws IllegalArgumentException if a penalty is negative
+     */
+    public synchronized void setSlopePenalty(double uphill, double downhill){
+        if(summer != null){
+            summer.setSlopePenalty(uphill, downhill);
+        }
+        for(TerrainGrid grid: grids.values()){
+            grid.setSlopePenalty(uphill, downhill);
+        }
+        this.uphill = uphill;
+        this.downhill = downhill;
+    }
+
+    /**
+     * @param season: the season
+     * @return the grid with the season's overlay applied, shared and read-only
+     */
+    public synchronized TerrainGrid getGrid(Season season){
+        TerrainGrid grid = grids.get(season);
+        if(grid == null){
+            if(bundle != null){
+                grid = bundle.getGrid(season);
+            }
+            else{
+                grid = summer;
+                //the copy takes over summer's step costs and only patches the cells the overlay relabels
+                if(season.getType() != null){
+                    grid = summer.copy();
+                    lab1.applyOverlay(grid, getOverlay(season), season.getType());
+                }
+            }
+            grid.setSlopePenalty(uphill, downhill);
+            grids.put(season, grid);
+        }
+        return grid;
+    }
+}
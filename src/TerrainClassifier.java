@@ -0,0 +1,277 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+public class TerrainClassifier {
+    /**
+     * Turns a terrain image into terrain ordinals. Colours are looked up in a small open-addressing
+     * table keyed by packed RGB, and the pixels are read straight from the image's DataBuffer where
+     * its layout is one of the common ones (interleaved bytes, packed ints or an 8-bit palette, whose
+     * entries are classified once). Other images go through getRGB a row at a time. Row bands are
+     * classified in parallel, and colours that aren't in the legend are counted so they can be reported.
+     */
+
+    //the legend of the map colours
+    private static final int[] COLORS = {
+            0xF89412, 0xFFC000, 0xFFFFFF, 0x02D03C, 0x028828, 0x054918, 0x0000FF,
+            0x473303, 0x000000, 0xFF4500, 0x7CFCFC, 0x8D4C00, 0xCD0065
+    };
+
+    private static final Pixel.TerrainType[] TYPES = {
+            Pixel.TerrainType.OPEN_LAND, Pixel.TerrainType.ROUGH_MEADOW, Pixel.TerrainType.EASY_MOVEMENT_FOREST,
+            Pixel.TerrainType.SLOW_RUN_FOREST, Pixel.TerrainType.WALK_FOREST, Pixel.TerrainType.IMPASSIBLE_VEGETATION,
+            Pixel.TerrainType.LAKE, Pixel.TerrainType.PAVED_ROAD, Pixel.TerrainType.FOOTPATH,
+            Pixel.TerrainType.LEAFY_FOOTPATH, Pixel.TerrainType.ICE, Pixel.TerrainType.MUDDY,
+            Pixel.TerrainType.OUT_OF_BOUNDS
+    };
+
+    //closures are only ever set while replanning, so their colour stays out of the lookup table
+    private static final int CLOSED_COLOR = 0x8B008B;
+
+    private static final int SLOTS = 64; //power of two, well above the number of colours
+
+    private static final int EMPTY = -1;
+
+    private static final int[] KEYS = new int[SLOTS];
+
+    private static final byte[] VALUES = new byte[SLOTS];
+
+    private static final byte UNKNOWN = (byte) Pixel.TerrainType.OUT_OF_BOUNDS.ordinal();
+
+    private static final int ROWS_PER_BAND = 32;
+
+    static {
+        Arrays.fill(KEYS, EMPTY);
+        for(int i = 0; i < COLORS.length; i++){
+            int slot = slot(COLORS[i]);
+            while(KEYS[slot] != EMPTY){
+                slot = (slot + 1) & (SLOTS - 1);
+            }
+            KEYS[slot] = COLORS[i];
+            VALUES[slot] = (byte) TYPES[i].ordinal();
+        }
+    }
+
+    private final byte[] terrain;
+
+    private final Map<Integer, Integer> unknownColors;
+
+    private TerrainClassifier(byte[] terrain, Map<Integer, Integer> unknownColors){
+        this.terrain = terrain;
+        this.unknownColors = unknownColors;
+    }
+
+    private static int slot(int rgb){
+        return (rgb * 0x9E3779B1) >>> 26;
+    }
+
+    /**
+     * Terrain of a colour
+     * @param rgb: packed RGB, anything in the alpha byte is ignored
+     * @return the terrain ordinal, or -1 if the colour isn't in the legend
+     */
+    public static int lookup(int rgb){
+        rgb &= 0xFFFFFF;
+        int slot = slot(rgb);
+        while(true){
+            int key = KEYS[slot];
+            if(key == rgb){
+                return VALUES[slot];
+            }
+            if(key == EMPTY){
+                return -1;
+            }
+            slot = (slot + 1) & (SLOTS - 1);
+        }
+    }
+
+    /**
+     * Legend colour of a terrain
+     * @param type: terrain type
+     * @return its packed RGB colour on the terrain map, dark magenta for a closure
+     */
+    public static int color(Pixel.TerrainType type){
+        if(type == Pixel.TerrainType.CLOSED){
+            return CLOSED_COLOR;
+        }
+        for(int i = 0; i < TYPES.length; i++){
+            if(TYPES[i] == type){
+                return COLORS[i];
+            }
+        }
+        throw new IllegalArgumentException("No legend colour for " + type);
+    }
+
+    /**
+     * Classifies every pixel of a terrain image
+     * @param image: terrain map
+     * @return the terrain of every pixel and the colours that weren't in the legend
+     */
+    public static TerrainClassifier classify(BufferedImage image){
+        int cols = image.getWidth();
+        int rows = image.getHeight();
+        byte[] terrain = new byte[cols * rows];
+        Band reader = bandReader(image, terrain);
+        int bands = (rows + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+        Map<Integer, Integer> unknown = new TreeMap<>();
+        IntStream.range(0, bands).parallel().mapToObj(band -> {
+            Map<Integer, int[]> counts = new HashMap<>();
+            reader.classify(band * ROWS_PER_BAND, Math.min(rows, (band + 1) * ROWS_PER_BAND), counts);
+            return counts;
+        }).forEachOrdered(counts -> counts.forEach((rgb, count) -> unknown.merge(rgb, count[0], Integer::sum)));
+        return new TerrainClassifier(terrain, unknown);
+    }
+
+    /**
+     * @return terrain ordinals in row-major order (index = y * cols + x), OUT_OF_BOUNDS for unknown colours
+     */
+    public byte[] getTerrain() {
+        return terrain;
+    }
+
+    /**
+     * @return how many pixels had each colour that isn't in the legend, by packed RGB
+     */
+    public Map<Integer, Integer> getUnknownColors() {
+        return unknownColors;
+    }
+
+    private interface Band {
+        /**
+         * Classifies the rows first (inclusive) to last (exclusive), counting unknown colours
+         */
+        void classify(int first, int last, Map<Integer, int[]> unknown);
+    }
+
+    /**
+     * Picks how to read the image's pixels
+     */
+    private static Band bandReader(BufferedImage image, byte[] terrain){
+        int cols = image.getWidth();
+        Raster raster = image.getRaster();
+        ColorModel colorModel = image.getColorModel();
+        SampleModel sampleModel = raster.getSampleModel();
+        DataBuffer buffer = raster.getDataBuffer();
+        //only plain sRGB pixels can be read without the conversions getRGB would make
+        boolean plain = raster.getParent() == null && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && colorModel.getColorSpace().isCS_sRGB() && !colorModel.isAlphaPremultiplied() && buffer.getNumBanks() == 1;
+
+        if(plain && buffer instanceof DataBufferByte && sampleModel instanceof PixelInterleavedSampleModel
+                && colorModel instanceof ComponentColorModel && sampleModel.getNumBands() >= 3 && is8Bit(sampleModel)){
+            PixelInterleavedSampleModel interleaved = (PixelInterleavedSampleModel) sampleModel;
+            byte[] data = ((DataBufferByte) buffer).getData();
+            int stride = interleaved.getScanlineStride();
+            int pixelStride = interleaved.getPixelStride();
+            int[] offsets = interleaved.getBandOffsets();
+            int offset = buffer.getOffset();
+            int red = offsets[0];
+            int green = offsets[1];
+            int blue = offsets[2];
+            return (first, last, unknown) -> {
+                int[] rgbs = new int[cols];
+                for(int row = first; row < last; row++){
+                    int pos = offset + row * stride;
+                    for(int col = 0; col < cols; col++, pos += pixelStride){
+                        rgbs[col] = (data[pos + red] & 0xFF) << 16 | (data[pos + green] & 0xFF) << 8 | (data[pos + blue] & 0xFF);
+                    }
+                    classifyRow(rgbs, 0, terrain, row * cols, cols, unknown);
+                }
+            };
+        }
+        if(plain && buffer instanceof DataBufferInt && sampleModel instanceof SinglePixelPackedSampleModel
+                && colorModel instanceof DirectColorModel && isRgbMasks((DirectColorModel) colorModel)){
+            int[] data = ((DataBufferInt) buffer).getData();
+            int stride = ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride();
+            int offset = buffer.getOffset();
+            return (first, last, unknown) -> {
+                for(int row = first; row < last; row++){
+                    classifyRow(data, offset + row * stride, terrain, row * cols, cols, unknown);
+                }
+            };
+        }
+        if(plain && buffer instanceof DataBufferByte && sampleModel instanceof PixelInterleavedSampleModel
+                && colorModel instanceof IndexColorModel && sampleModel.getNumBands() == 1 && is8Bit(sampleModel)
+                && ((PixelInterleavedSampleModel) sampleModel).getPixelStride() == 1){
+            //classify the palette once, then every pixel is an index into it (indices past the palette are black, as in getRGB)
+            int[] colors = new int[256];
+            ((IndexColorModel) colorModel).getRGBs(colors);
+            byte[] types = new byte[colors.length];
+            boolean[] known = new boolean[colors.length];
+            for(int i = 0; i < colors.length; i++){
+                colors[i] &= 0xFFFFFF;
+                int type = lookup(colors[i]);
+                known[i] = type != -1;
+                types[i] = known[i] ? (byte) type : UNKNOWN;
+            }
+            byte[] data = ((DataBufferByte) buffer).getData();
+            int stride = ((PixelInterleavedSampleModel) sampleModel).getScanlineStride();
+            int offset = buffer.getOffset() + ((PixelInterleavedSampleModel) sampleModel).getBandOffsets()[0];
+            return (first, last, unknown) -> {
+                for(int row = first; row < last; row++){
+                    int pos = offset + row * stride;
+                    for(int col = 0; col < cols; col++){
+                        int index = data[pos + col] & 0xFF;
+                        terrain[row * cols + col] = types[index];
+                        if(!known[index]){
+                            unknown.computeIfAbsent(colors[index], key -> new int[1])[0]++;
+                        }
+                    }
+                }
+            };
+        }
+        return (first, last, unknown) -> {
+            int[] rgbs = new int[cols];
+            for(int row = first; row < last; row++){
+                image.getRGB(0, row, cols, 1, rgbs, 0, cols);
+                classifyRow(rgbs, 0, terrain, row * cols, cols, unknown);
+            }
+        };
+    }
+
+    private static void classifyRow(int[] rgbs, int from, byte[] terrain, int to, int count, Map<Integer, int[]> unknown){
+        int lastRgb = -1;
+        int lastType = 0;
+        for(int i = 0; i < count; i++){
+            int rgb = rgbs[from + i] & 0xFFFFFF;
+            //neighbouring pixels are mostly the same colour
+            if(rgb != lastRgb){
+                lastRgb = rgb;
+                lastType = lookup(rgb);
+            }
+            if(lastType == -1){
+                unknown.computeIfAbsent(rgb, key -> new int[1])[0]++;
+                terrain[to + i] = UNKNOWN;
+            }
+            else{
+                terrain[to + i] = (byte) lastType;
+            }
+        }
+    }
+
+    private static boolean is8Bit(SampleModel sampleModel){
+        for(int size: sampleModel.getSampleSize()){
+            if(size != 8){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isRgbMasks(DirectColorModel colorModel){
+        return colorModel.getRedMask() == 0xFF0000 && colorModel.getGreenMask() == 0xFF00 && colorModel.getBlueMask() == 0xFF;
+    }
+}
@@ -0,0 +1,224 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+
+public class TerrainGrid {
+    /**
+     * Compact struct-of-arrays representation of the map. Every cell is addressed by a single
+     * int index (index = y * cols + x), its terrain is stored as the ordinal of Pixel.TerrainType
+     * in a byte array and its elevation in a float array. Step costs come from an EdgeCosts built on
+     * first use, which only keeps a table (and only has to patch it when cells are relabeled) when
+     * slope penalties are set.
+     */
+
+    private static final Pixel.TerrainType[] TYPES = Pixel.TerrainType.values();
+
+    private final int cols;
+
+    private final int rows;
+
+    private final byte[] terrain;
+
+    private final float[] elevation;
+
+    private volatile String contentHash; //computed on first use, cleared whenever a cell is relabeled
+
+    private volatile String mapHash; //the same without the slope penalties
+
+    private double uphill;
+
+    private double downhill;
+
+    private volatile EdgeCosts edgeCosts; //null while cells relabeled since the last build need patching
+
+    private EdgeCosts staleCosts; //costs from before the relabeling, patched on next use
+
+    private final BitSet relabeled = new BitSet();
+
+    public TerrainGrid(int cols, int rows, byte[] terrain, float[] elevation){
+        if(terrain.length != cols * rows || elevation.length != cols * rows){
+            throw new IllegalArgumentException("Grid arrays don't match " + cols + "x" + rows);
+        }
+        this.cols = cols;
+        this.rows = rows;
+        this.terrain = terrain;
+        this.elevation = elevation;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int size() {
+        return terrain.length;
+    }
+
+    public int index(int x, int y) {
+        return y * cols + x;
+    }
+
+    public int getX(int index) {
+        return index % cols;
+    }
+
+    public int getY(int index) {
+        return index / cols;
+    }
+
+    public boolean inBounds(int x, int y) {
+        return x >= 0 && y >= 0 && x < cols && y < rows;
+    }
+
+    public byte getTerrain(int index) {
+        return terrain[index];
+    }
+
+    public Pixel.TerrainType getType(int index) {
+        return TYPES[terrain[index]];
+    }
+
+    /**
+     * Relabels a cell. Grids are relabeled before they are shared, never while they are being searched.
+     * @param index: the cell
+     * @param type: its new terrain
+     */
+    public synchronized void setType(int index, Pixel.TerrainType type) {
+        terrain[index] = (byte) type.ordinal();
+        contentHash = null;
+        mapHash = null;
+        if(edgeCosts != null){
+            staleCosts = edgeCosts;
+            edgeCosts = null;
+        }
+        relabeled.set(index);
+    }
+
+    /**
+     * Sets the slope penalties of the step costs, see EdgeCosts. Like relabeling, this is done before
+     * the grid is shared.
+     * @param uphill: extra cost per unit of grade when climbing
+     * @param downhill: extra cost per unit of grade when descending
+     * @throws IllegalArgumentException if a penalty is negative, which could make steps free
+     */
+    public synchronized void setSlopePenalty(double uphill, double downhill) {
+        if(!(uphill >= 0.0) || !(downhill >= 0.0)){
+            throw new IllegalArgumentException("Slope penalties must not be negative, got " + uphill + " and " + downhill);
+        }
+        if(uphill == this.uphill && downhill == this.downhill){
+            return;
+        }
+        this.uphill = uphill;
+        this.downhill = downhill;
+        contentHash = null;
+        edgeCosts = null;
+        staleCosts = null;
+        relabeled.clear();
+    }
+
+    public double getUphill() {
+        return uphill;
+    }
+
+    public double getDownhill() {
+        return downhill;
+    }
+
+    /**
+     * @return the cost of every step of the grid, built on first use and patched after relabeling
+     */
+    public EdgeCosts edgeCosts() {
+        EdgeCosts costs = edgeCosts;
+        return costs != null ? costs : buildCosts();
+    }
+
+    private synchronized EdgeCosts buildCosts() {
+        if(edgeCosts == null){
+            if(staleCosts == null){
+                edgeCosts = EdgeCosts.build(this, uphill, downhill);
+            }
+            else{
+                staleCosts.refresh(relabeled);
+                edgeCosts = staleCosts;
+                staleCosts = null;
+            }
+            relabeled.clear();
+        }
+        return edgeCosts;
+    }
+
+    public double getElevation(int index) {
+        return elevation[index];
+    }
+
+    /**
+     * Hashes the size, terrain and elevations of the grid (and the slope penalties, when there are
+     * any), so caches of step costs and routes can recognise the same map
+     * @return hex SHA-256 of the grid contents
+     */
+    public String contentHash() {
+        String hash = contentHash;
+        if(hash == null){
+            hash = uphill == 0.0 && downhill == 0.0 ? mapHash() : hash(true);
+            contentHash = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * Hashes the size, terrain and elevations of the grid but not the slope penalties, for caches of
+     * what only depends on the map itself, such as the season overlays
+     * @return hex SHA-256 of the terrain and elevations
+     */
+    public String mapHash() {
+        String hash = mapHash;
+        if(hash == null){
+            hash = hash(false);
+            mapHash = hash;
+        }
+        return hash;
+    }
+
+    private String hash(boolean withSlopePenalty){
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8 + elevation.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(cols).putInt(rows);
+        for(float value: elevation){
+            buffer.putFloat(value);
+        }
+        buffer.flip();
+        digest.update(terrain);
+        digest.update(buffer);
+        if(withSlopePenalty){
+            digest.update(ByteBuffer.allocate(16).putDouble(uphill).putDouble(downhill).flip());
+        }
+        StringBuilder hex = new StringBuilder();
+        for(byte b: digest.digest()){
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Copies the grid so a season can relabel cells without touching the original map
+     * @return a grid with its own terrain array (elevations are shared, they never change) and its own
+     *         step costs, so relabeling the copy only patches the steps into relabeled cells
+     */
+    public TerrainGrid copy() {
+        TerrainGrid copy = new TerrainGrid(cols, rows, terrain.clone(), elevation);
+        copy.uphill = uphill;
+        copy.downhill = downhill;
+        copy.staleCosts = edgeCosts().copyFor(copy, new BitSet());
+        return copy;
+    }
+}
@@ -0,0 +1,473 @@
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class TiledMap implements Closeable {
+    /**
+     * Out-of-core map storage for maps too large to hold as a TerrainGrid. The map is cut into square
+     * tiles, each stored as its terrain bytes followed by its elevations, in a file that is memory-mapped
+     * read-only, so the operating system pages it in and out instead of the heap holding it.
+     *
+     * Layout (little-endian):
+     *   header  magic, version, Season.OVERLAY_VERSION, cols, rows, tile size
+     *   tiles   row by row of tiles, each tile size^2 terrain bytes, tile size^2 elevation floats,
+     *           then the overlay of fall, winter and spring as one bit per cell (tiles on the right
+     *           and bottom edges are padded to the full size)
+     *
+     * The season passes run once, while the map is tiled. They can't run tile by tile: spring hands
+     * the lake a shore cell is measured against on from cell to cell along the shore, so a cell can
+     * depend on a lake far outside its tile. Tiles are copied out of the mapping on demand into a
+     * bounded LRU cache, which counts its hits, misses and evictions, and every season reads the same
+     * cached tile. Heap use depends on the cache size and not on the size of the map. A file whose
+     * overlays were computed by other season rules is refused, so the map has to be tiled again.
+     */
+
+    public static final int MAGIC = 0x4C54504F; //"OPTL"
+
+    public static final int VERSION = 2;
+
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    public static final int DEFAULT_CACHE_TILES = 256;
+
+    private static final int HEADER_BYTES = 4 * 6;
+
+    //tiles per mapping, so no mapping passes the 2GB a MappedByteBuffer can address
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    //largest tile that fits in a segment
+    private static final int MAX_TILE_SIZE = 8192;
+
+    private static final Pixel.TerrainType[] TYPES = Pixel.TerrainType.values();
+
+    private static final Season[] SEASONS = Season.values();
+
+    private final String fileName;
+
+    private final int cols;
+
+    private final int rows;
+
+    private final int tileSize;
+
+    private final int tilesAcross;
+
+    private final int tileBytes;
+
+    private final int tilesPerSegment;
+
+    private final MappedByteBuffer[] segments;
+
+    private final int capacity;
+
+    private final Map<Integer, Tile> cache;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    private TiledMap(String fileName, int cols, int rows, int tileSize, MappedByteBuffer[] segments, int capacity){
+        this.fileName = fileName;
+        this.cols = cols;
+        this.rows = rows;
+        this.tileSize = tileSize;
+        this.tilesAcross = (cols + tileSize - 1) / tileSize;
+        this.tileBytes = tileBytes(tileSize);
+        this.tilesPerSegment = (int) Math.max(1, SEGMENT_BYTES / tileBytes);
+        this.segments = segments;
+        this.capacity = capacity;
+        this.cache = new LinkedHashMap<>(capacity * 2, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Tile> eldest) {
+                if(size() > TiledMap.this.capacity){
+                    evictions++;
+                    Metrics.shared().counter("orienteering_tile_cache_evictions_total", "Tiles evicted from the tile cache").increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public interface Source {
+        /**
+         * Where the cells of a map come from while it is being tiled.
+         */
+
+        /**
+         * @return terrain ordinal of the cell at (x, y)
+         */
+        byte terrain(int x, int y);
+
+        /**
+         * @return elevation of the cell at (x, y)
+         */
+        float elevation(int x, int y);
+
+        /**
+         * @return whether the season relabels the cell at (x, y)
+         */
+        boolean overlay(Season season, int x, int y);
+    }
+
+    /**
+     * Writes a tiled map, one tile at a time
+     * @param fileName: file to write
+     * @param cols: width of the map
+     * @param rows: height of the map
+     * @param tileSize: width and height of a tile
+     * @param source: the cells of the map
+     * @throws IOException if the file can't be written
+     */
+    public static void write(String fileName, int cols, int rows, int tileSize, Source source) throws IOException {
+        if(tileSize < 1 || tileSize > MAX_TILE_SIZE){
+            throw new IllegalArgumentException("Tile size must be between 1 and " + MAX_TILE_SIZE + ", got " + tileSize);
+        }
+        if((long) cols * rows > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("A map can have at most " + Integer.MAX_VALUE + " cells, got " + cols + "x" + rows);
+        }
+        int cells = tileSize * tileSize;
+        ByteBuffer tile = ByteBuffer.allocate(tileBytes(tileSize)).order(ByteOrder.LITTLE_ENDIAN);
+        BitSet overlay = new BitSet(cells);
+        Path path = Paths.get(fileName);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(Season.OVERLAY_VERSION).putInt(cols).putInt(rows).putInt(tileSize);
+            header.flip();
+            writeFully(channel, header);
+            for(int top = 0; top < rows; top += tileSize){
+                for(int left = 0; left < cols; left += tileSize){
+                    tile.clear();
+                    for(int y = top; y < top + tileSize; y++){
+                        for(int x = left; x < left + tileSize; x++){
+                            tile.put(x < cols && y < rows ? source.terrain(x, y) : (byte) Pixel.TerrainType.OUT_OF_BOUNDS.ordinal());
+                        }
+                    }
+                    for(int y = top; y < top + tileSize; y++){
+                        for(int x = left; x < left + tileSize; x++){
+                            tile.putFloat(x < cols && y < rows ? source.elevation(x, y) : 0.0f);
+                        }
+                    }
+                    for(int s = 1; s < SEASONS.length; s++){
+                        overlay.clear();
+                        for(int y = top; y < Math.min(rows, top + tileSize); y++){
+                            for(int x = left; x < Math.min(cols, left + tileSize); x++){
+                                if(source.overlay(SEASONS[s], x, y)){
+                                    overlay.set((y - top) * tileSize + (x - left));
+                                }
+                            }
+                        }
+                        byte[] bits = overlay.toByteArray();
+                        tile.put(bits);
+                        for(int b = bits.length; b < bitmapBytes(cells); b++){
+                            tile.put((byte) 0); //the buffer is reused, so the rest of the bitmap has to be cleared
+                        }
+                    }
+                    tile.flip();
+                    writeFully(channel, tile);
+                }
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Writes the tiles of a map that is already in memory
+     * @param fileName: file to write
+     * @param map: the map, whose season overlays are computed if they aren't yet
+     * @param tileSize: width and height of a tile
+     * @throws IOException if the file can't be written
+     */
+    public static void write(String fileName, SeasonalMap map, int tileSize) throws IOException {
+        TerrainGrid grid = map.getGrid(Season.SUMMER);
+        BitSet[] overlays = new BitSet[SEASONS.length];
+        for(Season season: SEASONS){
+            overlays[season.ordinal()] = map.getOverlay(season);
+        }
+        write(fileName, grid.getCols(), grid.getRows(), tileSize, new Source() {
+            @Override
+            public byte terrain(int x, int y) {
+                return grid.getTerrain(grid.index(x, y));
+            }
+
+            @Override
+            public float elevation(int x, int y) {
+                return (float) grid.getElevation(grid.index(x, y));
+            }
+
+            @Override
+            public boolean overlay(Season season, int x, int y) {
+                return overlays[season.ordinal()].get(grid.index(x, y));
+            }
+        });
+    }
+
+    private static int bitmapBytes(int cells){
+        return (cells + 7) / 8;
+    }
+
+    private static int tileBytes(int tileSize){
+        int cells = tileSize * tileSize;
+        return cells * 5 + (SEASONS.length - 1) * bitmapBytes(cells);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Maps a tiled map into memory
+     * @param fileName: file written by write
+     * @param cacheTiles: most tiles kept in the cache
+     * @return the opened map
+     * @throws IOException if the file can't be read, isn't a tiled map, has the wrong version or overlay
+     *             version or is cut short
+     */
+    public static TiledMap open(String fileName, int cacheTiles) throws IOException {
+        if(cacheTiles < 1){
+            throw new IllegalArgumentException("The tile cache needs room for at least one tile, got " + cacheTiles);
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while(header.hasRemaining() && channel.read(header) != -1){
+                //read the whole header
+            }
+            if(header.hasRemaining() || header.getInt(0) != MAGIC){
+                throw new IOException(fileName + " is not a tiled map");
+            }
+            int version = header.getInt(4);
+            if(version != VERSION){
+                throw new IOException(fileName + " is tiled map version " + version + ", expected " + VERSION + "; tile the map again");
+            }
+            int overlayVersion = header.getInt(8);
+            if(overlayVersion != Season.OVERLAY_VERSION){
+                throw new IOException(fileName + " holds version " + overlayVersion + " season overlays, expected "
+                        + Season.OVERLAY_VERSION + "; tile the map again");
+            }
+            int cols = header.getInt(12);
+            int rows = header.getInt(16);
+            int tileSize = header.getInt(20);
+            if(cols < 1 || rows < 1 || tileSize < 1 || tileSize > MAX_TILE_SIZE){
+                throw new IOException(fileName + " has a corrupt header");
+            }
+            long tileBytes = tileBytes(tileSize);
+            long tiles = (long) ((cols + tileSize - 1) / tileSize) * ((rows + tileSize - 1) / tileSize);
+            if(channel.size() < HEADER_BYTES + tiles * tileBytes){
+                throw new IOException(fileName + " is cut short: " + channel.size() + " bytes for " + tiles + " tiles");
+            }
+            long perSegment = Math.max(1, SEGMENT_BYTES / tileBytes);
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((tiles + perSegment - 1) / perSegment)];
+            for(int s = 0; s < segments.length; s++){
+                long first = s * perSegment;
+                long count = Math.min(perSegment, tiles - first);
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + first * tileBytes, count * tileBytes);
+                segments[s].order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return new TiledMap(fileName, cols, rows, tileSize, segments, cacheTiles);
+        }
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public boolean inBounds(int x, int y) {
+        return x >= 0 && y >= 0 && x < cols && y < rows;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int getCachedTiles() {
+        return cache.size();
+    }
+    /**
+     * Gets the tile holding a cell
+     * @param x: x of the cell
+     * @param y: y of the cell
+     * @return the tile, from the cache if it's there
+     */
+    public Tile tileAt(int x, int y){
+        return tile(x / tileSize, y / tileSize);
+    }
+
+    /**
+     * Gets a tile through the cache
+     * @param tx: column of the tile
+     * @param ty: row of the tile
+     * @return the tile
+     */
+    public synchronized Tile tile(int tx, int ty){
+        int index = ty * tilesAcross + tx;
+        Tile tile = cache.get(index);
+        if(tile != null){
+            hits++;
+            Metrics.shared().counter("orienteering_tile_cache_hits_total", "Tile cache lookups that found the tile").increment();
+            return tile;
+        }
+        misses++;
+        Metrics.shared().counter("orienteering_tile_cache_misses_total", "Tile cache lookups that had to load the tile").increment();
+        tile = readTile(tx, ty);
+        cache.put(index, tile);
+        return tile;
+    }
+
+    /**
+     * Copies a tile out of the mapped file
+     */
+    private Tile readTile(int tx, int ty){
+        int index = ty * tilesAcross + tx;
+        ByteBuffer segment = segments[index / tilesPerSegment].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int offset = (index % tilesPerSegment) * tileBytes;
+        int cells = tileSize * tileSize;
+        byte[] terrain = new byte[cells];
+        float[] elevation = new float[cells];
+        segment.position(offset);
+        segment.get(terrain);
+        segment.asFloatBuffer().get(elevation);
+        segment.position(offset + cells * 5);
+        BitSet[] overlays = new BitSet[SEASONS.length];
+        byte[] bits = new byte[bitmapBytes(cells)];
+        for(int s = 1; s < SEASONS.length; s++){
+            segment.get(bits);
+            overlays[s] = BitSet.valueOf(bits);
+        }
+        return new Tile(tx * tileSize, ty * tileSize, tileSize, terrain, elevation, overlays);
+    }
+
+    /**
+     * Renders part of the map the way the terrain image shows it, with the season's overlay drawn in
+     * the season's colour, reading through the tile cache
+     * @param season: the season
+     * @param left: x of the first column
+     * @param top: y of the first row
+     * @param width: width of the image
+     * @param height: height of the image
+     * @return the image
+     */
+    public BufferedImage render(Season season, int left, int top, int width, int height){
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] colors = new int[TYPES.length];
+        for(Pixel.TerrainType type: TYPES){
+            colors[type.ordinal()] = TerrainClassifier.color(type);
+        }
+        Tile tile = null;
+        for(int y = top; y < top + height; y++){
+            for(int x = left; x < left + width; x++){
+                if(tile == null || !tile.contains(x, y)){
+                    tile = tileAt(x, y);
+                }
+                int rgb = colors[tile.getTerrain(Season.SUMMER, x, y)];
+                if(season.getColor() != null && tile.isOverlay(season, x, y)){
+                    rgb = season.getColor().getRGB();
+                }
+                image.setRGB(x - left, y - top, rgb);
+            }
+        }
+        return image;
+    }
+
+    @Override
+    public synchronized void close() {
+        //the mappings go away with the buffers, all that can be done is to drop them
+        cache.clear();
+        for(int s = 0; s < segments.length; s++){
+            segments[s] = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return fileName + " (" + cols + "x" + rows + ", " + tileSize + "x" + tileSize + " tiles)";
+    }
+
+    public static class Tile {
+        /**
+         * One tile, read-only once it is built. Cells are addressed by map coordinates, and every
+         * season reads its terrain from the same tile.
+         */
+
+        private final int left;
+
+        private final int top;
+
+        private final int size;
+
+        private final byte[] terrain;
+
+        private final float[] elevation;
+
+        private final BitSet[] overlays; //by season ordinal, null for summer
+
+        Tile(int left, int top, int size, byte[] terrain, float[] elevation, BitSet[] overlays){
+            this.left = left;
+            this.top = top;
+            this.size = size;
+            this.terrain = terrain;
+            this.elevation = elevation;
+            this.overlays = overlays;
+        }
+
+        /**
+         * @return whether the cell at (x, y) lies in this tile
+         */
+        public boolean contains(int x, int y) {
+            return x >= left && y >= top && x < left + size && y < top + size;
+        }
+
+        /**
+         * @return terrain ordinal of the cell at (x, y) in the season
+         */
+        public byte getTerrain(Season season, int x, int y) {
+            int cell = (y - top) * size + (x - left);
+            BitSet overlay = overlays[season.ordinal()];
+            return overlay != null && overlay.get(cell) ? (byte) season.getType().ordinal() : terrain[cell];
+        }
+
+        public float getElevation(int x, int y) {
+            return elevation[(y - top) * size + (x - left)];
+        }
+
+        /**
+         * @return whether the season relabels the cell at (x, y)
+         */
+        public boolean isOverlay(Season season, int x, int y) {
+            BitSet overlay = overlays[season.ordinal()];
+            return overlay != null && overlay.get((y - top) * size + (x - left));
+        }
+    }
+}
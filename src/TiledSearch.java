@@ -0,0 +1,194 @@
+import java.util.Arrays;
+
+public class TiledSearch {
+    /**
+     * A* over a TiledMap. It searches the same way lab1.aStar does, with the same step costs (slope
+     * penalties included), heuristic and open-list order, so it finds the same routes, but it only
+     * keeps state for the cells it reaches: each reached cell gets a local id from an open-addressing
+     * table, and g, parents and the heap are indexed by local id and grow as needed. Cells are read through the
+     * map's tile cache, remembering the last tile so steps within a tile don't go to the cache.
+     */
+
+    private final TiledMap map;
+
+    private final Season season;
+
+    private final double uphill;
+
+    private final double downhill;
+
+    private TiledMap.Tile tile; //last tile read
+
+    //cell index -> local id + 1, 0 for an empty slot; the cells themselves are in cells
+    private int[] slots = new int[1 << 12];
+
+    private int count;
+
+    private int[] cells = new int[1 << 10];
+
+    private float[] elevations = new float[1 << 10];
+
+    private double[] g = new double[1 << 10];
+
+    private int[] parents = new int[1 << 10];
+
+    private final IndexedMinHeap open = new IndexedMinHeap(1 << 10); //indexed by local id, grown with them
+
+    /**
+     * @param map: the tiled map
+     * @param season: the season whose terrain the search runs on
+     * @param uphill: extra cost per unit of grade going up, as in TerrainGrid.setSlopePenalty
+     * @param downhill: extra cost per unit of grade going down
+     */
+    public TiledSearch(TiledMap map, Season season, double uphill, double downhill){
+        if(!(uphill >= 0.0) || !(downhill >= 0.0)){
+            throw new IllegalArgumentException("Slope penalties must not be negative, got " + uphill + " and " + downhill);
+        }
+        this.map = map;
+        this.season = season;
+        this.uphill = uphill;
+        this.downhill = downhill;
+    }
+
+    /**
+     * Finds the cheapest route between two cells
+     * @param startX: x of the start
+     * @param startY: y of the start
+     * @param goalX: x of the destination
+     * @param goalY: y of the destination
+     * @return the route, its cells as y * cols + x, empty if there is none
+     */
+    public Route search(int startX, int startY, int goalX, int goalY){
+        long startTime = System.nanoTime();
+        reset();
+        int cols = map.getCols();
+        int goal = goalY * cols + goalX;
+        float goalElevation = read(goalX, goalY).getElevation(goalX, goalY);
+
+        int first = localId(startY * cols + startX, read(startX, startY).getElevation(startX, startY));
+        g[first] = 0.0;
+        parents[first] = -1;
+        open.insertOrDecrease(first, estimate(startX, startY, elevations[first], goalX, goalY, goalElevation));
+        int expanded = 0;
+
+        while(!open.isEmpty()){
+            int node = open.poll();
+            expanded++;
+            int cell = cells[node];
+            if(cell == goal){
+                return new Route(path(node), g[node], expanded, stats(startTime));
+            }
+            int x = cell % cols;
+            int y = cell / cols;
+            for(int d = 0; d < EdgeCosts.DIRECTIONS; d++){
+                int nextX = x + EdgeCosts.dx(d);
+                int nextY = y + EdgeCosts.dy(d);
+                if(!map.inBounds(nextX, nextY)){
+                    continue; //off the map
+                }
+                TiledMap.Tile at = read(nextX, nextY);
+                float elevation = at.getElevation(nextX, nextY);
+                double step = EdgeCosts.stepCost(d, at.getTerrain(season, nextX, nextY), (double) elevation - elevations[node], uphill, downhill);
+                double tempG = g[node] + step;
+                int next = localId(nextY * cols + nextX, elevation);
+                if(tempG >= g[next]){
+                    continue;
+                }
+                g[next] = tempG;
+                parents[next] = node;
+                open.insertOrDecrease(next, tempG + estimate(nextX, nextY, elevation, goalX, goalY, goalElevation));
+            }
+        }
+        return Route.none(expanded, stats(startTime));
+    }
+
+    /**
+     * @return how many cells the last search reached
+     */
+    public int getReached() {
+        return count;
+    }
+
+    private static double estimate(int x, int y, double elevation, int goalX, int goalY, double goalElevation){
+        return lab1.calculateHn(x - goalX, y - goalY, elevation - goalElevation);
+    }
+
+    private SearchStats stats(long startTime){
+        return SearchStats.of(open, System.nanoTime() - startTime);
+    }
+
+    private TiledMap.Tile read(int x, int y){
+        if(tile == null || !tile.contains(x, y)){
+            tile = map.tileAt(x, y);
+        }
+        return tile;
+    }
+
+    private int[] path(int node){
+        int length = 0;
+        for(int at = node; at != -1; at = parents[at]){
+            length++;
+        }
+        int[] path = new int[length];
+        for(int at = node; at != -1; at = parents[at]){
+            path[--length] = cells[at];
+        }
+        return path;
+    }
+
+    private void reset(){
+        Arrays.fill(slots, 0);
+        count = 0;
+        open.clear();
+        open.resetCounters();
+    }
+
+    /**
+     * Looks up the local id of a cell, giving it one with g = infinity if it has none yet
+     */
+    private int localId(int cell, float elevation){
+        int mask = slots.length - 1;
+        int slot = hash(cell) & mask;
+        while(slots[slot] != 0){
+            int id = slots[slot] - 1;
+            if(cells[id] == cell){
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int id = count++;
+        if(id == cells.length){
+            int capacity = cells.length * 2;
+            cells = Arrays.copyOf(cells, capacity);
+            elevations = Arrays.copyOf(elevations, capacity);
+            g = Arrays.copyOf(g, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            open.grow(capacity);
+        }
+        cells[id] = cell;
+        elevations[id] = elevation;
+        g[id] = Double.POSITIVE_INFINITY;
+        slots[slot] = id + 1;
+        if(count * 2 > slots.length){
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash(){
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for(int id = 0; id < count; id++){
+            int slot = hash(cells[id]) & mask;
+            while(slots[slot] != 0){
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    private static int hash(int cell){
+        int h = cell * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
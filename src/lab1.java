@@ -9,109 +9,85 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 public class lab1 {
 
+    //neighbor offsets, in the order getNeighbors has always returned them
+    private static final int[] NEIGHBOR_DX = {-1, -1, 1, 1, -1, 0, 0, 1};
+    private static final int[] NEIGHBOR_DY = {-1, 1, -1, 1, 0, -1, 1, 0};
+
     /***
-     * Loads colors of each pixel from image into 2d array.
+     * Classifies the terrain of each pixel in the image.
      * @param image: terrain map
      * @param rows: height of image
      * @param cols: width of image
-     * @return 2d Color array
+     * @return terrain ordinals in row-major order (index = y * cols + x)
      */
-    public static Color[][] getColorsFromImg(BufferedImage image, int rows, int cols){
-        //this 2D array is for setting the terrain of the pixels and later for when we have to change/set the pixels by
-        //passing color[x][y].getRGB() into image.setRGB(x,y, color[x][y].getRGB())
-
-        Color[][] colors = new Color[cols][rows]; //cols -> width (395) and rows -> height (500)
-
-        //rows is the height and cols is the width, which is why we switch them. (image.getRGB() takes (width, height) only,
-        //not (height, width). This is col major order.
-        for (int col = 0; col < cols; col++) {
-            for (int row = 0; row < rows; row++) {
-                colors[col][row] = new Color(image.getRGB(col, row));
-            }
+    public static byte[] getTerrainFromImg(BufferedImage image, int rows, int cols){
+        if(image.getHeight() != rows || image.getWidth() != cols){
+            throw new IllegalArgumentException("Image is " + image.getWidth() + "x" + image.getHeight() + ", not " + cols + "x" + rows);
         }
-        return colors;
+        return TerrainClassifier.classify(image).getTerrain();
     }
 
     /***
-     * Reads elevations from file into 2d arraylist
+     * Reads elevations from file into a flat array
      * @param elevationFileName: name of elevation file
      * @param cols: width of image
-     * @return 2d elevations list
+     * @param rows: height of image
+     * @return elevations in row-major order (index = y * cols + x)
+     * @throws IOException if the file can't be read or its size doesn't match the image
      */
-    public static ArrayList<ArrayList<Double>> readElevationFile(String elevationFileName, int cols){
-        ArrayList<ArrayList<Double>> elevations = new ArrayList<>();
-        try {
-            File file = new File(elevationFileName);
-            Scanner scanner = new Scanner(file);
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine().trim();
-                String[] values = line.split("\\s+");
-                ArrayList<Double> row = new ArrayList<>();
-                for(int i = 0; i < cols; i++){
-                    double value = Double.parseDouble(values[i]);
-                    row.add(value);
-                }
-                elevations.add(row);
-            }
-            scanner.close();
-        } catch (FileNotFoundException e) {
-            System.out.println("File couldn't be found.");
-            e.printStackTrace();
-        }
-        //System.out.println(elevations.get(0).size());
-
-        //System.out.println(elevations.get(499).get(394)); normally 499 would be i and 394 would be j to
-        //correspond to [499][394] (which is the row-major convention) but the coordinates on map are col-major
-        // ([394][499]). So here, technically, 499 is "j" and 394 is "i", and the colors grid is [j][i] and hence grabbing
-        // a particular elevation would be done using elevations.get(j).get(i).
-        return elevations;
+    public static float[] readElevationFile(String elevationFileName, int cols, int rows) throws IOException {
+        return ElevationLoader.load(elevationFileName, cols, rows);
     }
 
     /***
-     * Retrieves pixels from image into 2d array
-     * @param cols:width of image
-     * @param rows: height of image
-     * @param colors: colors array corresponding to each pixel
-     * @param elevations: elevations list corresponding to each pixel
-     * @return the 2d array of Pixels
+     * Builds the terrain grid for a map
+     * @param image: terrain map
+     * @param elevationFileName: name of elevation file
+     * @return the grid holding terrain and elevation of every pixel
+     * @throws IOException if the elevation file can't be read
      */
-    public static Pixel[][] getPixels(int cols, int rows, Color[][] colors, ArrayList<ArrayList<Double>> elevations){
-        Pixel[][] pixels = new Pixel[cols][rows];
-        for (int col = 0; col < cols; col++) { //cols is 395
-            for (int row = 0; row < rows; row++) { //rows is 500
-                double elevation = elevations.get(row).get(col);
-                Color color = colors[col][row];
-                Pixel pixel = new Pixel(col, row, elevation, findTerrainType(color), null, 0, Double.POSITIVE_INFINITY, 0);
-                pixels[col][row] = pixel;
-            }
+    public static TerrainGrid loadGrid(BufferedImage image, String elevationFileName) throws IOException {
+        int rows = image.getHeight();
+        int cols = image.getWidth();
+        TerrainClassifier classified = TerrainClassifier.classify(image);
+        //colours outside the legend are treated as out of bounds, but worth knowing about
+        for(Map.Entry<Integer, Integer> color: classified.getUnknownColors().entrySet()){
+            System.out.println(String.format("Warning: %d pixels of unknown colour #%06X treated as out of bounds", color.getValue(), color.getKey()));
         }
-        return pixels;
+        byte[] terrain = classified.getTerrain();
+        float[] elevations = readElevationFile(elevationFileName, cols, rows);
+        return new TerrainGrid(cols, rows, terrain, elevations);
     }
 
     /**
      * Retrieves sequence of points to visit during orienteering event
      * @param pathFileName: name of path file
-     * @param colors: 2d array of colors
-     * @param elevations: 2d list of elevations
+     * @param grid: the terrain grid
      * @return list of points to visit during A* search
      */
-    public static List<Pixel> readPathFile(String pathFileName, Color[][] colors, ArrayList<ArrayList<Double>> elevations){
+    public static List<Pixel> readPathFile(String pathFileName, TerrainGrid grid){
         List<Pixel> path = new ArrayList<>();
         try {
             File file = new File(pathFileName);
             Scanner scanner = new Scanner(file);
             while (scanner.hasNextLine()) {
                 String line = scanner.nextLine().trim();
+                if(line.isEmpty()){
+                    continue;
+                }
                 String[] values = line.split("\\s+");
                 int x = Integer.parseInt(values[0]);
                 int y = Integer.parseInt(values[1]);
-                double elevation = elevations.get(y).get(x);
-                Color color = colors[x][y];
-                Pixel pixel = new Pixel(x, y, elevation, findTerrainType(color), null, 0, Double.POSITIVE_INFINITY, 0);
+                int index = grid.index(x, y);
+                Pixel pixel = new Pixel(x, y, grid.getElevation(index), grid.getType(index));
                 path.add(pixel);
             }
             scanner.close();
@@ -124,50 +100,12 @@ public class lab1 {
 
     /**
      * Gets the terraintype of a Pixel based on its color
-     * @param color: color of a Pixel
+     * @param rgb: packed rgb color of a Pixel, as returned by BufferedImage.getRGB
      * @return the terrain type of a pixel
      */
-    public static Pixel.TerrainType findTerrainType(Color color){
-        int red = color.getRed();
-        int green = color.getGreen();
-        int blue = color.getBlue();
-        if(red == 248 && green == 148 && blue == 18){
-            return Pixel.TerrainType.OPEN_LAND;
-        }
-        if(red == 255 && green == 192 && blue == 0){
-            return Pixel.TerrainType.ROUGH_MEADOW;
-        }
-        if(red == 255 && green == 255 && blue == 255){
-            return Pixel.TerrainType.EASY_MOVEMENT_FOREST;
-        }
-        if(red == 2 && green == 208 && blue == 60){
-            return Pixel.TerrainType.SLOW_RUN_FOREST;
-        }
-        if(red == 2 && green == 136 && blue == 40){
-            return Pixel.TerrainType.WALK_FOREST;
-        }
-        if(red == 5 && green == 73 && blue == 24){
-            return Pixel.TerrainType.IMPASSIBLE_VEGETATION;
-        }
-        if(red == 0 && green == 0 && blue == 255){
-            return Pixel.TerrainType.LAKE;
-        }
-        if(red == 71 && green == 51 && blue == 3){
-            return Pixel.TerrainType.PAVED_ROAD;
-        }
-        if(red == 0 && green == 0 && blue == 0){
-            return Pixel.TerrainType.FOOTPATH;
-        }
-        if(red == 255 && green == 69 && blue == 0){
-            return Pixel.TerrainType.LEAFY_FOOTPATH;
-        }
-        if(red == 124 && green == 252 && blue == 252){
-            return Pixel.TerrainType.ICE;
-        }
-        if(red == 141 && green == 76 && blue == 0){
-            return Pixel.TerrainType.MUDDY;
-        }
-        return Pixel.TerrainType.OUT_OF_BOUNDS;
+    public static Pixel.TerrainType findTerrainType(int rgb){
+        int type = TerrainClassifier.lookup(rgb);
+        return type == -1 ? Pixel.TerrainType.OUT_OF_BOUNDS : Pixel.TerrainType.values()[type];
     }
 
     /**
@@ -214,6 +152,9 @@ public class lab1 {
         if(type == Pixel.TerrainType.MUDDY){
             return 6.2;
         }
+        if(type == Pixel.TerrainType.CLOSED){
+            return Double.POSITIVE_INFINITY;
+        }
         return 8.0;
     }
 
@@ -230,250 +171,275 @@ public class lab1 {
                 );
     }
 
+    /**
+     * Calculates the distance between two cells of the grid
+     * @param grid - the terrain grid
+     * @param a - index of cell 1
+     * @param b - index of cell 2
+     * @return the distance
+     */
+    public static double distance(TerrainGrid grid, int a, int b){
+        double dx = grid.getX(a) - grid.getX(b);
+        double dy = grid.getY(a) - grid.getY(b);
+        double dz = grid.getElevation(a) - grid.getElevation(b);
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
     /**
      * Calculates the heuristic value of a particular pixel
-     * @param curr - the pixel we're calculating the heuristic for
+     * @param grid - the terrain grid
+     * @param curr - the cell we're calculating the heuristic for
      * @param goal - the destination
      * @return - H(n)
      */
-    public static double calculateHn(Pixel curr, Pixel goal){
-        double distance = distance(curr, goal);
-        return distance * getSpeedModifier(Pixel.TerrainType.FOOTPATH); //lowest speed modifier
+    public static double calculateHn(TerrainGrid grid, int curr, int goal){
+        return calculateHn(grid.getX(curr) - grid.getX(goal), grid.getY(curr) - grid.getY(goal),
+                grid.getElevation(curr) - grid.getElevation(goal));
     }
 
     /**
-     * Calcaulates the G(n) of a particualr pixel
-     * @param parent- parent of pixel
-     * @param curr - pixel we are calculating G(n) for
-     * @return the G(n) cost
+     * Calculates the heuristic value from how far a cell is from the destination
+     * @param dx - difference in x, in pixels
+     * @param dy - difference in y, in pixels
+     * @param dz - difference in elevation
+     * @return - H(n)
      */
-    public static double calculateGn(Pixel parent, Pixel curr){
-        double parentG = parent.getG();
-
-        //moving horizontally
-        if(parent.getY() == curr.getY()){
-            return parentG + (10.29 * getSpeedModifier(curr.getType()));
-        }
-        //moving vertically
-        else if(parent.getX() == curr.getX()){
-            return parentG + (7.55 * getSpeedModifier(curr.getType()));
-        }
-        //moving diagonally
-        double hypotenuse = Math.sqrt(Math.pow(10.29, 2) + Math.pow(7.55, 2));
-        return parentG + (hypotenuse * getSpeedModifier(curr.getType()));
-
-        //return parentG + (distance(parent, curr) * getSpeedModifier(curr.getType()));
-
+    public static double calculateHn(double dx, double dy, double dz){
+        double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        return distance * getSpeedModifier(Pixel.TerrainType.FOOTPATH); //lowest speed modifier
     }
 
     /**
-     * Calculates F(n) of a particular node
-     * @param node - pixel we are finding f(n) for
-     * @return the F(n)
+     * Calcaulates the G(n) of a particualr pixel
+     * @param grid - the terrain grid
+     * @param parent - index of the parent cell
+     * @param curr - index of the cell we are calculating G(n) for
+     * @param parentG - G(n) of the parent
+     * @return the G(n) cost
      */
-    public static double calculateFn(Pixel node){
-        return node.getG() + node.getH();
+    public static double calculateGn(TerrainGrid grid, int parent, int curr, double parentG){
+        //step length times the speed modifier of curr (and the slope factor), precomputed per grid
+        return parentG + grid.edgeCosts().cost(parent, curr);
     }
 
     /**
-     * Gets all the pixels adjacent to a particular pixel
-     * @param node - current pixel
-     * @param pixels - pixels 2d array
-     * @param cols - width of pixels array
-     * @param rows - height of pixels array
-     * @return the list of neighbors
+     * Gets all the cells adjacent to a particular cell
+     * @param grid - the terrain grid
+     * @param index - current cell
+     * @param neighbors - filled with the indices of the neighbors, room for 8
+     * @return how many neighbors the cell has
      */
-    public static List<Pixel> getNeighbors(Pixel node, Pixel[][] pixels, int cols, int rows){
-        List<Pixel> neighbors = new ArrayList<>();
-        int i = node.getX();
-        int j = node.getY();
-        if (i < cols && j < rows && i >= 1 && j >= 1) {
-            neighbors.add(pixels[i-1][j-1]);
-        }
-        if (i < cols && j < rows-1 && i >= 1 && j >= 0) {
-            neighbors.add(pixels[i-1][j+1]);
-        }
-        if (i < cols-1 && j < rows && i >= 0 && j >= 1) {
-            neighbors.add(pixels[i+1][j-1]);
-        }
-        if (i < cols-1 && j < rows-1 && i >= 0 && j >= 0) {
-            neighbors.add(pixels[i+1][j+1]);
-        }
-        if (i < cols && j < rows && i >= 1 && j >= 0) {
-            neighbors.add(pixels[i-1][j]);
-        }
-        if (i < cols && j < rows && i >= 0 && j >= 1) {
-            neighbors.add(pixels[i][j-1]);
-        }
-        if (i < cols && j < rows-1 && i >= 0 && j >= 0) {
-            neighbors.add(pixels[i][j+1]);
-        }
-        if (i < cols-1 && j < rows && i >= 0 && j >= 0) {
-            neighbors.add(pixels[i+1][j]);
+    public static int getNeighbors(TerrainGrid grid, int index, int[] neighbors){
+        int cols = grid.getCols();
+        int i = grid.getX(index);
+        int j = grid.getY(index);
+        int count = 0;
+        for(int d = 0; d < 8; d++){
+            int x = i + NEIGHBOR_DX[d];
+            int y = j + NEIGHBOR_DY[d];
+            if(grid.inBounds(x, y)){
+                neighbors[count++] = y * cols + x;
+            }
         }
-        return neighbors;
+        return count;
     }
 
     /**
      * Builds path from A* search
+     * @param parents - parent index of every cell, -1 for the start
      * @param node the last node that was visited in the path.
-     * @return a newly built path
+     * @return the cell indices of the path, start first
      */
-    public static List<Pixel> constructPath(Pixel node) {
-        LinkedList<Pixel> path = new LinkedList<>();
-        while(node != null){
-            path.addFirst(node);
-            node = node.getParent();
+    public static int[] constructPath(int[] parents, int node) {
+        int length = 0;
+        for(int n = node; n != -1; n = parents[n]){
+            length++;
         }
-        List<Pixel> list = new ArrayList<>(path);
-        return list;
+        int[] path = new int[length];
+        for(int n = node; n != -1; n = parents[n]){
+            path[--length] = n;
+        }
+        return path;
     }
 
     /**
      * The fucntion that carries out A* search
-     * @param start: the start pixel
-     * @param goal: the destination pixel
-     * @param pixels: 2d array of pixels
-     * @param cols: the width of board
-     * @param rows: the height of board
-     * @return the shortest path found during search
-     */
-    public static List<Pixel> aStar(Pixel start, Pixel goal, Pixel[][] pixels, int cols, int rows){
-        int startX = start.getX();
-        int startY = start.getY();
-
-        int goalX = goal.getX();
-        int goalY = goal.getY();
-
-        Pixel startNode = pixels[startX][startY];
-        Pixel goalNode = pixels[goalX][goalY];
-        Queue<Pixel> openList = new PriorityQueue<>();
-        Set<Pixel> explored = new HashSet<>();
-
-        startNode.setH(distance(startNode, goalNode));
-        startNode.setG(0.0);
-        startNode.setF(startNode.getH());
-        openList.add(startNode);
-        List<Pixel> route = new ArrayList<>();
+     * @param grid: the terrain grid
+     * @param start: index of the start cell
+     * @param goal: index of the destination cell
+     * @param workspace: search state owned by this search, reset before use
+     * @param heuristic: H(n), calculateHn unless a better bound is available
+     * @param corridor: cells the search may enter, null for the whole grid
+     * @return the shortest route found during search, empty if there is none
+     */
+    public static Route aStar(TerrainGrid grid, int start, int goal, SearchWorkspace workspace, Heuristic heuristic, BitSet corridor){
+        long startTime = System.nanoTime();
+        workspace.reset();
+        OpenList openList = workspace.getOpenList();
+        EdgeCosts costs = grid.edgeCosts();
+
+        workspace.setG(start, 0.0, -1);
+        openList.insert(start, heuristic.estimate(start, goal));
+        int expanded = 0;
 
         while(!openList.isEmpty()){
-            Pixel node = openList.remove();
-            explored.add(node);
-            if(node.equals(goalNode)){
-                List<Pixel> list = constructPath(goalNode);
-                route = new ArrayList<>(list);
-                break;
+            int node = openList.poll();
+            expanded++;
+            double nodeG = workspace.getG(node);
+            if(node == goal){
+                return new Route(constructPath(workspace.getParents(), goal), nodeG, expanded, SearchStats.of(openList, System.nanoTime() - startTime));
             }
-            List<Pixel> neighbors = getNeighbors(node, pixels, cols, rows);
-            for(Pixel neighbor: neighbors){
-                double tempG = calculateGn(node, neighbor);
-                if(explored.contains(neighbor) && tempG >= neighbor.getG()){
+            for(int d = 0; d < EdgeCosts.DIRECTIONS; d++){
+                double step = costs.get(node, d);
+                if(step == Double.POSITIVE_INFINITY){
+                    continue; //off the map or closed
+                }
+                int neighbor = costs.neighbor(node, d);
+                if(corridor != null && !corridor.get(neighbor)){
                     continue;
                 }
-                if(!openList.contains(neighbor) || tempG < neighbor.getG()){
-                    neighbor.setParent(node);
-                    neighbor.setG(tempG);
-                    neighbor.setH(calculateHn(neighbor, goal));
-                    neighbor.setF(calculateFn(neighbor));
-
-                    if(openList.contains(neighbor)) {
-                        openList.remove(neighbor);
-                    }
-
-                    openList.add(neighbor);
+                double tempG = nodeG + step;
+                //covers both the open and the explored case, so no closed set is kept: a node is only
+                //(re)queued on a cheaper g, which reopens an expanded node when the heuristic isn't consistent
+                if(tempG >= workspace.getG(neighbor)){
+                    continue;
                 }
+                workspace.setG(neighbor, tempG, node);
+                openList.insertOrDecrease(neighbor, tempG + heuristic.estimate(neighbor, goal));
             }
         }
+        return Route.none(expanded, SearchStats.of(openList, System.nanoTime() - startTime));
+    }
 
-        for(Pixel pixel: explored){
-            int x = pixel.getX();
-            int y = pixel.getY();
-            Pixel p = pixels[x][y];
-            p.setParent(null);
-            p.setH(0.0);
-            p.setG(Double.POSITIVE_INFINITY);
-            p.setF(0.0);
-        }
+    /**
+     * A* search over the whole grid
+     * @param grid: the terrain grid
+     * @param start: index of the start cell
+     * @param goal: index of the destination cell
+     * @param workspace: search state owned by this search, reset before use
+     * @param heuristic: H(n), calculateHn unless a better bound is available
+     * @return the shortest route found during search, empty if there is none
+     */
+    public static Route aStar(TerrainGrid grid, int start, int goal, SearchWorkspace workspace, Heuristic heuristic){
+        return aStar(grid, start, goal, workspace, heuristic, null);
+    }
 
-        return route;
+    /**
+     * A* search using calculateHn as its heuristic
+     * @param grid: the terrain grid
+     * @param start: index of the start cell
+     * @param goal: index of the destination cell
+     * @param workspace: search state owned by this search, reset before use
+     * @return the shortest route found during search, empty if there is none
+     */
+    public static Route aStar(TerrainGrid grid, int start, int goal, SearchWorkspace workspace){
+        return aStar(grid, start, goal, workspace, straightLine(grid));
+    }
+
+    /**
+     * The default heuristic
+     * @param grid: the terrain grid
+     * @return calculateHn on the grid
+     */
+    public static Heuristic straightLine(TerrainGrid grid){
+        return (from, to) -> calculateHn(grid, from, to);
+    }
+
+    /**
+     * A heuristic that stays consistent however the grid is relabeled: calculateHn adds elevation to
+     * a distance in pixels, so on steep ground it can drop by more than a step costs. Along a footpath
+     * the bound drops by exactly what a step costs, so it is shaved a little to keep rounding from
+     * making it drop by more.
+     * @param grid: the terrain grid
+     * @return EdgeCosts.lowerBound between the cells, less one part in a billion
+     */
+    public static Heuristic lowerBound(TerrainGrid grid){
+        return (from, to) -> EdgeCosts.lowerBound(grid.getX(to) - grid.getX(from), grid.getY(to) - grid.getY(from)) * (1.0 - 1e-9);
+    }
+
+    /**
+     * A* search with a workspace of its own
+     * @param grid: the terrain grid
+     * @param start: index of the start cell
+     * @param goal: index of the destination cell
+     * @return the shortest route found during search, empty if there is none
+     */
+    public static Route aStar(TerrainGrid grid, int start, int goal){
+        return aStar(grid, start, goal, new SearchWorkspace(grid.size()));
+    }
+
+    /**
+     * Marks every cell of the grid whose terrain type is in the set
+     * @param grid: the terrain grid
+     * @param overlay: cells to relabel
+     * @param type: terrain type they get
+     */
+    public static void applyOverlay(TerrainGrid grid, BitSet overlay, Pixel.TerrainType type){
+        for(int i = overlay.nextSetBit(0); i >= 0; i = overlay.nextSetBit(i + 1)){
+            grid.setType(i, type);
+        }
     }
 
     /**
      * Handles what occurs during the season of fall
-     * @param pixels: 2d board of pixels
-     * @param colors: 2d array of colors
-     * @param cols: width of pixels array
-     * @param rows: height of pixels array
-     * @return list of pixels that are changed during fall
-     */
-    public static HashSet<Pixel> fall(Pixel[][] pixels, Color[][] colors, int cols, int rows){
-        HashSet<Pixel> changedPixels = new HashSet<>();
-        for(int col = 0; col < cols; col++) {
-            for(int row = 0; row < rows; row++) {
-                if(pixels[col][row].getType() == Pixel.TerrainType.FOOTPATH){
-                    Pixel pixel = pixels[col][row];
-                    List<Pixel> neighbors = getNeighbors(pixel, pixels, cols, rows);
-                    for(Pixel neighbor: neighbors){
-                        if(neighbor.getType() == Pixel.TerrainType.EASY_MOVEMENT_FOREST){
-                            pixel.setType(Pixel.TerrainType.LEAFY_FOOTPATH);
-                            colors[col][row] = new Color(255, 69, 0);
-                            changedPixels.add(pixel);
-                            break;
-                        }
+     * @param grid: the terrain grid
+     * @return the cells that turn into leafy footpaths during fall
+     */
+    public static BitSet fall(TerrainGrid grid){
+        BitSet changed = new BitSet(grid.size());
+        int[] neighbors = new int[8];
+        for(int index = 0; index < grid.size(); index++) {
+            if(grid.getType(index) == Pixel.TerrainType.FOOTPATH){
+                int count = getNeighbors(grid, index, neighbors);
+                for(int k = 0; k < count; k++){
+                    int neighbor = neighbors[k];
+                    if(grid.getType(neighbor) == Pixel.TerrainType.EASY_MOVEMENT_FOREST){
+                        changed.set(index);
+                        break;
                     }
                 }
             }
         }
-        return changedPixels;
+        return changed;
     }
 
     /**
      * Handles what occurs during the season of winter
-     * @param pixels: 2d board of pixels
-     * @param cols: width of pixels array
-     * @param rows: height of pixels array
-     * @return list of pixels that are changed during fall
-     */
-    public static HashSet<Pixel> winter(Pixel[][] pixels, int cols, int rows) {
-        List<Pixel> waterEdgePixels = new ArrayList<>();
-        for(int col = 0; col < cols; col++) {
-            for(int row = 0; row < rows; row++) {
-                if(pixels[col][row].getType() == Pixel.TerrainType.LAKE) {
-                    Pixel pixel = pixels[col][row];
-                    List<Pixel> neighbors = getNeighbors(pixel, pixels, cols, rows);
-                    for(Pixel neighbor : neighbors) {
-                        if(neighbor.getType() != Pixel.TerrainType.LAKE) { //get edges of water
-                            waterEdgePixels.add(pixel);
-                            break;
-                        }
+     * @param grid: the terrain grid
+     * @return the lake cells that freeze over during winter
+     */
+    public static BitSet winter(TerrainGrid grid) {
+        int size = grid.size();
+        int[] queue = new int[size];
+        int head = 0;
+        int tail = 0;
+        BitSet visited = new BitSet(size);
+        int[] neighbors = new int[8];
+        for(int index = 0; index < size; index++) {
+            if(grid.getType(index) == Pixel.TerrainType.LAKE) {
+                int count = getNeighbors(grid, index, neighbors);
+                for(int k = 0; k < count; k++){
+                    int neighbor = neighbors[k];
+                    if(grid.getType(neighbor) != Pixel.TerrainType.LAKE) { //get edges of water
+                        queue[tail++] = index;
+                        visited.set(index);
+                        break;
                     }
                 }
             }
         }
 
-        //BFS: we explore all neighbors before moving down a depth
-        //Queue<Pair<Pixel, Integer>>  queue = new LinkedList<>();
-        Queue<PixelDepthTuple> queue = new LinkedList<>();
-        for(Pixel pixel: waterEdgePixels){
-            PixelDepthTuple tuple = new PixelDepthTuple(pixel, 0);
-            queue.add(tuple);
-        }
-        HashSet<Pixel> visited = new HashSet<>(waterEdgePixels);
-        while(!queue.isEmpty()){
-            PixelDepthTuple tuple = queue.remove();
-            Pixel pixel = tuple.getPixel();
-            int depth = tuple.getDepth();
-            if(depth == 6){
-                break;
-            }
-            List<Pixel> neighbors = getNeighbors(pixel, pixels, cols, rows);
-            for(Pixel neighbor: neighbors){
-                if(neighbor.getType() == Pixel.TerrainType.LAKE){
-                    if(!visited.contains(neighbor)){
-                        int neighborDepth = depth + 1;
-                        PixelDepthTuple neighborTuple = new PixelDepthTuple(neighbor, neighborDepth);
-                        queue.add(neighborTuple);
-                        visited.add(neighbor);
+        //BFS: we explore all neighbors before moving down a depth, one depth level per pass
+        for(int depth = 0; depth < 6 && head < tail; depth++){
+            int levelEnd = tail;
+            while(head < levelEnd){
+                int index = queue[head++];
+                int count = getNeighbors(grid, index, neighbors);
+                for(int k = 0; k < count; k++){
+                    int neighbor = neighbors[k];
+                    if(grid.getType(neighbor) == Pixel.TerrainType.LAKE && !visited.get(neighbor)){
+                        queue[tail++] = neighbor;
+                        visited.set(neighbor);
                     }
                 }
             }
@@ -482,69 +448,67 @@ public class lab1 {
     }
 
     /**
-     * Handles what occurs during the season of spring
-     * @param pixels: 2d board of pixels
-     * @param cols: width of pixels array
-     * @param rows: height of pixels array
-     * @return list of pixels that are changed during spring
-     */
-    public static HashSet<Pixel> spring(Pixel[][] pixels, int cols, int rows){
-        HashSet<Pixel> shorePixels = new HashSet<>();
-        HashMap<Pixel, Pixel> neighborMap = new HashMap<>();
-        for(int col = 0; col < cols; col++) {
-            for(int row = 0; row < rows; row++) {
-                if(pixels[col][row].getType() == Pixel.TerrainType.LAKE) {
-                    Pixel pixel = pixels[col][row];
-                    List<Pixel> neighbors = getNeighbors(pixel, pixels, cols, rows);
-                    for(Pixel neighbor : neighbors) {
-                        if(neighbor.getType() != Pixel.TerrainType.LAKE) {//get shore surrounding water
-                            if(!shorePixels.contains(neighbor)){
-                                shorePixels.add(neighbor);
-                                neighborMap.put(neighbor, pixel);
-                            }
-
-                        }
+     * Handles what occurs during the season of spring. Which lake cell a shore cell ends up measured
+     * against depends on the order the BFS visits the shore, so the result is only reproducible for a
+     * fixed order; the Pixel version started from a HashSet and changed with the JVM's identity hashes.
+     * @param grid: the terrain grid
+     * @return the cells that turn muddy during spring
+     */
+    public static BitSet spring(TerrainGrid grid){
+        int size = grid.size();
+        int[] queue = new int[size];
+        int[] depths = new int[size];
+        int[] water = new int[size]; //lake cell each shore cell is measured against
+        int head = 0;
+        int tail = 0;
+        BitSet visited = new BitSet(size);
+        int[] neighbors = new int[8];
+        //column by column like the original scan: which lake cell a shore cell is measured against,
+        //and the order the BFS starts from, both depend on it
+        for(int x = 0; x < grid.getCols(); x++) {
+            for(int y = 0; y < grid.getRows(); y++) {
+                int index = grid.index(x, y);
+                if(grid.getType(index) != Pixel.TerrainType.LAKE) {
+                    continue;
+                }
+                int count = getNeighbors(grid, index, neighbors);
+                for(int k = 0; k < count; k++){
+                    int neighbor = neighbors[k];
+                    if(grid.getType(neighbor) != Pixel.TerrainType.LAKE && !visited.get(neighbor)) {//get shore surrounding water
+                        visited.set(neighbor);
+                        water[neighbor] = index;
+                        depths[neighbor] = 0;
+                        queue[tail++] = neighbor;
                     }
                 }
             }
         }
         //BFS: we explore all neighbors before moving down a depth
-        Queue<PixelDepthTuple> queue = new LinkedList<>();
-        HashSet<Pixel> affected = new HashSet<>();
-        for(Pixel pixel: shorePixels){
-            PixelDepthTuple tuple = new PixelDepthTuple(pixel, 0);
-            queue.add(tuple);
-        }
-        HashSet<Pixel> visited = new HashSet<>(shorePixels);
-        while(!queue.isEmpty()) {
-            PixelDepthTuple tuple = queue.remove();
-            Pixel pixel = tuple.getPixel();
-            int depth = tuple.getDepth();
-            visited.add(pixel);
-            Pixel predecessor = neighborMap.get(pixel);
-            double elevation = pixel.getZ();
-            double waterElevation = predecessor.getZ();
-            double difference = Math.abs(elevation - waterElevation);
-            if (depth == 15) {
+        BitSet affected = new BitSet(size);
+        while(head < tail) {
+            int index = queue[head++];
+            int predecessor = water[index];
+            double waterElevation = grid.getElevation(predecessor);
+            if (depths[index] == 15) {
                 break;
             }
-            if (difference <= 8.0) {
-                affected.add(pixel);
+            if (Math.abs(grid.getElevation(index) - waterElevation) <= 8.0) {
+                affected.set(index);
             }
 
-            List<Pixel> neighbors = getNeighbors(pixel, pixels, cols, rows);
-            for (Pixel neighbor : neighbors) {
-                if (neighbor.getType() != Pixel.TerrainType.LAKE) {
-                    if (Math.abs(neighbor.getZ() - waterElevation) <= 8.0) {
-                        affected.add(neighbor);
+            int count = getNeighbors(grid, index, neighbors);
+            for (int k = 0; k < count; k++) {
+                int neighbor = neighbors[k];
+                if (grid.getType(neighbor) != Pixel.TerrainType.LAKE) {
+                    if (Math.abs(grid.getElevation(neighbor) - waterElevation) <= 8.0) {
+                        affected.set(neighbor);
                     }
-                    if (!visited.contains(neighbor)) {
-                        int neighborDepth = depth + 1;
-                        PixelDepthTuple neighborTuple = new PixelDepthTuple(neighbor, neighborDepth);
-                        queue.add(neighborTuple);
-                        visited.add(neighbor);
+                    if (!visited.get(neighbor)) {
+                        depths[neighbor] = depths[index] + 1;
+                        queue[tail++] = neighbor;
+                        visited.set(neighbor);
                     }
-                    neighborMap.put(neighbor, predecessor);
+                    water[neighbor] = predecessor;
                 }
             }
         }
@@ -552,129 +516,656 @@ public class lab1 {
     }
 
     /**
-     * Main function
-     * @param args command line arguments
+     * Compiles a map into a bundle that later runs can pass in place of the elevation file
+     * @param terrainImgName: terrain image
+     * @param elevationFileName: elevation file
+     * @param bundleFileName: bundle to write
      */
-    public static void main(String[] args){
-        if(args.length != 5){
-            System.out.println("Missing args");
-            return;
+    public static void compileBundle(String terrainImgName, String elevationFileName, String bundleFileName){
+        try {
+            BufferedImage image = ImageIO.read(new File(terrainImgName));
+            TerrainGrid grid = loadGrid(image, elevationFileName);
+            MapBundle.compile(grid, bundleFileName);
+            System.out.println("Wrote " + bundleFileName);
+        } catch (IOException ioe) {
+            System.out.println("Couldn't compile map: " + ioe.getMessage());
         }
-        String terrainImgName = args[0];
-        String elevationFileName = args[1];
-        String pathFileName = args[2];
-        String season = args[3];
-        String outputImgName = args[4];
+    }
 
-        File inputFile = new File(terrainImgName);
+    /**
+     * Builds the heuristic selected with --heuristic
+     * @param grid: the terrain grid of the season
+     * @param season: the season
+     * @param options: command line options. --heuristic=alt uses landmarks, read from and saved to
+     *               --landmarks=prefix (one prefix-season.alt file per season) when given;
+     *               --landmark-count sets how many landmarks are computed
+     * @return the heuristic
+     * @throws IOException if a landmark file can't be written
+     */
+    public static Heuristic createHeuristic(TerrainGrid grid, Season season, Map<String, String> options) throws IOException {
+        String name = options.getOrDefault("heuristic", "straight-line");
+        if(name.equals("straight-line")){
+            return straightLine(grid);
+        }
+        if(!name.equals("alt")){
+            throw new IllegalArgumentException("Unknown heuristic: " + name);
+        }
+        int count = Integer.parseInt(options.getOrDefault("landmark-count", String.valueOf(Landmarks.DEFAULT_COUNT)));
+        String prefix = options.get("landmarks");
+        if(prefix == null){
+            return Landmarks.compute(grid, count);
+        }
+        return Landmarks.loadOrCompute(landmarkFileName(prefix, season), grid, count);
+    }
 
-        BufferedImage image = null;
+    private static String landmarkFileName(String prefix, Season season){
+        return prefix + "-" + season.name().toLowerCase() + ".alt";
+    }
+
+    /**
+     * Precomputes landmarks for every season of a map
+     * @param terrainImgName: terrain image
+     * @param elevationFileName: elevation file or bundle
+     * @param prefix: landmark files are written to prefix-season.alt
+     * @param count: number of landmarks per season
+     */
+    public static void computeLandmarks(String terrainImgName, String elevationFileName, String prefix, int count){
         try {
-            image = ImageIO.read(inputFile);
+            SeasonalMap map = SeasonalMap.load(ImageIO.read(new File(terrainImgName)), elevationFileName);
+            for(Season season: Season.values()){
+                Landmarks.compute(map.getGrid(season), count).save(landmarkFileName(prefix, season));
+                System.out.println("Wrote " + landmarkFileName(prefix, season));
+            }
         } catch (IOException ioe) {
-            ioe.printStackTrace();
+            System.out.println("Couldn't compute landmarks: " + ioe.getMessage());
         }
-        assert image != null;
+    }
 
-        int rows = image.getHeight();
-        int cols = image.getWidth();
+    /**
+     * Precomputes the contraction hierarchy of one season of a map
+     * @param terrainImgName: terrain image
+     * @param elevationFileName: elevation file or bundle
+     * @param season: the season whose overlay the hierarchy is built on
+     * @param hierarchyFileName: file to write
+     */
+    public static void contractMap(String terrainImgName, String elevationFileName, Season season, String hierarchyFileName){
+        try {
+            SeasonalMap map = SeasonalMap.load(ImageIO.read(new File(terrainImgName)), elevationFileName);
+            long start = System.nanoTime();
+            ContractionHierarchy hierarchy = ContractionHierarchy.build(map.getGrid(season));
+            hierarchy.save(hierarchyFileName);
+            System.out.println("Wrote " + hierarchyFileName + " (" + hierarchy.getEdgeCount() + " edges, "
+                    + (System.nanoTime() - start) / 1000000 + " ms)");
+        } catch (IOException ioe) {
+            System.out.println("Couldn't contract map: " + ioe.getMessage());
+        }
+    }
 
-        Color[][] colors = getColorsFromImg(image, rows, cols);
-        //Be careful. The colors grid is based on the map grid, which is 395 width x 500 height. In row-major order,
-        // this is [500][395]. But we wrote them as [395][500] because the coordinates on the map are col-major. Keep
-        //in mind though that the elevations still are row-major.
-        ArrayList<ArrayList<Double>> elevations = readElevationFile(elevationFileName, cols);
-        List<Pixel> path = readPathFile(pathFileName, colors, elevations);
-        Pixel[][] pixels = getPixels(cols, rows, colors, elevations);
-        HashSet<Pixel> affectedPixels = new HashSet<>();
-        switch (season) {
-            case "fall":
-                fall(pixels, colors, cols, rows);
-                break;
-            case "winter": {
-                HashSet<Pixel> affected = winter(pixels, cols, rows);
-                affectedPixels.addAll(affected);
-                for (Pixel pixel : affectedPixels) {
-                    int x = pixel.getX();
-                    int y = pixel.getY();
-                    Pixel p = pixels[x][y];
-                    p.setType(Pixel.TerrainType.ICE);
-                    colors[x][y] = new Color(124, 252, 252);
+    /**
+     * Computes the leg cost matrix between the controls, printing it with --matrix, and with
+     * --optimize[=milliseconds] reorders the controls between start and finish to the cheapest order found
+     * @param grid: the terrain grid of the season
+     * @param path: the controls, in the order of the path file
+     * @param options: command line options
+     * @return the controls in the order they should be visited
+     */
+    public static List<Pixel> planCourse(TerrainGrid grid, List<Pixel> path, Map<String, String> options){
+        int[] controls = new int[path.size()];
+        for(int i = 0; i < controls.length; i++){
+            controls[i] = grid.index(path.get(i).getX(), path.get(i).getY());
+        }
+        long start = System.nanoTime();
+        CostMatrix matrix = CostMatrix.compute(grid, controls);
+        System.out.println("Cost matrix of " + controls.length + " controls: " + (System.nanoTime() - start) / 1000000 + " ms");
+        if(options.containsKey("matrix")){
+            for(int i = 0; i < matrix.size(); i++){
+                StringBuilder row = new StringBuilder();
+                for(int j = 0; j < matrix.size(); j++){
+                    row.append(String.format("%10.1f", matrix.getCost(i, j)));
                 }
-                break;
+                System.out.println(row);
             }
-            case "spring": {
-                HashSet<Pixel> affected = spring(pixels, cols, rows);
-                affectedPixels.addAll(affected);
-                for (Pixel pixel : affectedPixels) {
-                    int x = pixel.getX();
-                    int y = pixel.getY();
-                    Pixel p = pixels[x][y];
-                    p.setType(Pixel.TerrainType.MUDDY);
-                    colors[x][y] = new Color(141, 76, 0);
+        }
+        if(!options.containsKey("optimize") || controls.length < 3){
+            return path;
+        }
+        String budget = options.get("optimize");
+        int[] order = ControlOrder.optimize(matrix, budget.isEmpty() ? 1000 : Long.parseLong(budget), 1);
+        int[] fileOrder = new int[controls.length];
+        StringBuilder visits = new StringBuilder();
+        List<Pixel> planned = new ArrayList<>();
+        for(int i = 0; i < order.length; i++){
+            fileOrder[i] = i;
+            visits.append(i == 0 ? "" : " ").append(order[i] + 1);
+            planned.add(path.get(order[i]));
+        }
+        System.out.println("Visit order: " + visits + " (cost " + matrix.courseCost(order)
+                + ", path file order " + matrix.courseCost(fileOrder) + ")");
+        return planned;
+    }
+
+    /**
+     * Loads maps and answers route queries over HTTP until the process is stopped
+     * @param args: port, then one name=terrain-image,elevation-file-or-bundle per map, optionally
+     *            followed by --max-in-flight=n and the route cache options (see RouteCache.fromOptions)
+     */
+    public static void serve(String[] args){
+        int maxInFlight = RouteServer.DEFAULT_MAX_IN_FLIGHT;
+        Map<String, SeasonalMap> maps = new LinkedHashMap<>();
+        Map<String, String> cacheOptions = new HashMap<>();
+        try {
+            for(int i = 1; i < args.length; i++){
+                if(args[i].startsWith("--max-in-flight=")){
+                    maxInFlight = Integer.parseInt(args[i].substring("--max-in-flight=".length()));
+                    continue;
                 }
-                break;
+                if(args[i].startsWith("--route-cache")){
+                    cacheOptions.putAll(parseOptions(new String[]{args[i]}, 0));
+                    continue;
+                }
+                int eq = args[i].indexOf('=');
+                int comma = args[i].indexOf(',', eq);
+                if(eq <= 0 || comma == -1){
+                    System.out.println("Expected name=terrain-image,elevation-file but got " + args[i]);
+                    return;
+                }
+                String name = args[i].substring(0, eq);
+                maps.put(name, SeasonalMap.load(ImageIO.read(new File(args[i].substring(eq + 1, comma))), args[i].substring(comma + 1)));
+                System.out.println("Loaded map " + name);
             }
+            RouteServer server = new RouteServer(maps, maxInFlight, RouteCache.fromOptions(cacheOptions));
+            int port = server.start(Integer.parseInt(args[0]));
+            System.out.println("Listening on port " + port + (RouteServer.hasVirtualThreads() ? " (virtual threads)" : "")
+                    + ", at most " + maxInFlight + " requests in flight");
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Couldn't start server: " + e.getMessage());
         }
-        List<List<Pixel>> event = new ArrayList<>();
-        double pathLength = 0.0;
-        for(int i = 0; i < path.size() - 1; i++){
-            List<Pixel> route = aStar(path.get(i), path.get(i+1), pixels, cols, rows);
-            double length = distance(path.get(i), path.get(i+1));
-            pathLength += length;
-            if(route != null){
-                event.add(route);
+    }
+
+    /**
+     * Draws a season's overlay and the routes of a course onto the terrain image
+     * @param image: terrain image to draw on
+     * @param grid: the terrain grid the routes were found on
+     * @param affectedPixels: cells the season relabeled
+     * @param season: the season, winter and spring overlays are drawn in their own color
+     * @param event: routes of the legs
+     */
+    public static void drawCourse(BufferedImage image, TerrainGrid grid, BitSet affectedPixels, Season season, List<Route> event){
+        if(season.getColor() != null){
+            int rgb = season.getColor().getRGB();
+            for(int i = affectedPixels.nextSetBit(0); i >= 0; i = affectedPixels.nextSetBit(i + 1)){
+                image.setRGB(grid.getX(i), grid.getY(i), rgb);
             }
         }
-        System.out.println("Total path length in meters: " + pathLength);
 
+        //path drawing
+        Color red = new Color(255, 0, 0);
+        int rgb = red.getRGB();
+
+        for (Route route : event) {
+            for (int index : route.getCells()) {
+                image.setRGB(grid.getX(index), grid.getY(index), rgb);
+            }
+        }
+    }
 
+    /**
+     * Parses options of the form --name or --name=value
+     * @param args: command line arguments
+     * @param first: index of the first option
+     * @return the options by name, null (after saying why) if an argument isn't an option
+     */
+    public static Map<String, String> parseOptions(String[] args, int first){
+        Map<String, String> options = new HashMap<>();
+        for(int i = first; i < args.length; i++){
+            String arg = args[i];
+            if(!arg.startsWith("--")){
+                System.out.println("Unexpected argument: " + arg);
+                return null;
+            }
+            int eq = arg.indexOf('=');
+            options.put(eq == -1 ? arg.substring(2) : arg.substring(2, eq), eq == -1 ? "" : arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    /**
+     * Runs every job of a manifest in one process
+     * @param args: "batch", terrain image, elevation file or bundle, manifest, then options:
+     *            --threads=n jobs at a time (default: one per processor), --summary=file to write
+     *            the summary table to a file, --metrics[=file] to dump the metrics of every job,
+     *            the route cache options (see RouteCache.fromOptions) and the search options of a single run
+     */
+    public static void batch(String[] args){
+        Map<String, String> options = parseOptions(args, 4);
+        if(options == null){
+            return;
+        }
         try {
-            BufferedImage img = null;
+            List<BatchRunner.Job> jobs = BatchRunner.readManifest(args[3], args[1], args[2]);
+            int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+            BatchRunner runner = new BatchRunner(SearchMode.fromName(options.getOrDefault("search", "astar")), options);
+            String summaryFileName = options.get("summary");
+            if(summaryFileName == null){
+                runner.run(jobs, threads, System.out);
+            }
+            else{
+                try (PrintStream summary = new PrintStream(summaryFileName)) {
+                    runner.run(jobs, threads, summary);
+                }
+                System.out.println("Wrote " + summaryFileName);
+            }
+            if(options.containsKey("metrics")){
+                writeMetrics(options.get("metrics"));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Couldn't run batch: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Computes the cost field of one cell with parallel delta-stepping and draws it as a heatmap
+     * @param args: "field", terrain image, elevation file or bundle, season, x, y, output image, then options:
+     *            --threads=n (default: one per processor), --delta=bucket width, --reverse for the cost
+     *            of reaching the cell instead of leaving it, --contour=cost between contour lines, and
+     *            --raster=file to also write the costs as a float raster
+     */
+    public static void costField(String[] args){
+        Map<String, String> options = parseOptions(args, 7);
+        if(options == null){
+            return;
+        }
+        try {
+            SeasonalMap map = SeasonalMap.load(ImageIO.read(new File(args[1])), args[2]);
+            applySlopePenalty(map, options);
+            TerrainGrid grid = map.getGrid(Season.fromName(args[3]));
+            int x = Integer.parseInt(args[4]);
+            int y = Integer.parseInt(args[5]);
+            if(!grid.inBounds(x, y)){
+                System.out.println("(" + x + ", " + y + ") is outside the " + grid.getCols() + "x" + grid.getRows() + " map");
+                return;
+            }
+            int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+            double delta = Double.parseDouble(options.getOrDefault("delta", String.valueOf(DeltaStepping.DEFAULT_DELTA)));
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long start = System.nanoTime();
+            float[] field;
             try {
-                img = ImageIO.read(inputFile);
+                field = DeltaStepping.costField(grid, grid.index(x, y), options.containsKey("reverse"), delta, pool);
+            } finally {
+                pool.shutdown();
             }
-            catch (IOException ioe) {
-                ioe.printStackTrace();
+            System.out.println("Cost field of " + field.length + " pixels on " + threads + " threads: "
+                    + String.format("%.1f", (System.nanoTime() - start) / 1e6) + " ms");
+            if(options.containsKey("raster")){
+                DeltaStepping.saveRaster(options.get("raster"), grid, grid.index(x, y), field);
+                System.out.println("Wrote " + options.get("raster"));
             }
+            double contour = Double.parseDouble(options.getOrDefault("contour", "0"));
+            ImageIO.write(DeltaStepping.heatmap(grid, field, contour), "png", new File(args[6]));
+            System.out.println("Wrote " + args[6]);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Couldn't compute cost field: " + e.getMessage());
+        }
+    }
 
-            if(season.equals("winter")){
-                for(Pixel pixel: affectedPixels){
-                    int x = pixel.getX();
-                    int y = pixel.getY();
-                    assert img != null;
-                    img.setRGB(x, y, colors[x][y].getRGB());
-                }
+    /**
+     * Plans a course, then applies batches of terrain changes one after another and repairs the routes
+     * after each with LifelongPlanner instead of searching every leg again
+     * @param args: "replan", terrain image, elevation file or bundle, path file, season, output image,
+     *            then one or more change files (see CourseReplanner.readChanges), each applied as one
+     *            batch, then options: --legs to print every leg after each batch, --compare to time a
+     *            fresh A* of every leg after each batch, and the slope penalties
+     */
+    public static void replan(String[] args){
+        int first = 6;
+        while(first < args.length && !args[first].startsWith("--")){
+            first++;
+        }
+        Map<String, String> options = parseOptions(args, first);
+        if(options == null){
+            return;
+        }
+        try {
+            BufferedImage image = ImageIO.read(new File(args[1]));
+            SeasonalMap map = SeasonalMap.load(image, args[2]);
+            applySlopePenalty(map, options);
+            Season season = Season.fromName(args[4]);
+            TerrainGrid grid = map.getGrid(season);
+            List<Pixel> path = readPathFile(args[3], grid);
+            int[] controls = new int[path.size()];
+            for(int i = 0; i < controls.length; i++){
+                controls[i] = grid.index(path.get(i).getX(), path.get(i).getY());
             }
-            else if(season.equals("spring")){
-                for(Pixel pixel: affectedPixels){
-                    int x = pixel.getX();
-                    int y = pixel.getY();
-                    assert img != null;
-                    img.setRGB(x, y, colors[x][y].getRGB());
+            long start = System.nanoTime();
+            CourseReplanner replanner = new CourseReplanner(grid, controls);
+            List<Route> routes = new ArrayList<>(replanner.getRoutes());
+            printReplan("Planned " + routes.size() + " legs", routes, System.nanoTime() - start, options);
+            for(int b = 6; b < first; b++){
+                Map<Integer, Pixel.TerrainType> changes = CourseReplanner.readChanges(args[b], replanner.getGrid());
+                start = System.nanoTime();
+                List<Route> repaired = replanner.apply(changes);
+                long nanos = System.nanoTime() - start;
+                int rerouted = 0;
+                for(int i = 0; i < repaired.size(); i++){
+                    if(!Arrays.equals(repaired.get(i).getCells(), routes.get(i).getCells())){
+                        rerouted++;
+                    }
                 }
+                printReplan("Batch " + (b - 5) + " (" + args[b] + ", " + changes.size() + " pixels): " + rerouted + " legs rerouted",
+                        repaired, nanos, options);
+                if(options.containsKey("compare")){
+                    TerrainGrid changed = replanner.getGrid();
+                    SearchWorkspace workspace = new SearchWorkspace(changed.size());
+                    long searchStart = System.nanoTime();
+                    long expanded = 0;
+                    for(int i = 0; i + 1 < controls.length; i++){
+                        expanded += aStar(changed, controls[i], controls[i + 1], workspace).getExpanded();
+                    }
+                    System.out.println("  A* from scratch: " + expanded + " nodes expanded, "
+                            + String.format("%.2f", (System.nanoTime() - searchStart) / 1e6) + " ms");
+                }
+                routes = new ArrayList<>(repaired);
             }
+            drawCourse(image, grid, map.getOverlay(season), season, routes);
+            ImageIO.write(image, "png", new File(args[5]));
+            System.out.println("Wrote " + args[5]);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Couldn't replan: " + e.getMessage());
+        }
+    }
 
-            //path drawing
-            Color red = new Color(255, 0, 0);
-            int rgb = red.getRGB();
+    private static void printReplan(String what, List<Route> routes, long nanos, Map<String, String> options){
+        double cost = 0.0;
+        long expanded = 0;
+        for(Route route: routes){
+            cost += route.getCost();
+            expanded += route.getExpanded();
+        }
+        System.out.println(what + ": cost " + cost + ", " + expanded + " nodes expanded, "
+                + String.format("%.2f", nanos / 1e6) + " ms");
+        if(options.containsKey("legs")){
+            for(int i = 0; i < routes.size(); i++){
+                Route route = routes.get(i);
+                System.out.println("  Leg " + (i + 1) + ": cost " + route.getCost() + ", " + route.getCells().length
+                        + " pixels, " + route.getExpanded() + " nodes expanded");
+            }
+        }
+    }
+
+    /**
+     * Cuts a map into tiles for TiledMap
+     * @param args: "tile", terrain image, elevation file or bundle, tiled map file, then
+     *            --tile-size=n for the width and height of a tile
+     */
+    public static void tileMap(String[] args){
+        Map<String, String> options = parseOptions(args, 4);
+        if(options == null){
+            return;
+        }
+        try {
+            SeasonalMap map = SeasonalMap.load(ImageIO.read(new File(args[1])), args[2]);
+            int tileSize = Integer.parseInt(options.getOrDefault("tile-size", String.valueOf(TiledMap.DEFAULT_TILE_SIZE)));
+            long start = System.nanoTime();
+            TiledMap.write(args[3], map, tileSize);
+            System.out.println("Wrote " + args[3] + " (" + (System.nanoTime() - start) / 1000000 + " ms)");
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Couldn't tile map: " + e.getMessage());
+        }
+    }
 
-            for (List<Pixel> pixelList : event) {
-                for (Pixel pixel : pixelList) {
-                    int x = pixel.getX();
-                    int y = pixel.getY();
-                    assert img != null;
-                    img.setRGB(x, y, rgb);
+    /**
+     * Finds the route of a course on a tiled map, reading the map through the tile cache, and draws
+     * the part of the map around the route
+     * @param args: "tiled", tiled map file, path file, season, output image, then options:
+     *            --cache-tiles=n for the most tiles kept in memory, --margin=n for the pixels drawn
+     *            around the route
+     */
+    public static void tiledCourse(String[] args){
+        Map<String, String> options = parseOptions(args, 5);
+        if(options == null){
+            return;
+        }
+        int cacheTiles = Integer.parseInt(options.getOrDefault("cache-tiles", String.valueOf(TiledMap.DEFAULT_CACHE_TILES)));
+        int margin = Integer.parseInt(options.getOrDefault("margin", "20"));
+        Season season = Season.fromName(args[3]);
+        try (TiledMap map = TiledMap.open(args[1], cacheTiles)) {
+            List<int[]> controls = new ArrayList<>();
+            for(String line: Files.readAllLines(new File(args[2]).toPath())){
+                if(line.trim().isEmpty()){
+                    continue;
+                }
+                String[] values = line.trim().split("\\s+");
+                int x = Integer.parseInt(values[0]);
+                int y = Integer.parseInt(values[1]);
+                if(!map.inBounds(x, y)){
+                    throw new IllegalArgumentException("Control " + x + " " + y + " is outside the " + map.getCols() + "x" + map.getRows() + " map");
+                }
+                controls.add(new int[]{x, y});
+            }
+            long start = System.nanoTime();
+            TiledSearch search = new TiledSearch(map, season, Double.parseDouble(options.getOrDefault("uphill", "0")),
+                    Double.parseDouble(options.getOrDefault("downhill", "0")));
+            List<Route> routes = new ArrayList<>();
+            double cost = 0.0;
+            long expanded = 0;
+            int left = map.getCols();
+            int top = map.getRows();
+            int right = 0;
+            int bottom = 0;
+            for(int i = 0; i + 1 < controls.size(); i++){
+                int[] from = controls.get(i);
+                int[] to = controls.get(i + 1);
+                Route route = search.search(from[0], from[1], to[0], to[1]);
+                routes.add(route);
+                cost += route.getCost();
+                expanded += route.getExpanded();
+                for(int cell: route.getCells()){
+                    left = Math.min(left, cell % map.getCols());
+                    top = Math.min(top, cell / map.getCols());
+                    right = Math.max(right, cell % map.getCols());
+                    bottom = Math.max(bottom, cell / map.getCols());
+                }
+            }
+            System.out.println("Total path cost: " + cost + " (" + expanded + " nodes expanded, "
+                    + (System.nanoTime() - start) / 1000000 + " ms)");
+            System.out.println("Tile cache: " + map.getHits() + " hits, " + map.getMisses() + " misses, "
+                    + map.getEvictions() + " evictions, " + map.getCachedTiles() + " tiles cached");
+            if(right < left){
+                return; //no route to draw
+            }
+            left = Math.max(0, left - margin);
+            top = Math.max(0, top - margin);
+            right = Math.min(map.getCols() - 1, right + margin);
+            bottom = Math.min(map.getRows() - 1, bottom + margin);
+            BufferedImage image = map.render(season, left, top, right - left + 1, bottom - top + 1);
+            int red = new Color(255, 0, 0).getRGB();
+            for(Route route: routes){
+                for(int cell: route.getCells()){
+                    image.setRGB(cell % map.getCols() - left, cell / map.getCols() - top, red);
                 }
             }
+            ImageIO.write(image, "png", new File(args[4]));
+            System.out.println("Wrote " + args[4] + " (" + left + "," + top + " to " + right + "," + bottom + ")");
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Couldn't find route on tiled map: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applies the --uphill and --downhill slope penalties (extra cost per unit of grade, 0 by default)
+     * @param map: the loaded map
+     * @param options: command line options
+     * @throws IllegalArgumentException if a penalty isn't a number or is negative
+     */
+    public static void applySlopePenalty(SeasonalMap map, Map<String, String> options){
+        map.setSlopePenalty(Double.parseDouble(options.getOrDefault("uphill", "0")),
+                Double.parseDouble(options.getOrDefault("downhill", "0")));
+    }
+
+    /**
+     * Dumps the shared metrics registry
+     * @param fileName: empty to print Prometheus text, otherwise a file to write, as JSON when its name
+     *                ends in .json and as Prometheus text otherwise
+     */
+    public static void writeMetrics(String fileName){
+        Metrics metrics = Metrics.shared();
+        if(fileName.isEmpty()){
+            System.out.print(metrics.toPrometheus());
+            return;
+        }
+        String text = fileName.endsWith(".json") ? metrics.toJson() : metrics.toPrometheus();
+        try {
+            Files.write(new File(fileName).toPath(), text.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ioe) {
+            System.out.println("Couldn't write metrics: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Main function
+     * @param args command line arguments
+     */
+    public static void main(String[] args){
+        if(args.length == 4 && args[0].equals("compile")){
+            compileBundle(args[1], args[2], args[3]);
+            return;
+        }
+        if((args.length == 4 || args.length == 5) && args[0].equals("landmarks")){
+            computeLandmarks(args[1], args[2], args[3], args.length == 5 ? Integer.parseInt(args[4]) : Landmarks.DEFAULT_COUNT);
+            return;
+        }
+        if(args.length >= 7 && args[0].equals("field")){
+            costField(args);
+            return;
+        }
+        if(args.length >= 4 && args[0].equals("batch")){
+            batch(args);
+            return;
+        }
+        if(args.length >= 3 && args[0].equals("serve")){
+            String[] serveArgs = new String[args.length - 1];
+            System.arraycopy(args, 1, serveArgs, 0, serveArgs.length);
+            serve(serveArgs);
+            return;
+        }
+        if(args.length >= 7 && args[0].equals("replan")){
+            replan(args);
+            return;
+        }
+        if(args.length >= 4 && args[0].equals("tile")){
+            tileMap(args);
+            return;
+        }
+        if(args.length >= 5 && args[0].equals("tiled")){
+            tiledCourse(args);
+            return;
+        }
+        if(args.length == 5 && args[0].equals("contract")){
+            contractMap(args[1], args[2], Season.fromName(args[3]), args[4]);
+            return;
+        }
+        if(args.length < 5){
+            System.out.println("Missing args");
+            return;
+        }
+        //anything after the five positional arguments is an option of the form --name or --name=value
+        Map<String, String> options = parseOptions(args, 5);
+        if(options == null){
+            return;
+        }
+        SearchMode mode;
+        try {
+            mode = SearchMode.fromName(options.getOrDefault("search", "astar"));
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        String terrainImgName = args[0];
+        String elevationFileName = args[1];
+        String pathFileName = args[2];
+        Season season = Season.fromName(args[3]);
+        String outputImgName = args[4];
+
+        File inputFile = new File(terrainImgName);
+        Metrics metrics = Metrics.shared();
+        long phaseStart = System.nanoTime();
+
+        BufferedImage image = null;
+        try {
+            image = ImageIO.read(inputFile);
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+        assert image != null;
+
+        TerrainGrid grid;
+        BitSet affectedPixels;
+        LegSearch search;
+        try {
+            //a compiled bundle can be given in place of the elevation file
+            SeasonalMap map = SeasonalMap.load(image, elevationFileName);
+            metrics.phase("load").stop(phaseStart);
+            //season preprocessing includes the step costs and whatever the search precomputes for the season's grid
+            phaseStart = System.nanoTime();
+            applySlopePenalty(map, options);
+            grid = map.getGrid(season);
+            grid.edgeCosts();
+            affectedPixels = map.getOverlay(season);
+            search = mode.create(grid, createHeuristic(grid, season, options), options);
+            metrics.phase("season").stop(phaseStart);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Couldn't load map: " + e.getMessage());
+            return;
+        }
+        List<Pixel> path = readPathFile(pathFileName, grid);
+        if(options.containsKey("matrix") || options.containsKey("optimize")){
+            path = planCourse(grid, path, options);
+        }
+        int[] controls = new int[path.size()];
+        double pathLength = 0.0;
+        for(int i = 0; i < path.size(); i++){
+            controls[i] = grid.index(path.get(i).getX(), path.get(i).getY());
+            if(i > 0){
+                pathLength += distance(path.get(i - 1), path.get(i));
+            }
+        }
+        phaseStart = System.nanoTime();
+        List<Route> event = new CourseSolver(search).solve(controls);
+        metrics.phase("search").stop(phaseStart);
+        double routeCost = 0.0;
+        for(Route route: event){
+            routeCost += route.getCost();
+        }
+        System.out.println("Total path length in meters: " + pathLength);
+        System.out.println("Total route cost: " + routeCost);
+        if(options.containsKey("legs")){
+            for(int i = 0; i < event.size(); i++){
+                Route route = event.get(i);
+                SearchStats stats = route.getStats();
+                System.out.println("Leg " + (i + 1) + ": cost " + route.getCost() + ", " + route.getCells().length
+                        + " pixels, " + route.getExpanded() + " nodes expanded, " + stats.getPushes() + " pushes, "
+                        + stats.getPops() + " pops, " + stats.getDecreaseKeys() + " decrease-keys, peak open list "
+                        + stats.getPeakOpen() + ", " + String.format("%.2f", stats.getNanos() / 1e6) + " ms");
+            }
+        }
+
+
+        try {
+            phaseStart = System.nanoTime();
+            //the terrain grid keeps its own copy of the map, so the loaded image can be drawn on directly
+            drawCourse(image, grid, affectedPixels, season, event);
 
             // retrieve image
             File outputFile = new File(outputImgName);
-            assert img != null;
-            ImageIO.write(img, "png", outputFile);
+            ImageIO.write(image, "png", outputFile);
+            metrics.phase("render").stop(phaseStart);
         }
         catch (IOException ioe) {
             ioe.printStackTrace();
         }
+        if(options.containsKey("metrics")){
+            writeMetrics(options.get("metrics"));
+        }
     }
 }